@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import android.os.Parcel;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Compares the CodePinValue wire forms: the old java.io serialization, Parcel and the compact
+ * CodePinValueCodec. Timings are written to logcat under "CodePinValueBenchmark".
+ */
+public class CodePinValueBenchmark extends TestCase {
+
+  private static final String TAG = CodePinValueBenchmark.class.getSimpleName();
+
+  private static final int WARMUP = 2000;
+
+  private static final int ITERATIONS = 20000;
+
+  private final ParcelableCodePinValue value = new ParcelableCodePinValue("T", "12", "23.5");
+
+  public void testCodecRoundTrip() {
+    CodePinValue decoded = CodePinValue.fromBytes(value.toBytes());
+
+    assertEquals(value.getCode(), decoded.getCode());
+    assertEquals(value.getPin(), decoded.getPin());
+    assertEquals(value.getValue(), decoded.getValue());
+  }
+
+  public void testParcelRoundTrip() {
+    Parcel parcel = Parcel.obtain();
+    parcel.writeParcelable(value, 0);
+    parcel.setDataPosition(0);
+    ParcelableCodePinValue decoded = parcel.readParcelable(ParcelableCodePinValue.class.getClassLoader());
+    parcel.recycle();
+
+    assertEquals(value.getCode(), decoded.getCode());
+    assertEquals(value.getPin(), decoded.getPin());
+    assertEquals(value.getValue(), decoded.getValue());
+  }
+
+  public void testCodecIsSmallerThanSerializable() throws Exception {
+    int serialized = serialize(new LegacyCodePinValue("T", "12", "23.5")).length;
+    int encoded = value.toBytes().length;
+
+    Log.i(TAG, "Serializable: " + serialized + " bytes, codec: " + encoded + " bytes");
+
+    assertTrue(encoded < serialized);
+  }
+
+  public void testBenchmark() throws Exception {
+    LegacyCodePinValue legacy = new LegacyCodePinValue("T", "12", "23.5");
+
+    for (int i = 0; i < WARMUP; i++) {
+      deserialize(serialize(legacy));
+      parcelRoundTrip(value);
+      CodePinValue.fromBytes(value.toBytes());
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      deserialize(serialize(legacy));
+    }
+    long serializable = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      parcelRoundTrip(value);
+    }
+    long parcel = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      CodePinValue.fromBytes(value.toBytes());
+    }
+    long codec = System.nanoTime() - start;
+
+    Log.i(TAG, "Serializable: " + (serializable / ITERATIONS) + " ns/round trip");
+    Log.i(TAG, "Parcelable:   " + (parcel / ITERATIONS) + " ns/round trip");
+    Log.i(TAG, "Codec:        " + (codec / ITERATIONS) + " ns/round trip");
+  }
+
+  private static ParcelableCodePinValue parcelRoundTrip(ParcelableCodePinValue value) {
+    Parcel parcel = Parcel.obtain();
+    parcel.writeParcelable(value, 0);
+    byte[] bytes = parcel.marshall();
+    parcel.recycle();
+
+    parcel = Parcel.obtain();
+    parcel.unmarshall(bytes, 0, bytes.length);
+    parcel.setDataPosition(0);
+    ParcelableCodePinValue decoded = parcel.readParcelable(ParcelableCodePinValue.class.getClassLoader());
+    parcel.recycle();
+
+    return decoded;
+  }
+
+  private static byte[] serialize(Serializable object) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(object);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static Object deserialize(byte[] bytes) throws Exception {
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    Object object = in.readObject();
+    in.close();
+    return object;
+  }
+
+  /**
+   * The shape CodePinValue had while it was passed around as a Serializable.
+   */
+  private static class LegacyCodePinValue implements Serializable {
+
+    private String code;
+
+    private String pin;
+
+    private String value;
+
+    private LegacyCodePinValue(String code, String pin, String value) {
+      this.code = code;
+      this.pin = pin;
+      this.value = value;
+    }
+  }
+}
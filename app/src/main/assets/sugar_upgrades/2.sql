@@ -0,0 +1 @@
+ALTER TABLE BINDING ADD COLUMN POLL_INTERVAL INTEGER DEFAULT 0;
@@ -0,0 +1 @@
+ALTER TABLE BINDING ADD COLUMN SCRATCH_BANK INTEGER DEFAULT 0;
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd;
+
+import com.orm.SugarApp;
+
+import java.io.File;
+
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.MetricsExporter;
+import cc.arduino.mvd.routing.RoutingTable;
+import cc.arduino.mvd.routing.SugarRoutingSource;
+
+/**
+ * Connects the routing core to the database, and exports the metrics to a file.
+ */
+public class MvdApplication extends SugarApp {
+
+  /**
+   * How often the metrics are written to METRICS_FILE, in ms.
+   */
+  public static final long METRICS_INTERVAL = 60000;
+
+  public static final String METRICS_FILE = "metrics.txt";
+
+  private MetricsExporter metricsExporter;
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+
+    RoutingTable.getInstance().setSource(new SugarRoutingSource());
+
+    metricsExporter = new MetricsExporter(Metrics.getInstance(), new File(getFilesDir(), METRICS_FILE));
+    metricsExporter.start(METRICS_INTERVAL);
+  }
+
+  public MetricsExporter getMetricsExporter() {
+    return metricsExporter;
+  }
+}
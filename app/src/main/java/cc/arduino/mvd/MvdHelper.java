@@ -20,17 +20,10 @@ import android.app.ActivityManager;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.util.Log;
 
-import cc.arduino.mvd.models.CodePinValue;
-import cc.arduino.mvd.models.ServiceRoute;
-import cc.arduino.mvd.services.BeanService;
-import cc.arduino.mvd.services.BinocularService;
-import cc.arduino.mvd.services.ElisService;
-import cc.arduino.mvd.services.FirebaseService;
-import cc.arduino.mvd.services.HttpService;
-import cc.arduino.mvd.services.MqttService;
-import cc.arduino.mvd.services.XivelyService;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.services.ServiceDescriptor;
+import cc.arduino.mvd.services.ServiceRegistry;
 
 /**
  * Created by ksango on 19/03/15.
@@ -43,8 +36,8 @@ public class MvdHelper {
 
   public static boolean DEBUG = false;
 
-  public static final String ACTION_UP = "cc.arduino.mvd.helper.actions.UP";
-  public static final String ACTION_DOWN = "cc.arduino.mvd.helper.actions.DOWN";
+  public static final String ACTION_UP = MvdEvent.ACTION_UP;
+  public static final String ACTION_DOWN = MvdEvent.ACTION_DOWN;
   public static final String ACTION_KILL = "cc.arduino.mvd.helper.actions.KILL";
   public static final String ACTION_SCAN = "cc.arduino.mvd.helper.actions.SCAN";
 
@@ -69,115 +62,6 @@ public class MvdHelper {
   public static final String EXTRA_PERSIST = "cc.arduino.mvd.helper.extras.PERSIST";
   public static final String EXTRA_ID = "cc.arduino.mvd.helper.extras.ID";
 
-  /**
-   * Sends a DOWN broadcast to a Bean, the Bean always requires the MAC to be set!
-   *
-   * @param ctx
-   * @param sender
-   * @param target
-   * @param mac
-   * @param codePinValue
-   */
-  public static void sendBeanDownBroadcast(
-      Context ctx,
-      String sender,
-      String target,
-      String mac,
-      CodePinValue codePinValue
-  ) {
-    if (DEBUG) {
-      Log.d(TAG, "sendDownBroadcast [" + sender + "] -> [" + target + "]");
-      Log.d(TAG, codePinValue.toString());
-    }
-
-    Intent down = new Intent(ACTION_DOWN);
-    down.putExtra(EXTRA_TARGET, target);
-    down.putExtra(EXTRA_SENDER, sender);
-    down.putExtra(MvdServiceReceiver.EXTRA_SERVICE_MAC, mac);
-    down.putExtra(EXTRA_CODE_PIN_VALUE, codePinValue);
-    ctx.sendBroadcast(down);
-  }
-
-  /**
-   * Sends a DOWN broadcast.
-   *
-   * @param ctx
-   * @param sender
-   * @param target
-   * @param codePinValue
-   */
-  public static void sendDownBroadcast(
-      Context ctx,
-      String sender,
-      String target,
-      CodePinValue codePinValue
-  ) {
-    if (DEBUG) {
-      Log.d(TAG, "sendDownBroadcast [" + sender + "] -> [" + target + "]");
-      Log.d(TAG, codePinValue.toString());
-    }
-
-    Intent down = new Intent(ACTION_DOWN);
-    down.putExtra(EXTRA_TARGET, target);
-    down.putExtra(EXTRA_SENDER, sender);
-    down.putExtra(EXTRA_CODE_PIN_VALUE, codePinValue);
-    ctx.sendBroadcast(down);
-  }
-
-  /**
-   * Sends a UP broadcast, specifically for Bean. It includes the MAC.
-   *
-   * @param ctx
-   * @param sender
-   * @param target
-   * @param codePinValue
-   */
-  public static void sendBeanUpBroadcast(
-      Context ctx,
-      String sender,
-      String target,
-      String mac,
-      CodePinValue codePinValue
-  ) {
-    if (DEBUG) {
-      Log.d(TAG, "sendUpBroadcast [" + sender + "] -> [" + target + "]");
-      Log.d(TAG, codePinValue.toString());
-    }
-
-    Intent up = new Intent(ACTION_UP);
-    up.putExtra(EXTRA_TARGET, target);
-    up.putExtra(EXTRA_SENDER, sender);
-    up.putExtra(MvdServiceReceiver.EXTRA_SERVICE_MAC, mac);
-    up.putExtra(EXTRA_CODE_PIN_VALUE, codePinValue);
-    ctx.sendBroadcast(up);
-  }
-
-  /**
-   * Sends a UP broadcast.
-   *
-   * @param ctx
-   * @param sender
-   * @param target
-   * @param codePinValue
-   */
-  public static void sendUpBroadcast(
-      Context ctx,
-      String sender,
-      String target,
-      CodePinValue codePinValue
-  ) {
-    if (DEBUG) {
-      Log.d(TAG, "sendUpBroadcast [" + sender + "] -> [" + target + "]");
-      Log.d(TAG, codePinValue.toString());
-    }
-
-    Intent up = new Intent(ACTION_UP);
-    up.putExtra(EXTRA_TARGET, target);
-    up.putExtra(EXTRA_SENDER, sender);
-    up.putExtra(EXTRA_CODE_PIN_VALUE, codePinValue);
-    ctx.sendBroadcast(up);
-  }
-
   /**
    * Send the DOWN broadcast
    *
@@ -223,20 +107,11 @@ public class MvdHelper {
 
   /**
    * @param name
-   * @return
+   * @return The service class, or null if there is no such service
    */
   public Class getServiceClass(String name) {
-    if (name.equals(FirebaseService.class.getSimpleName())) {
-      return FirebaseService.class;
-    } else if (name.equals(HttpService.class.getSimpleName())) {
-      return HttpService.class;
-    } else if (name.equals(MqttService.class.getSimpleName())) {
-      return MqttService.class;
-    } else if (name.equals(ElisService.class.getSimpleName())) {
-      return ElisService.class;
-    }
-
-    return null;
+    ServiceDescriptor descriptor = ServiceRegistry.getInstance().get(name);
+    return descriptor != null ? descriptor.getServiceClass() : null;
   }
 
   /**
@@ -246,67 +121,7 @@ public class MvdHelper {
    * @return true if valid
    */
   public static boolean isValidService(String service) {
-    boolean valid = false;
-
-    if(service == null) {
-        return false;
-    }
-
-    // BEAN
-    if (service.equals(BeanService.class.getSimpleName())) {
-      return true;
-    }
-
-    // Elis
-    else if (service.equals(ElisService.class.getSimpleName())) {
-      return true;
-    }
-
-    // Firebase
-    else if (service.equals(FirebaseService.class.getSimpleName())) {
-      return true;
-    }
-
-    // Http
-    else if (service.equals(HttpService.class.getSimpleName())) {
-      return true;
-    }
-
-    // Binocular
-    else if (service.equals(BinocularService.class.getSimpleName())) {
-        return true;
-    }
-
-    // MQTT
-    else if (service.equals(MqttService.class.getSimpleName())) {
-      return true;
-    }
-
-    // Xively
-    else if (service.equals(XivelyService.class.getSimpleName())) {
-      return true;
-    }
-
-    return valid;
-  }
-
-  /**
-   * This will get the service target based on a context (Service name).
-   *
-   * @param route   The route
-   * @param context The service name where we're getting the target from
-   * @return The "other" service name
-   */
-  public static String getServiceTarget(ServiceRoute route, String context) {
-    String target = route.getService1();
-
-    if (route.getService1().equals(context))
-      target = route.getService2();
-    else if (route.getService2().equals(context))
-      target = route.getService1();
-
-    // Just in case, trim the of white spaces
-    return target.trim();
+    return ServiceRegistry.getInstance().contains(service);
   }
 
   /**
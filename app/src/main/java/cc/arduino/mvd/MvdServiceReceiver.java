@@ -22,16 +22,20 @@ import android.content.Intent;
 import android.util.Log;
 
 import java.util.List;
-
+import java.util.Locale;
+
+import cc.arduino.mvd.bus.MvdBus;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.dispatch.OutboundQueue;
+import cc.arduino.mvd.dispatch.Workers;
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.MetricsExporter;
 import cc.arduino.mvd.models.Binding;
 import cc.arduino.mvd.models.ServiceRoute;
-import cc.arduino.mvd.services.BeanService;
-import cc.arduino.mvd.services.BinocularService;
-import cc.arduino.mvd.services.ElisService;
-import cc.arduino.mvd.services.FirebaseService;
-import cc.arduino.mvd.services.HttpService;
-import cc.arduino.mvd.services.MqttService;
-import cc.arduino.mvd.services.XivelyService;
+import cc.arduino.mvd.routing.RoutingTable;
+import cc.arduino.mvd.services.ServiceDescriptor;
+import cc.arduino.mvd.services.ServiceRegistry;
+import cc.arduino.mvd.trace.Tracer;
 
 import static cc.arduino.mvd.MvdHelper.DEBUG;
 import static cc.arduino.mvd.MvdHelper.EXTRA_BINDING_NAME;
@@ -67,8 +71,24 @@ public class MvdServiceReceiver extends BroadcastReceiver {
   public static final String EXTRA_SERVICE_DELAY = "cc.arduino.mvd.services.extras.DELAY";
   public static final String EXTRA_SERVICE_MAC = "cc.arduino.mvd.services.extras.MAC";
   public static final String EXTRA_SERVICE_TIMEOUT = "cc.arduino.mvd.services.extras.TIMEOUT";
+  public static final String EXTRA_SERVICE_PROTOCOL = "cc.arduino.mvd.services.extras.PROTOCOL";
+  public static final String EXTRA_SERVICE_MAX_DELAY = "cc.arduino.mvd.services.extras.MAX_DELAY";
+  public static final String EXTRA_SERVICE_POLL_INTERVAL = "cc.arduino.mvd.services.extras.POLL_INTERVAL";
+  public static final String EXTRA_SERVICE_SCRATCH_BANK = "cc.arduino.mvd.services.extras.SCRATCH_BANK";
+  public static final String EXTRA_SERVICE_SCAN_INTERVAL = "cc.arduino.mvd.services.extras.SCAN_INTERVAL";
+  public static final String EXTRA_SERVICE_BATCH = "cc.arduino.mvd.services.extras.BATCH";
   public static final String EXTRA_SERVICE_API_KEY = "cc.arduino.mvd.services.extras.API_KEY";
   public static final String EXTRA_SERVICE_FEED_ID = "cc.arduino.mvd.services.extras.FEED_ID";
+  public static final String EXTRA_SERVICE_QUEUE_POLICY = "cc.arduino.mvd.services.extras.QUEUE_POLICY";
+  public static final String EXTRA_SERVICE_QUEUE_CAPACITY = "cc.arduino.mvd.services.extras.QUEUE_CAPACITY";
+  public static final String EXTRA_SERVICE_FLUSH_INTERVAL = "cc.arduino.mvd.services.extras.FLUSH_INTERVAL";
+
+  public static final String ACTION_LIST_QUEUES = "cc.arduino.mvd.services.actions.LIST_QUEUES";
+
+  public static final String ACTION_DUMP_LATENCY = "cc.arduino.mvd.services.actions.DUMP_LATENCY";
+  public static final String EXTRA_RESET = "cc.arduino.mvd.services.extras.RESET";
+
+  public static final String ACTION_GET_METRICS = "cc.arduino.mvd.services.actions.GET_METRICS";
 
   // Bean specific actions
   public static final String ACTION_ADD_BEAN = "cc.arduino.mvd.services.actions.ADD_BEAN";
@@ -93,166 +113,43 @@ public class MvdServiceReceiver extends BroadcastReceiver {
     if (action.equals(ACTION_START_SERVICE)) {
       String name = intent.getStringExtra(EXTRA_SERVICE_NAME);
 
-      if (!MvdHelper.isValidService(name)) {
+      ServiceDescriptor descriptor = ServiceRegistry.getInstance().get(name);
+      if (descriptor == null) {
         Log.e(TAG, "Invalid service name: " + name);
         return;
       }
 
-      // Start Firebase
-      if (name.equals(FirebaseService.class.getSimpleName())) {
-        String url = intent.getStringExtra(EXTRA_SERVICE_URL);
-
-        if (DEBUG) {
-          Log.d(TAG, "Starting FIREBASE service");
-        }
-        Intent firebase = new Intent(context, FirebaseService.class);
-        firebase.putExtra(EXTRA_SERVICE_URL, url);
-        context.startService(firebase);
-      }
-
-      // Start XIVELY
-      else if (name.equals(XivelyService.class.getSimpleName())) {
-        String apiKey = intent.getStringExtra(EXTRA_SERVICE_API_KEY);
-        String feedId = intent.getStringExtra(EXTRA_SERVICE_FEED_ID);
-
-        if (DEBUG) {
-          Log.d(TAG, "Starting XIVELY service");
-        }
-        Intent xively = new Intent(context, XivelyService.class);
-        xively.putExtra(EXTRA_SERVICE_API_KEY, apiKey);
-        xively.putExtra(EXTRA_SERVICE_FEED_ID, feedId);
-        context.startService(xively);
-      }
-
-      // Start ELIS
-      else if (name.equals(ElisService.class.getSimpleName())) {
-        String url = intent.getStringExtra(EXTRA_SERVICE_URL);
-        int port = intent.getIntExtra(EXTRA_SERVICE_PORT, 11414);
-
-        if (DEBUG) {
-          Log.d(TAG, "Starting ELIS service");
-        }
-
-        Intent elis = new Intent(context, ElisService.class);
-        elis.putExtra(EXTRA_SERVICE_URL, url);
-        elis.putExtra(EXTRA_SERVICE_PORT, port);
-        context.startService(elis);
-      }
-
-      // Start HTTP
-      else if (name.equals(HttpService.class.getSimpleName())) {
-        String url = intent.getStringExtra(EXTRA_SERVICE_URL);
-        int delay = intent.getIntExtra(EXTRA_SERVICE_DELAY, 5000);
-
-        if (DEBUG) {
-          Log.d(TAG, "Starting HTTP service");
-        }
-        Intent http = new Intent(context, HttpService.class);
-        http.putExtra(EXTRA_SERVICE_URL, url);
-        http.putExtra(EXTRA_SERVICE_DELAY, delay);
-        context.startService(http);
-      }
-
-      // Start BinocularService
-      else if (name.equals(BinocularService.class.getSimpleName())) {
-          String url = intent.getStringExtra(EXTRA_SERVICE_URL);
-          int delay = intent.getIntExtra(EXTRA_SERVICE_DELAY, 5000);
-
-          if (DEBUG) {
-              Log.d(TAG, "Starting Binocular service");
-          }
-          Intent binocular = new Intent(context, BinocularService.class);
-          binocular.putExtra(EXTRA_SERVICE_URL, url);
-          binocular.putExtra(EXTRA_SERVICE_DELAY, delay);
-          context.startService(binocular);
+      List<String> missing = descriptor.getMissingExtras(intent);
+      if (!missing.isEmpty()) {
+        Log.e(TAG, "Can't start " + name + ", missing extras: " + missing);
+        return;
       }
 
-      // Start MQTT
-      else if (name.equals(MqttService.class.getSimpleName())) {
-        String url = intent.getStringExtra(EXTRA_SERVICE_URL);
-        int port = intent.getIntExtra(EXTRA_SERVICE_PORT, 1883);
-
-        if (DEBUG) {
-          Log.d(TAG, "Starting MQTT service");
-        }
-        Intent mqtt = new Intent(context, MqttService.class);
-        mqtt.putExtra(EXTRA_SERVICE_URL, url);
-        mqtt.putExtra(EXTRA_SERVICE_PORT, port);
-        context.startService(mqtt);
+      // Any service can have its outbound queue configured
+      if (intent.hasExtra(EXTRA_SERVICE_QUEUE_POLICY) || intent.hasExtra(EXTRA_SERVICE_QUEUE_CAPACITY)) {
+        configureQueue(name, intent);
       }
 
-      // Start Bean
-      else if (name.equals(BeanService.class.getSimpleName())) {
-        if (DEBUG) {
-          Log.d(TAG, "Starting BEAN service");
-        }
-        Intent bean = new Intent(context, BeanService.class);
-        context.startService(bean);
+      if (DEBUG) {
+        Log.d(TAG, "Starting " + descriptor.getLabel() + " service");
       }
+      context.startService(descriptor.buildStartIntent(context, intent));
     }
 
     // A service was requested to stop
     else if (action.equals(ACTION_STOP_SERVICE)) {
       String name = intent.getStringExtra(EXTRA_SERVICE_NAME);
 
-      if (!MvdHelper.isValidService(name)) {
+      ServiceDescriptor descriptor = ServiceRegistry.getInstance().get(name);
+      if (descriptor == null) {
         Log.e(TAG, "Invalid service name: " + name);
         return;
       }
 
-      // Stop Firebase
-      if (name.equals(FirebaseService.class.getSimpleName())) {
-        if (DEBUG) {
-          Log.d(TAG, "Stopping FIREBASE service");
-        }
-        Intent firebase = new Intent(context, FirebaseService.class);
-        context.stopService(firebase);
-      }
-
-      // Stop XIVELY
-      else if (name.equals(XivelyService.class.getSimpleName())) {
-        if (DEBUG) {
-          Log.d(TAG, "Stopping XIVELY service");
-        }
-        Intent xively = new Intent(context, XivelyService.class);
-        context.stopService(xively);
-      }
-
-      // Stop ELIS
-      else if (name.equals(ElisService.class.getSimpleName())) {
-        if (DEBUG) {
-          Log.d(TAG, "Stopping ELIS service");
-        }
-        Intent elis = new Intent(context, ElisService.class);
-        context.stopService(elis);
-      }
-
-      // Stop HTTP
-      else if (name.equals(HttpService.class.getSimpleName())) {
-        if (DEBUG) {
-          Log.d(TAG, "Stopping HTTP service");
-        }
-        Intent http = new Intent(context, HttpService.class);
-        context.stopService(http);
-      }
-
-      // Stop MQTT
-      else if (name.equals(MqttService.class.getSimpleName())) {
-        if (DEBUG) {
-          Log.d(TAG, "Stopping MQTT service");
-        }
-        Intent mqtt = new Intent(context, MqttService.class);
-        context.stopService(mqtt);
-      }
-
-      // Stop BEAN
-      else if (name.equals(BeanService.class.getSimpleName())) {
-        if (DEBUG) {
-          Log.d(TAG, "Stopping BEAN service");
-        }
-        Intent bean = new Intent(context, BeanService.class);
-        context.stopService(bean);
+      if (DEBUG) {
+        Log.d(TAG, "Stopping " + descriptor.getLabel() + " service");
       }
+      context.stopService(descriptor.buildStopIntent(context));
     }
 
     // Create a binding
@@ -271,7 +168,11 @@ public class MvdServiceReceiver extends BroadcastReceiver {
         binding.service = service;
         binding.code = code;
         binding.pin = pin;
+        binding.pollInterval = intent.getIntExtra(EXTRA_SERVICE_POLL_INTERVAL, 0);
+        binding.scratchBank = intent.getIntExtra(EXTRA_SERVICE_SCRATCH_BANK, 0);
         binding.save();
+
+        RoutingTable.getInstance().reload();
       }
     }
 
@@ -333,12 +234,16 @@ public class MvdServiceReceiver extends BroadcastReceiver {
           Log.d(TAG, "Deleted " + size + " bindings.");
         }
       }
+
+      RoutingTable.getInstance().reload();
     }
 
     // Clear all bindings
     else if (action.equals(ACTION_CLEAR_BINDINGS)) {
       Binding.deleteAll(Binding.class);
 
+      RoutingTable.getInstance().reload();
+
       Log.d(TAG, "Deleted all bindings.");
     }
 
@@ -382,6 +287,8 @@ public class MvdServiceReceiver extends BroadcastReceiver {
               // Not found, create the forwarding
               ServiceRoute serviceRoute = new ServiceRoute(service1, service2);
               serviceRoute.save();
+
+              RoutingTable.getInstance().reload();
             } else {
               if (DEBUG) {
                 Log.e(TAG, "Service forwarding was already detected between " + service1 + " and " + service2 + ", skipping.");
@@ -432,6 +339,8 @@ public class MvdServiceReceiver extends BroadcastReceiver {
           route.delete();
         }
 
+        RoutingTable.getInstance().reload();
+
         if (DEBUG) {
           Log.d(TAG, "Deleted " + size + " routes.");
         }
@@ -442,9 +351,57 @@ public class MvdServiceReceiver extends BroadcastReceiver {
     else if (action.equals(ACTION_CLEAR_ROUTES)) {
       ServiceRoute.deleteAll(ServiceRoute.class);
 
+      RoutingTable.getInstance().reload();
+
       Log.d(TAG, "Deleted all service routes.");
     }
 
+    // List the outbound queues of all services
+    else if (action.equals(ACTION_LIST_QUEUES)) {
+      List<OutboundQueue<MvdEvent>> queues = MvdBus.getInstance().getQueues();
+
+      Log.d(TAG, "Listing outbound queues:");
+      for (OutboundQueue<MvdEvent> queue : queues) {
+        Log.d(TAG, queue.toString());
+      }
+      Log.d(TAG, "(found a total of " + queues.size() + " queues)");
+    }
+
+    // Print the end to end latency of all routes
+    else if (action.equals(ACTION_DUMP_LATENCY)) {
+      List<String> lines = Tracer.getInstance().dump();
+
+      Log.d(TAG, "Listing route latencies:");
+      for (String line : lines) {
+        Log.d(TAG, line);
+      }
+      Log.d(TAG, "(found a total of " + lines.size() + " routes)");
+
+      if (intent.getBooleanExtra(EXTRA_RESET, false)) {
+        Tracer.getInstance().reset();
+      }
+    }
+
+    // Print the metrics of all services, and write them to the metrics file
+    else if (action.equals(ACTION_GET_METRICS)) {
+      List<String> lines = Metrics.getInstance().dump();
+
+      Log.d(TAG, "Listing metrics:");
+      for (String line : lines) {
+        Log.d(TAG, line);
+      }
+
+      // The shared worker pools
+      for (String line : Workers.getInstance().dump()) {
+        Log.d(TAG, line);
+      }
+
+      MetricsExporter exporter = ((MvdApplication) context.getApplicationContext()).getMetricsExporter();
+      exporter.exportLater();
+
+      Log.d(TAG, "(written to " + exporter.getFile() + ")");
+    }
+
     // Enable debugging
     else if (action.equals(MvdHelper.ACTION_ENABLE_DEBUG)) {
       Log.d(TAG, "Enabling debug");
@@ -474,4 +431,32 @@ public class MvdServiceReceiver extends BroadcastReceiver {
     }
   }
 
+  /**
+   * Set the outbound queue policy and capacity of a service from the START_SERVICE extras. Missing
+   * extras fall back to the defaults.
+   *
+   * @param name   The service name
+   * @param intent The START_SERVICE intent
+   */
+  private void configureQueue(String name, Intent intent) {
+    OutboundQueue.Policy policy = OutboundQueue.DEFAULT_POLICY;
+
+    String policyName = intent.getStringExtra(EXTRA_SERVICE_QUEUE_POLICY);
+    if (policyName != null) {
+      try {
+        policy = OutboundQueue.Policy.valueOf(policyName.trim().toUpperCase(Locale.US));
+      } catch (IllegalArgumentException e) {
+        Log.e(TAG, "Invalid queue policy: " + policyName + ", using " + policy);
+      }
+    }
+
+    int capacity = intent.getIntExtra(EXTRA_SERVICE_QUEUE_CAPACITY, OutboundQueue.DEFAULT_CAPACITY);
+
+    MvdBus.getInstance().configureQueue(name, policy, capacity);
+
+    if (DEBUG) {
+      Log.d(TAG, "Outbound queue for " + name + " set to " + policy + " (" + capacity + ")");
+    }
+  }
+
 }
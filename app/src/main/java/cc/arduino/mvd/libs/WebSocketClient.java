@@ -1,7 +1,5 @@
 package cc.arduino.mvd.libs;
 
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.text.TextUtils;
 import android.util.Base64;
 import android.util.Log;
@@ -10,6 +8,9 @@ import org.apache.http.client.HttpResponseException;
 import org.apache.http.message.BasicLineParser;
 import org.apache.http.message.BasicNameValuePair;
 
+import cc.arduino.mvd.dispatch.Dispatcher;
+import cc.arduino.mvd.dispatch.Workers;
+
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
@@ -25,6 +26,7 @@ import java.security.KeyManagementException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class WebSocketClient {
   private static final String TAG = "WebSocketClient";
@@ -32,9 +34,9 @@ public class WebSocketClient {
   private URI                      mURI;
   private Listener                 mListener;
   private Socket                   mSocket;
-  private Thread                   mThread;
-  private HandlerThread            mHandlerThread;
-  private Handler                  mHandler;
+  private String                   mOwner;
+  private String                   mSendKey;
+  private final AtomicBoolean      mRunning = new AtomicBoolean();
   private List<BasicNameValuePair> mExtraHeaders;
   private HybiParser               mParser;
 
@@ -47,14 +49,44 @@ public class WebSocketClient {
   }
 
   public WebSocketClient(URI uri, Listener listener, List<BasicNameValuePair> extraHeaders) {
+    this(uri, listener, extraHeaders, TAG);
+  }
+
+  /**
+   * @param owner The service the reader is counted for on the shared workers
+   */
+  public WebSocketClient(URI uri, Listener listener, List<BasicNameValuePair> extraHeaders, String owner) {
     mURI          = uri;
+    mOwner        = owner;
+    mSendKey      = TAG + "@" + System.identityHashCode(this);
     mListener = listener;
     mExtraHeaders = extraHeaders;
-    mParser       = new HybiParser(this);
+    mParser       = new HybiParser(new HybiParser.Client() {
+      @Override
+      public void onMessage(String message) {
+        mListener.onMessage(message);
+      }
+
+      @Override
+      public void onMessage(byte[] data) {
+        mListener.onMessage(data);
+      }
+
+      @Override
+      public void onDisconnect(int code, String reason) {
+        mListener.onDisconnect(code, reason);
+      }
 
-    mHandlerThread = new HandlerThread("websocket-thread");
-    mHandlerThread.start();
-    mHandler = new Handler(mHandlerThread.getLooper());
+      @Override
+      public void send(byte[] data) {
+        WebSocketClient.this.send(data);
+      }
+
+      @Override
+      public void sendFrame(byte[] frame) {
+        WebSocketClient.this.sendFrame(frame);
+      }
+    });
   }
 
   public Listener getListener() {
@@ -62,11 +94,12 @@ public class WebSocketClient {
   }
 
   public void connect() {
-    if (mThread != null && mThread.isAlive()) {
+    if (!mRunning.compareAndSet(false, true)) {
       return;
     }
 
-    mThread = new Thread(new Runnable() {
+    // Reads for as long as the socket is open, on a shared worker rather than a thread of its own
+    Runnable reader = new Runnable() {
       @Override
       public void run() {
         try {
@@ -149,15 +182,21 @@ public class WebSocketClient {
 
         } catch (Exception ex) {
           mListener.onError(ex);
+        } finally {
+          mRunning.set(false);
         }
       }
-    });
-    mThread.start();
+    };
+
+    if (!Workers.getInstance().execute(Workers.CONNECTIONS, mOwner, reader)) {
+      mRunning.set(false);
+      mListener.onError(new IOException("No worker left to connect on"));
+    }
   }
 
   public void disconnect() {
     if (mSocket != null) {
-      mHandler.post(new Runnable() {
+      Dispatcher.getInstance().execute(mSendKey, new Runnable() {
         @Override
         public void run() {
           try {
@@ -230,7 +269,7 @@ public class WebSocketClient {
   }
 
   void sendFrame(final byte[] frame) {
-    mHandler.post(new Runnable() {
+    Dispatcher.getInstance().execute(mSendKey, new Runnable() {
       @Override
       public void run() {
         try {
@@ -33,6 +33,12 @@ public class Binding extends SugarRecord<Binding> {
 
   public String pin;
 
+  // Fixed poll interval in milliseconds, 0 lets the BeanService adapt it
+  public long pollInterval;
+
+  // Scratch bank (1-5) the Bean pushes the value to, 0 if the pin is polled
+  public int scratchBank;
+
   public Binding() {
   }
 
@@ -84,8 +90,24 @@ public class Binding extends SugarRecord<Binding> {
     this.pin = pin;
   }
 
+  public long getPollInterval() {
+    return pollInterval;
+  }
+
+  public void setPollInterval(long pollInterval) {
+    this.pollInterval = pollInterval;
+  }
+
+  public int getScratchBank() {
+    return scratchBank;
+  }
+
+  public void setScratchBank(int scratchBank) {
+    this.scratchBank = scratchBank;
+  }
+
   @Override
   public String toString() {
-    return name + " : " + code + "/" + pin + " --> " + service;
+    return name + " : " + code + "/" + pin + " --> " + service + (pollInterval > 0 ? " (every " + pollInterval + " ms)" : "") + (scratchBank > 0 ? " (scratch " + scratchBank + ")" : "");
   }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * A CodePinValue that can be passed as an intent extra. CodePinValue itself lives in the core
+ * module, which has no Android dependencies.
+ */
+public class ParcelableCodePinValue extends CodePinValue implements Parcelable {
+
+  public static final Creator<ParcelableCodePinValue> CREATOR = new Creator<ParcelableCodePinValue>() {
+    @Override
+    public ParcelableCodePinValue createFromParcel(Parcel source) {
+      return new ParcelableCodePinValue(source.readString(), source.readString(), source.readString());
+    }
+
+    @Override
+    public ParcelableCodePinValue[] newArray(int size) {
+      return new ParcelableCodePinValue[size];
+    }
+  };
+
+  public ParcelableCodePinValue(String code, String pin, String value) {
+    super(code, pin, value);
+  }
+
+  public ParcelableCodePinValue(CodePinValue codePinValue) {
+    this(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
+  }
+
+  @Override
+  public int describeContents() {
+    return 0;
+  }
+
+  @Override
+  public void writeToParcel(Parcel dest, int flags) {
+    dest.writeString(getCode());
+    dest.writeString(getPin());
+    dest.writeString(getValue());
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cc.arduino.mvd.models.Binding;
+import cc.arduino.mvd.models.ServiceRoute;
+
+/**
+ * Loads the RoutingTable from the ServiceRoute and Binding tables.
+ */
+public class SugarRoutingSource implements RoutingSource {
+
+  @Override
+  public List<RouteEntry> loadRoutes() {
+    List<ServiceRoute> rows = ServiceRoute.listAll(ServiceRoute.class);
+
+    List<RouteEntry> routes = new ArrayList<>(rows.size());
+    for (ServiceRoute row : rows) {
+      routes.add(new RouteEntry(row.getService1(), row.getService2()));
+    }
+    return routes;
+  }
+
+  @Override
+  public List<BindingEntry> loadBindings() {
+    List<Binding> rows = Binding.listAll(Binding.class);
+
+    List<BindingEntry> bindings = new ArrayList<>(rows.size());
+    for (Binding row : rows) {
+      bindings.add(new BindingEntry(row.getMac(), row.getName(), row.getService(), row.getCode(), row.getPin(), row.getPollInterval(), row.getScratchBank()));
+    }
+    return bindings;
+  }
+}
@@ -29,25 +29,35 @@ import android.os.IBinder;
 import android.util.Log;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import cc.arduino.mvd.MvdHelper;
 import cc.arduino.mvd.MvdServiceReceiver;
-import cc.arduino.mvd.models.Binding;
+import cc.arduino.mvd.bus.MvdBus;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.dispatch.Workers;
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
+import cc.arduino.mvd.models.BeanPoll;
 import cc.arduino.mvd.models.CodePinValue;
-import cc.arduino.mvd.models.ServiceRoute;
-import nl.littlerobots.bean.Bean;
-import nl.littlerobots.bean.BeanDiscoveryListener;
-import nl.littlerobots.bean.BeanListener;
-import nl.littlerobots.bean.BeanManager;
+import cc.arduino.mvd.models.ParcelableCodePinValue;
+import cc.arduino.mvd.routing.BeanPollPlan;
+import cc.arduino.mvd.routing.BindingEntry;
+import cc.arduino.mvd.routing.LastValueTable;
+import cc.arduino.mvd.routing.Router;
+import cc.arduino.mvd.routing.RoutingTable;
+import cc.arduino.mvd.trace.Tracer;
+import cc.arduino.mvd.transport.BeanDiscoveryCache;
+import cc.arduino.mvd.transport.BeanSession;
+import cc.arduino.mvd.transport.BeanTransport;
+import cc.arduino.mvd.transport.BeanlibTransport;
 
 import static cc.arduino.mvd.MvdHelper.DEBUG;
 
@@ -60,19 +70,34 @@ public class BeanService extends Service {
 
   private static final String TAG = BeanService.class.getSimpleName();
 
+  private final ServiceMetrics metrics = Metrics.getInstance().get(TAG);
+
   private Handler handler;
 
   private long scanTimeout = 1000;
 
   private int delay = 1000; // Default polling for Bean sensors
 
-  private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(5);
+  private long scanInterval = 30000; // Default time between background scans, 0 to turn them off
 
   private ScheduledFuture scheduledFuture;
 
-  private Map<String, Bean> beans = new HashMap<>();
+  private ScheduledFuture scanFuture;
+
+  // Real Beans over BLE, the SimulatedBeanTransport stands in for them on the JVM
+  private BeanTransport transport;
+
+  // One session per Bean: its link, write queue, connection and last values, nothing shared
+  private ConcurrentMap<String, BeanSession> sessions = new ConcurrentHashMap<>();
 
-  private CodePinValue lastCodePinValue = null;
+  // What to poll on each Bean, kept in sync with the bindings by the RoutingTable
+  private BeanPollPlan pollPlan = new BeanPollPlan(RoutingTable.getInstance());
+
+  // Every device the scans found, by MAC
+  private BeanDiscoveryCache discoveryCache = new BeanDiscoveryCache();
+
+  // The MACs of all bound Beans, as of the last background scan
+  private volatile Set<String> boundMacs = Collections.emptySet();
 
   @Override
   public void onCreate() {
@@ -80,6 +105,8 @@ public class BeanService extends Service {
 
     handler = new Handler(getMainLooper());
 
+    transport = new BeanlibTransport(this, discoveryCache);
+
     BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(BLUETOOTH_SERVICE);
 
     BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
@@ -97,6 +124,8 @@ public class BeanService extends Service {
 
     registerReceiver(broadcastReceiver, filter);
 
+    MvdBus.getInstance().subscribe(TAG, busSubscriber);
+
     if (!bluetoothAdapter.isEnabled()) {
       if (DEBUG) {
         Log.d(TAG, "Turning on Bluetooth");
@@ -119,8 +148,15 @@ public class BeanService extends Service {
 
       delay = intent.getIntExtra(MvdServiceReceiver.EXTRA_SERVICE_DELAY, 1000);
 
+      // Pins are polled every DELAY while they change, and back off to MAX_DELAY while they don't
+      pollPlan.setIntervals(delay, intent.getIntExtra(MvdServiceReceiver.EXTRA_SERVICE_MAX_DELAY, delay * 16));
+
       startPullRequests(delay);
 
+      scanInterval = intent.getIntExtra(MvdServiceReceiver.EXTRA_SERVICE_SCAN_INTERVAL, 30000);
+
+      startBackgroundScans(scanInterval);
+
       if (DEBUG) {
         Log.d(TAG, TAG + " started.");
       }
@@ -133,12 +169,16 @@ public class BeanService extends Service {
   public void onDestroy() {
     super.onDestroy();
 
+    MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
     unregisterReceiver(broadcastReceiver);
 
     disconnectAllDevices();
 
     stopGetRequests();
 
+    stopBackgroundScans();
+
     if (DEBUG) {
       Log.d(TAG, TAG + " stopped.");
     }
@@ -161,17 +201,26 @@ public class BeanService extends Service {
 //          sendPollMessage(bean);
 //        }
 
-        List<Binding> bindings = Binding.listAll(Binding.class);
+        long now = System.currentTimeMillis();
 
-        for (Binding binding : bindings) {
-          Bean bean = beans.get(binding.getMac());
+        for (String mac : pollPlan.getMacs()) {
+          BeanSession session = sessions.get(mac);
 
-          sendPollMessage(bean, binding);
+          // Bound, but not added or not connected (yet)
+          if (session == null || !session.isWritable()) {
+            continue;
+          }
+
+          for (String frame : pollPlan.poll(mac, now)) {
+            session.poll(frame);
+          }
         }
       }
     };
 
-    scheduledFuture = scheduler.scheduleAtFixedRate(
+    scheduledFuture = Workers.getInstance().scheduleAtFixedRate(
+        Workers.IO,
+        TAG,
         task,
         delay,
         delay,
@@ -180,22 +229,68 @@ public class BeanService extends Service {
   }
 
   /**
-   * This sends a polling notification to the bean, which will tell the bean to send values for all it's sensors.
-   *
-   * @param bean
-   * @param binding
+   * Stop the recurring POLL's
    */
-  private void sendPollMessage(Bean bean, Binding binding) {
-    String msg = binding.getCode() + "/" + binding.getPin() + "\n";
-
-    bean.sendSerialMessage(msg);
+  private void stopGetRequests() {
+    scheduledFuture.cancel(true);
   }
 
   /**
-   * Stop the recurring POLL's
+   * Scan for a short while every interval, but only while a bound Bean isn't connected. Bound Beans
+   * that show up are connected right away.
+   *
+   * @param interval The time between the starts of two scans in ms, 0 to not scan
    */
-  private void stopGetRequests() {
-    scheduledFuture.cancel(true);
+  private void startBackgroundScans(long interval) {
+    stopBackgroundScans();
+
+    if (interval <= 0) {
+      return;
+    }
+
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        discoveryCache.expire(System.currentTimeMillis());
+
+        Set<String> macs = new HashSet<>();
+        for (BindingEntry binding : RoutingTable.getInstance().getAllBindings()) {
+          macs.add(binding.getMac());
+        }
+        boundMacs = macs;
+
+        for (String mac : macs) {
+          BeanSession session = sessions.get(mac);
+
+          if (session == null || !session.isWritable()) {
+            if (DEBUG) {
+              Log.d(TAG, "Looking for " + mac);
+            }
+
+            scanDevices(true);
+            return;
+          }
+        }
+      }
+    };
+
+    scanFuture = Workers.getInstance().scheduleAtFixedRate(
+        Workers.IO,
+        TAG,
+        task,
+        0,
+        interval,
+        TimeUnit.MILLISECONDS
+    );
+  }
+
+  private void stopBackgroundScans() {
+    if (scanFuture != null) {
+      scanFuture.cancel(true);
+      scanFuture = null;
+    }
+
+    transport.cancelDiscovery();
   }
 
   /**
@@ -206,22 +301,37 @@ public class BeanService extends Service {
   private void scanDevices(boolean scan) {
     // Start scanning
     if (scan) {
-      Log.d(TAG, "Starting bean scan...");
+      if (DEBUG) {
+        Log.d(TAG, "Starting bean scan...");
+      }
+
       handler.postDelayed(new Runnable() {
         @Override
         public void run() {
-          Log.d(TAG, "Stopping bean scan.");
-          BeanManager.getInstance().cancelDiscovery();
+          if (DEBUG) {
+            Log.d(TAG, "Stopping bean scan.");
+          }
+
+          transport.cancelDiscovery();
+
+          if (DEBUG) {
+            for (BeanDiscoveryCache.Sighting sighting : discoveryCache.snapshot()) {
+              Log.d(TAG, sighting.toString());
+            }
+          }
         }
       }, scanTimeout);
 
-      BeanManager.getInstance().startDiscovery(beanDiscoveryListener);
+      transport.startDiscovery(discoveryListener);
     }
 
     // Otherwise stop scanning
     else {
-      Log.d(TAG, "Stopping BEAN scan.");
-      BeanManager.getInstance().cancelDiscovery();
+      if (DEBUG) {
+        Log.d(TAG, "Stopping BEAN scan.");
+      }
+
+      transport.cancelDiscovery();
     }
   }
 
@@ -235,20 +345,23 @@ public class BeanService extends Service {
       Log.d(TAG, "Attempting to connect to " + mac);
     }
 
-    Collection<Bean> scannedBeans = BeanManager.getInstance().getBeans();
-
-    boolean beanFound = false;
-    for (Bean bean : scannedBeans) {
-      if (bean.getDevice().getAddress().equals(mac)) {
-        bean.connect(getApplicationContext(), new MvdBeanListener(bean.getDevice().getAddress()));
+    // Already known, only wake it up if we had given up on it
+    BeanSession existing = sessions.get(mac);
+    if (existing != null) {
+      existing.retry();
+      return;
+    }
 
-        beans.put(mac, bean);
+    BeanSession session = new BeanSession(TAG + "/" + mac, mac, pollPlan.getProtocol(mac), metrics, sessionHandler);
 
-        beanFound = true;
-      }
+    // Two ADD_BEANs for the same MAC, only one of them opens the Bean
+    if (sessions.putIfAbsent(mac, session) != null) {
+      return;
     }
 
-    if (!beanFound) {
+    if (!session.open(transport)) {
+      sessions.remove(mac, session);
+
       Log.e(TAG, "I couldn't find any bean with address [" + mac + "]");
     }
   }
@@ -263,14 +376,16 @@ public class BeanService extends Service {
       Log.d(TAG, "Attempting to disconnect " + mac);
     }
 
-    if (beans.containsKey(mac)) {
-      Bean bean = beans.remove(mac);
+    BeanSession session = sessions.remove(mac);
 
-      if (bean.isConnected()) {
-        bean.disconnect();
-      } else {
+    if (session != null) {
+      pollPlan.removeProtocol(mac);
+
+      if (session.getLink() != null && !session.getLink().isConnected()) {
         Log.e(TAG, "The Bean was not connected, but I made sure to remove it from my library anyway.");
       }
+
+      session.close();
     } else {
       Log.e(TAG, "I don't know this bean, did you enter the correct MAC?");
     }
@@ -280,29 +395,45 @@ public class BeanService extends Service {
    * Disconnects all devices.
    */
   private void disconnectAllDevices() {
-    Iterator it = beans.entrySet().iterator();
+    Iterator<BeanSession> it = sessions.values().iterator();
     while (it.hasNext()) {
-      Map.Entry pair = (Map.Entry) it.next();
-      Bean bean = (Bean) pair.getValue();
-      bean.disconnect();
+      it.next().close();
       it.remove();
     }
   }
 
   /**
-   * This is used for discovering beans.
+   * This is used for discovering beans, it's told about every advertisement.
    */
-  private BeanDiscoveryListener beanDiscoveryListener = new BeanDiscoveryListener() {
+  private BeanTransport.DiscoveryListener discoveryListener = new BeanTransport.DiscoveryListener() {
     @Override
-    public void onBeanDiscovered(Bean bean) {
-      Log.d(TAG, bean.getDevice().getName() + " - " + bean.getDevice().getAddress());
+    public void onDiscovered(String mac, String name, int rssi) {
+      if (discoveryCache.onDiscovered(mac, name, rssi, System.currentTimeMillis())) {
+        Log.d(TAG, name + " - " + mac + " (" + rssi + " dBm)");
+      }
+
+      if (!boundMacs.contains(mac)) {
+        return;
+      }
+
+      BeanSession session = sessions.get(mac);
+
+      // Bound but never added, or we were waiting for it to come back
+      if (session == null) {
+        connectToDevice(mac);
+      } else if (!session.isWritable()) {
+        session.onSeen();
+      }
     }
+  };
 
+  /**
+   * This is how other services hand me their values
+   */
+  private MvdBus.Subscriber busSubscriber = new MvdBus.Subscriber() {
     @Override
-    public void onDiscoveryComplete() {
-      if (DEBUG) {
-        Log.d(TAG, "Bean scan complete!");
-      }
+    public void onEvent(MvdEvent event) {
+      onValue(event.getAction(), event.getSender(), event.getTarget(), event.getMac(), event.getCodePinValue());
     }
   };
 
@@ -331,61 +462,21 @@ public class BeanService extends Service {
         codePinValue = new CodePinValue(code, pin, value);
       }
 
-      // ... or if we're getting the serializable
+      // ... or if we're getting the parcelable
       else if (intent.hasExtra(MvdHelper.EXTRA_CODE_PIN_VALUE)) {
-        codePinValue = (CodePinValue) intent.getSerializableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
+        codePinValue = intent.<ParcelableCodePinValue>getParcelableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
       }
 
-      // Make sure we've got a valid key-value set.
-      if (codePinValue != null) {
-
-        if (DEBUG) {
-          Log.d(TAG, codePinValue.toString());
-        }
-
-        if (!sender.equals(TAG)) {
-          // BeanService ALWAYS requires other services to pass the MAC too!
-          if (!intent.hasExtra(MvdServiceReceiver.EXTRA_SERVICE_MAC)) {
-            Log.e(TAG, "The BeanService requires the MAC to be set!");
-
-            return;
-          }
-
-          // Get the mac!
-          String mac = intent.getStringExtra(MvdServiceReceiver.EXTRA_SERVICE_MAC);
-
-
-          // If we're getting values from the Bean service (UP direction)
-          if (action.equals(MvdHelper.ACTION_UP)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              sendToBean(mac, codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-
-
-          // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Bean too
-          else if (action.equals(MvdHelper.ACTION_DOWN)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              sendToBean(mac, codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-        } else {
-          // Do nothing, this was myself broadcasting values
-          if (DEBUG) {
-            Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
-          }
-        }
+      // Make sure we've got a valid key-value set, it's handled on the dispatcher like any other value
+      if (codePinValue != null && target.equals(TAG)) {
+        MvdBus.getInstance().publish(new MvdEvent(action, sender, target, intent.getStringExtra(MvdServiceReceiver.EXTRA_SERVICE_MAC), codePinValue));
       }
 
       // If someone told me to kill myself...
       if (action.equals(MvdHelper.ACTION_KILL) && target.equals(TAG)) {
 
+        MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
         unregisterReceiver(broadcastReceiver);
 
         stopSelf();
@@ -411,6 +502,8 @@ public class BeanService extends Service {
           if (!BluetoothAdapter.checkBluetoothAddress(mac)) {
             Log.e(TAG, "This is not a valid MAC address.");
           } else {
+            pollPlan.setProtocol(mac, intent.getIntExtra(MvdServiceReceiver.EXTRA_SERVICE_PROTOCOL, BeanPoll.VERSION_1));
+
             // Connect to device
             connectToDevice(mac);
           }
@@ -427,7 +520,7 @@ public class BeanService extends Service {
             Log.e(TAG, "This is not a valid MAC address.");
           } else {
             // Make sure the MAC is known
-            if (!beans.containsKey(mac)) {
+            if (!sessions.containsKey(mac)) {
               Log.e(TAG, "I don't know this MAC, please try again.");
             } else {
               disconnectDevice(mac);
@@ -444,110 +537,113 @@ public class BeanService extends Service {
     }
   };
 
+  /**
+   * Handle a value sent to, or by, me. Values from other services, and the UP/DOWN broadcasts
+   * injected from the outside (adb), are handed to me through the bus on a Dispatcher worker.
+   */
+  private void onValue(String action, String sender, String target, String mac, CodePinValue codePinValue) {
+    if (DEBUG) {
+      Log.d(TAG, codePinValue.toString());
+    }
+
+    if (!sender.equals(TAG)) {
+      // BeanService ALWAYS requires other services to pass the MAC too!
+      if (mac == null) {
+        Log.e(TAG, "The BeanService requires the MAC to be set!");
+
+        return;
+      }
+
+
+      // If we're getting values from the Bean service (UP direction)
+      if (action.equals(MvdHelper.ACTION_UP)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          sendToBean(mac, codePinValue);
+        }
+      }
+
+
+      // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Bean too
+      else if (action.equals(MvdHelper.ACTION_DOWN)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          sendToBean(mac, codePinValue);
+        }
+      }
+    } else {
+      // Do nothing, this was myself broadcasting values
+      if (DEBUG) {
+        Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
+      }
+    }
+  }
+
 
   /**
-   * This will send a value to the correct bean.
+   * This will queue a value for the correct bean, it goes ahead of any polls.
    * <p/>
    *
-   * @param code
-   * @param pin
-   * @param value
+   * @param mac
+   * @param codePinValue
+   * @return true if the value was queued
    */
-  private void sendToBean(String mac, String code, String pin, String value) {
-    String message = code + "/" + pin + "/" + value + "\n"; // Always send newline!
+  private boolean sendToBean(String mac, CodePinValue codePinValue) {
+    String message = codePinValue.getCode() + "/" + codePinValue.getPin() + "/" + codePinValue.getValue() + "\n"; // Always send newline!
 
     if (DEBUG) {
       Log.d(TAG, message);
     }
 
+    BeanSession session = sessions.get(mac);
 
-    if (beans.containsKey(mac)) {
+    if (session != null) {
+      session.write(message, codePinValue);
 
-        Bean b = beans.get(mac);
-        try{
-            b.sendSerialMessage(message);
-        } catch(Exception e) {
-            e.printStackTrace();
-
-            // TODO: remove bindings, remove beans, scan, add beans
-
-            scanDevices(true);
-
-            try {
-                disconnectDevice(mac);
-            }catch(Exception e1) {
-                e1.printStackTrace();
-            }
-
-            connectToDevice(mac);
-        }
+      // Stored with the Bean, so reading it back from this Bean isn't a change
+      Router.getInstance().onWritten(TAG, codePinValue, session.getLastValues());
 
+      return true;
     } else {
       if (DEBUG) {
         Log.d(TAG, "Bean with address [" + mac + "] was not found.");
       }
     }
+
+    return false;
   }
 
   /**
    * This will handle the key-val from Bean's. Basically it determines if I should send a DOWN
    * broadcast or not depending on the last value I wrote UP.
    *
+   * @param session
    * @param codePinValue
    */
-  private void handleKeyValFromBean(String mac, CodePinValue codePinValue) {
+  private void handleKeyValFromBean(BeanSession session, CodePinValue codePinValue) {
+    String mac = session.getMac();
 
+    // Compared with what this Bean sent before, not with other Beans on the same pins
+    int change = Router.getInstance().onRead(TAG, mac, codePinValue, session.getLastValues());
 
+    // Poll the pin sooner, or later, depending on how much it moves
+    pollPlan.onRead(mac, codePinValue.getCode(), codePinValue.getPin(), change != LastValueTable.UNCHANGED);
 
-    // First read, just store the last values.
-    if (lastCodePinValue == null) {
+    // First read of the pin, the Router has passed it on as well
+    if (change == LastValueTable.FIRST) {
       if (DEBUG) {
         Log.d(TAG, "First read.");
         Log.d(TAG, codePinValue.toString());
       }
-
-      lastCodePinValue = codePinValue;
     }
 
     // Someone else changed the values in the cloud, I should react to it!
-    else if (!lastCodePinValue.equals(codePinValue)) {
+    // (the Router has already passed it on to my routes and bindings)
+    else if (change == LastValueTable.CHANGED) {
       if (DEBUG) {
         Log.d(TAG, "I got the following from Bean:");
         Log.d(TAG, codePinValue.toString());
       }
-
-      // This was not me editing, I'll go ahead and broadcast the value "down" to other services
-      // (The value is from "me", but it was edited by someone else in Firebase so I'll mask it as "me"
-      String source = TAG;
-
-      // Find a forwarding where I am included
-      List<ServiceRoute> routes = ServiceRoute.find(ServiceRoute.class, "service1 = ? OR service2 = ?", TAG, TAG);
-      for (ServiceRoute route : routes) {
-
-        if (DEBUG) {
-          Log.d(TAG, "Found route! " + route.getService1() + "-" + route.getService2());
-        }
-
-        // Get the target
-        String target = MvdHelper.getServiceTarget(route, TAG);
-
-        // Send the broadcast
-        MvdHelper.sendBeanDownBroadcast(getApplicationContext(), source, target, mac, codePinValue);
-      }
-
-      // Find a forwarding where I am included
-      List<Binding> bindings = Binding.find(Binding.class, "service = ?", TAG);
-      for (Binding binding : bindings) {
-        if (DEBUG) {
-          Log.d(TAG, "Found binding for " + binding.getCode() + "/" + binding.getPin() + " to " + binding.getService());
-        }
-
-        // Get the target (For bindings this is always the BeanService in the DOWN direction)
-        String target = BeanService.class.getSimpleName();
-
-        // Send the broadcast
-        MvdHelper.sendBeanDownBroadcast(getApplicationContext(), source, target, mac, codePinValue);
-      }
     }
 
     // I wrote these changes, I shouldn't care about informing anyone else
@@ -557,84 +653,41 @@ public class BeanService extends Service {
   }
 
   /**
-   * MVD implementation for the BeanListener. We need this because we want to be able of attaching
-   * new listeners to all new beans. We could of course reuse the same listener for all beans...meh
+   * Gets what the sessions read from their Beans, and what was written to them.
    */
-  private class MvdBeanListener implements BeanListener {
-
-    private String mac;
-
-    private MvdBeanListener(String mac) {
-      this.mac = mac;
-    }
-
+  private BeanSession.Handler sessionHandler = new BeanSession.Handler() {
     @Override
-    public void onConnected() {
-      Log.d(TAG, "Connected to a bean!");
-    }
-
-    @Override
-    public void onConnectionFailed() {
-      Log.e(TAG, "Connection failed!");
-    }
-
-    @Override
-    public void onDisconnected() {
+    public void onValue(BeanSession session, CodePinValue codePinValue) {
       if (DEBUG) {
-        Log.d(TAG, "Disconnected from a bean!");
+        Log.d(TAG, "read [" + codePinValue + "] from Bean with address [" + session.getMac() + "]");
       }
+
+      handleKeyValFromBean(session, codePinValue);
     }
 
     @Override
-    public void onSerialMessageReceived(byte[] bytes) {
-      String msg = new String(bytes);
-
-      if (DEBUG) {
-        Log.d(TAG, "read [" + msg + "] from Bean with address [" + mac + "]");
-      }
-
-      CodePinValue codePinValue = parseBeanMessage(msg);
-
+    public void onScratch(BeanSession session, int bank, byte[] bytes) {
+      // Pushed by the sketch, no poll needed
+      CodePinValue codePinValue = pollPlan.onScratch(session.getMac(), bank, bytes);
 
       if (codePinValue != null) {
-        handleKeyValFromBean(mac, codePinValue);
+        handleKeyValFromBean(session, codePinValue);
+      } else if (DEBUG) {
+        Log.d(TAG, "Nothing is bound to scratch bank " + bank + " on Bean with address [" + session.getMac() + "]");
       }
-
     }
 
     @Override
-    public void onScratchValueChanged(int i, byte[] bytes) {
-      // TODO: What is a "scratch" value?
-    }
-  }
-
-  private CodePinValue parseBeanMessage(String msg) {
-    String[] parts = msg.split("/");
-
-    if(parts.length == 3) {
-    //if (parts == null || parts.length < 3) {
-      //parts = msg.split(":");
-
-      //if (parts == null || parts.length >= 3) {
-        return new CodePinValue(parts[0], parts[1], parts[2]);
-      //}
+    public void onWritten(BeanSession session, CodePinValue codePinValue, boolean written) {
+      if (written) {
+        Tracer.getInstance().complete(TAG, codePinValue);
+      }
     }
-
-    Log.d(TAG, "Could not parse message");
-
-    return null;
-  }
-
+  };
 
   private void printAllConnectedBeans() {
-    Iterator it = beans.entrySet().iterator();
-    while (it.hasNext()) {
-      Map.Entry pair = (Map.Entry) it.next();
-
-      String mac = (String) pair.getKey();
-      Bean bean = (Bean) pair.getValue();
-
-      Log.d(TAG, mac + " - " + bean.getDevice().getName());
+    for (BeanSession session : sessions.values()) {
+      Log.d(TAG, session.getMac() + " - " + session.getLink().getName() + " (" + session.getConnection().getState() + ")");
     }
   }
 }
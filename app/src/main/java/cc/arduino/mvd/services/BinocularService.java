@@ -41,8 +41,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -54,9 +52,16 @@ import cc.arduino.mvd.binocularsdk.webmodels.CollectionFactory;
 import cc.arduino.mvd.binocularsdk.webmodels.DeviceCollection;
 import cc.arduino.mvd.binocularsdk.webmodels.FlagCollection;
 import cc.arduino.mvd.binocularsdk.webmodels.ICollectionState;
-import cc.arduino.mvd.models.Binding;
+import cc.arduino.mvd.bus.MvdBus;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.dispatch.Workers;
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
 import cc.arduino.mvd.models.CodePinValue;
-import cc.arduino.mvd.models.ServiceRoute;
+import cc.arduino.mvd.models.ParcelableCodePinValue;
+import cc.arduino.mvd.routing.LastValueTable;
+import cc.arduino.mvd.routing.Router;
+import cc.arduino.mvd.trace.Tracer;
 
 import cc.arduino.mvd.binocularsdk.web.Fetcher;
 
@@ -71,9 +76,9 @@ public class BinocularService extends Service {
 
     public static final String TAG = BinocularService.class.getSimpleName();
 
-    OkHttpClient client = new OkHttpClient();
+    private final ServiceMetrics metrics = Metrics.getInstance().get(TAG);
 
-    private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(5);
+    OkHttpClient client = new OkHttpClient();
 
     private ScheduledFuture scheduledFuture;
 
@@ -83,8 +88,6 @@ public class BinocularService extends Service {
 
     private boolean started = false;
 
-    private CodePinValue lastCodePinValue = null;
-
     @Override
     public void onCreate() {
         super.onCreate();
@@ -95,6 +98,8 @@ public class BinocularService extends Service {
         filter.addAction(MvdHelper.ACTION_KILL);
 
         registerReceiver(broadcastReceiver, filter);
+
+        MvdBus.getInstance().subscribe(TAG, busSubscriber);
     }
 
     @Override
@@ -127,6 +132,10 @@ public class BinocularService extends Service {
     public void onDestroy() {
         super.onDestroy();
 
+        MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
+        LastValueTable.getInstance().clear(TAG);
+
         unregisterReceiver(broadcastReceiver);
 
         stopGetRequests();
@@ -211,18 +220,28 @@ public class BinocularService extends Service {
                                 }
                             });
 
-                            fetcher.execute();
+                            // Fetcher blocks until the request is answered
+                            long started = metrics.requestStarted();
+                            try {
+                                fetcher.execute();
+                            } finally {
+                                metrics.requestFinished(ServiceMetrics.RTT_FETCHER, started);
+                            }
                         }
 
                     } catch(Exception e) {
                         e.printStackTrace();
+
+                        metrics.countError();
                     }
 
                 }
             //}
         };
 
-        scheduledFuture = scheduler.scheduleAtFixedRate(
+        scheduledFuture = Workers.getInstance().scheduleAtFixedRate(
+                Workers.IO,
+                TAG,
                 task,
                 //delay,
                 10000,
@@ -255,58 +274,23 @@ public class BinocularService extends Service {
     private void handleKeyValFromHttp(String code, String pin, String value) {
         CodePinValue codePinValue = new CodePinValue(code, pin, value);
 
-        // First read, just store the last values.
-        if (lastCodePinValue == null) {
+        int change = Router.getInstance().onRead(TAG, null, codePinValue);
+
+        // First read of the pin, the Router has passed it on as well
+        if (change == LastValueTable.FIRST) {
             if (DEBUG) {
                 Log.d(TAG, "First read.");
                 Log.d(TAG, codePinValue.toString());
             }
-
-            lastCodePinValue = codePinValue;
         }
 
         // Someone else changed the values in the cloud, I should react to it!
-        else if (!lastCodePinValue.equals(codePinValue)) {
+        // (the Router has already passed it on to my routes and bindings)
+        else if (change == LastValueTable.CHANGED) {
             if (DEBUG) {
                 Log.d(TAG, "I got the following from Firebase:");
                 Log.d(TAG, codePinValue.toString());
             }
-
-            // This was not me editing, I'll go ahead and broadcast the value "down" to other services
-            // (The value is from "me", but it was edited by someone else in Firebase so I'll mask it as "me"
-            String source = TAG;
-            /*
-            // Find a forwarding where I am included
-            List<ServiceRoute> routes = ServiceRoute.find(ServiceRoute.class, "service1 = ? OR service2 = ?", TAG, TAG);
-            for (ServiceRoute route : routes) {
-                if (DEBUG) {
-                    Log.d(TAG, "Found route! " + route.getService1() + "-" + route.getService2());
-                }
-
-                // Get the target
-                String target = MvdHelper.getServiceTarget(route, TAG);
-
-                // Send the broadcast
-                MvdHelper.sendDownBroadcast(getApplicationContext(), source, target, codePinValue);
-            }*/
-
-            // Find a forwarding where I am included
-            List<Binding> bindings = Binding.find(Binding.class, "service = ?", TAG);
-            for (Binding binding : bindings) {
-                if (DEBUG) {
-                    Log.d(TAG, "Found binding for " + binding.getCode() + "/" + binding.getPin() + " to " + binding.getService());
-                }
-
-                // Get the target (For bindings this is always the BeanService in the DOWN direction)
-                String target = BeanService.class.getSimpleName();
-
-                String mac = binding.getMac();
-
-                Log.d(TAG, "Sending down broadcast with mac: " + mac);
-
-                // Send the broadcast
-                MvdHelper.sendBeanDownBroadcast(getApplicationContext(), source, target, mac, codePinValue);
-            }
         }
 
         // I wrote these changes, I shouldn't care about informing anyone else
@@ -318,6 +302,16 @@ public class BinocularService extends Service {
 
 
 
+    /**
+     * This is how other services hand me their values
+     */
+    private MvdBus.Subscriber busSubscriber = new MvdBus.Subscriber() {
+        @Override
+        public void onEvent(MvdEvent event) {
+            onValue(event.getAction(), event.getSender(), event.getTarget(), event.getCodePinValue());
+        }
+    };
+
     /**
      * This is how other components of the app communicate with me
      */
@@ -346,111 +340,130 @@ public class BinocularService extends Service {
                 codePinValue = new CodePinValue(code, pin, value);
             }
 
-            // ... or if we're getting the serializable
+            // ... or if we're getting the parcelable
             else if (intent.hasExtra(MvdHelper.EXTRA_CODE_PIN_VALUE)) {
-                codePinValue = (CodePinValue) intent.getSerializableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
+                codePinValue = intent.<ParcelableCodePinValue>getParcelableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
             }
 
-            // Make sure we've got a valid key-value set.
-            if (codePinValue != null) {
+            // Make sure we've got a valid key-value set, it's handled on the dispatcher like any other value
+            if (codePinValue != null && target.equals(TAG)) {
+                MvdBus.getInstance().publish(new MvdEvent(action, sender, target, null, codePinValue));
+            }
 
-                if (DEBUG) {
-                    Log.d(TAG, codePinValue.toString());
-                }
+            // If someone told me to kill myself...
+            if (action.equals(MvdHelper.ACTION_KILL) && target.equals(TAG)) {
+//        firebase.removeEventListener(childListener)
+                // TODO: remove the listner? (client. ... ?)
 
-                if (!sender.equals(TAG)) {
-                    // If we're getting values from the Bean service (UP direction)
-                    if (action.equals(MvdHelper.ACTION_UP)) {
-                        // Make sure the value is intended for us
-                        if (target.equals(TAG)) {
+                MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
 
+                unregisterReceiver(broadcastReceiver);
 
-                                Log.d(TAG, "TRYING TO UP DATA from: " + codePinValue.getCode());
-                                //post(url + "components/" + codePinValue.getCode() + "/pins/" + codePinValue.getPin(), json.toString());
+                stopSelf();
+            }
 
+        }
+    };
 
-                            lastCodePinValue = codePinValue;
-                        }
-                    }
+    /**
+     * Handle a value sent to, or by, me. Values from other services, and the UP/DOWN broadcasts
+     * injected from the outside (adb), are handed to me through the bus on a Dispatcher worker.
+     */
+    private void onValue(String action, String sender, String target, final CodePinValue codePinValue) {
+        if (DEBUG) {
+            Log.d(TAG, codePinValue.toString());
+        }
 
-                    // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
-                    else if (action.equals(MvdHelper.ACTION_DOWN)) {
-                        // Make sure the value is intended for us
-                        Log.d(TAG, "TRYING TO DOWN DATA from: " + codePinValue.getCode());
+        if (!sender.equals(TAG)) {
+            // If we're getting values from the Bean service (UP direction)
+            if (action.equals(MvdHelper.ACTION_UP)) {
+                // Make sure the value is intended for us
+                if (target.equals(TAG)) {
 
-                        if (target.equals(TAG)) {
 
-                                final String code = codePinValue.getCode();
-                                final String value = codePinValue.getValue();
+                        Log.d(TAG, "TRYING TO UP DATA from: " + codePinValue.getCode());
+                        //post(url + "components/" + codePinValue.getCode() + "/pins/" + codePinValue.getPin(), json.toString());
 
-                                //post(url + "components/" + codePinValue.getCode() + "/pins/" + codePinValue.getPin(), json.toString());
-                                Thread task = new Thread(new Runnable() {
-                                    @Override
-                                    public void run() {
 
-                                        try{
+                    Router.getInstance().onWritten(TAG, codePinValue);
+                }
+            }
+
+            // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
+            else if (action.equals(MvdHelper.ACTION_DOWN)) {
+                // Make sure the value is intended for us
+                Log.d(TAG, "TRYING TO DOWN DATA from: " + codePinValue.getCode());
+
+                if (target.equals(TAG)) {
+
+                        final String code = codePinValue.getCode();
+                        final String value = codePinValue.getValue();
 
+                        //post(url + "components/" + codePinValue.getCode() + "/pins/" + codePinValue.getPin(), json.toString());
+                        // On a shared worker, not a thread of its own per value
+                        Runnable task = new Runnable() {
+                            @Override
+                            public void run() {
 
-                                            Log.i(TAG, "Sending device data: " + value);
-                                            Log.i(TAG, "Code for sensor: " + code);
-                                            if(value != null) {
+                                try{
 
 
-                                                final IJsonCollectionConvertable manager = CollectionFactory.build_state(code, value);
+                                    Log.i(TAG, "Sending device data: " + value);
+                                    Log.i(TAG, "Code for sensor: " + code);
+                                    if(value != null) {
 
-                                                if(manager != null) {
 
+                                        final IJsonCollectionConvertable manager = CollectionFactory.build_state(code, value);
 
-                                                    Fetcher fetcher = new Fetcher();
-                                                    fetcher.setMap(manager.getDefaultMap());
-                                                    fetcher.setCollectionManager(manager);
-                                                    fetcher.setDone(new OnDone() {
+                                        if(manager != null) {
 
-                                                        @Override
-                                                        public void done() {
-                                                            //Execute next link if chaining is applied.
-                                                            Log.d(TAG, "Pushed data to server");
-                                                        }
-                                                    });
 
-                                                    fetcher.execute();
+                                            Fetcher fetcher = new Fetcher();
+                                            fetcher.setMap(manager.getDefaultMap());
+                                            fetcher.setCollectionManager(manager);
+                                            fetcher.setDone(new OnDone() {
+
+                                                @Override
+                                                public void done() {
+                                                    //Execute next link if chaining is applied.
+                                                    Log.d(TAG, "Pushed data to server");
+
+                                                    Tracer.getInstance().complete(TAG, codePinValue);
                                                 }
+                                            });
+
+                                            // Fetcher blocks until the request is answered
+                                            long started = metrics.requestStarted();
+                                            try {
+                                                fetcher.execute();
+                                            } finally {
+                                                metrics.requestFinished(ServiceMetrics.RTT_FETCHER, started);
                                             }
-                                        } catch(Exception e) {
-                                            e.printStackTrace();
                                         }
                                     }
-                                });
+                                } catch(Exception e) {
+                                    e.printStackTrace();
 
-
-                                task.start();
+                                    metrics.countError();
+                                }
+                            }
+                        };
 
 
-                                lastCodePinValue = codePinValue;
+                        if (!Workers.getInstance().execute(Workers.IO, TAG, task)) {
+                            Log.e(TAG, "Too much to send, dropped " + codePinValue);
+                        }
 
 
-                            lastCodePinValue = codePinValue;
-                        }
-                    }
-                } else {
-                    // Do nothing, this was myself broadcasting values
-                    if (DEBUG) {
-                        Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
-                    }
+                    Router.getInstance().onWritten(TAG, codePinValue);
                 }
             }
-
-            // If someone told me to kill myself...
-            if (action.equals(MvdHelper.ACTION_KILL) && target.equals(TAG)) {
-//        firebase.removeEventListener(childListener)
-                // TODO: remove the listner? (client. ... ?)
-
-                unregisterReceiver(broadcastReceiver);
-
-                stopSelf();
+        } else {
+            // Do nothing, this was myself broadcasting values
+            if (DEBUG) {
+                Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
             }
-
         }
-    };
+    }
 
 }
\ No newline at end of file
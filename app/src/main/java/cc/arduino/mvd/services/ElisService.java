@@ -35,10 +35,18 @@ import java.util.List;
 
 import cc.arduino.mvd.MvdHelper;
 import cc.arduino.mvd.MvdServiceReceiver;
+import cc.arduino.mvd.bus.MvdBus;
+import cc.arduino.mvd.bus.MvdEvent;
 import cc.arduino.mvd.libs.WebSocketClient;
-import cc.arduino.mvd.models.Binding;
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
 import cc.arduino.mvd.models.CodePinValue;
-import cc.arduino.mvd.models.ServiceRoute;
+import cc.arduino.mvd.models.ParcelableCodePinValue;
+import cc.arduino.mvd.routing.BindingEntry;
+import cc.arduino.mvd.routing.LastValueTable;
+import cc.arduino.mvd.routing.Router;
+import cc.arduino.mvd.routing.RoutingTable;
+import cc.arduino.mvd.trace.Tracer;
 
 import static cc.arduino.mvd.MvdHelper.DEBUG;
 
@@ -52,6 +60,8 @@ public class ElisService extends Service {
 
   public static final String TAG = ElisService.class.getSimpleName();
 
+  private final ServiceMetrics metrics = Metrics.getInstance().get(TAG);
+
   private String url = null;
 
   private int port = 11414;
@@ -60,8 +70,6 @@ public class ElisService extends Service {
 
   private boolean started = false;
 
-  private CodePinValue lastCodePinValue = null;
-
   @Override
   public void onCreate() {
     super.onCreate();
@@ -72,6 +80,8 @@ public class ElisService extends Service {
     filter.addAction(MvdHelper.ACTION_KILL);
 
     registerReceiver(broadcastReceiver, filter);
+
+    MvdBus.getInstance().subscribe(TAG, busSubscriber);
   }
 
   @Override
@@ -87,7 +97,7 @@ public class ElisService extends Service {
 
       URI uri = URI.create(url + ":" + port);
 
-      webSocketClient = new WebSocketClient(uri, webSocketListener, extraHeaders);
+      webSocketClient = new WebSocketClient(uri, webSocketListener, extraHeaders, TAG);
 
       webSocketClient.connect();
 
@@ -105,6 +115,10 @@ public class ElisService extends Service {
   public void onDestroy() {
     super.onDestroy();
 
+    MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
+    LastValueTable.getInstance().clear(TAG);
+
     unregisterReceiver(broadcastReceiver);
 
     webSocketClient.disconnect();
@@ -154,6 +168,8 @@ public class ElisService extends Service {
 
     @Override
     public void onError(Exception error) {
+      metrics.countError();
+
       if (DEBUG) {
         Log.e(TAG, error.getMessage());
       }
@@ -190,8 +206,7 @@ public class ElisService extends Service {
    */
   private void registerBindings() throws JSONException {
     JSONArray register = new JSONArray();
-    List<Binding> bindings = Binding.find(Binding.class, "service = ?", TAG);
-    for (Binding binding : bindings) {
+    for (BindingEntry binding : RoutingTable.getInstance().getBindings(TAG)) {
       JSONObject jsonBinding = new JSONObject();
       jsonBinding.put("name", binding.getName());
       jsonBinding.put("code", binding.getCode());
@@ -217,57 +232,24 @@ public class ElisService extends Service {
   private void handleKeyValFromElis(String code, String pin, String value) {
     CodePinValue codePinValue = new CodePinValue(code, pin, value);
 
-    // First read, just store the last values.
-    if (lastCodePinValue == null) {
+    int change = Router.getInstance().onRead(TAG, null, codePinValue);
+
+    // First read of the pin, the Router has passed it on as well
+    if (change == LastValueTable.FIRST) {
       if (DEBUG) {
         Log.d(TAG, "First read.");
         Log.d(TAG, codePinValue.toString());
       }
-
-      lastCodePinValue = codePinValue;
     }
 
     // Someone else changed the values in the cloud, I should react to it!
-    else if (!lastCodePinValue.equals(codePinValue)) {
+    // (the Router has already passed it on to my routes and bindings)
+    else if (change == LastValueTable.CHANGED) {
       if (DEBUG) {
         Log.d(TAG, "I got the following from Elis:");
         Log.d(TAG, codePinValue.toString());
       }
 
-      // This was not me editing, I'll go ahead and broadcast the value "down" to other services
-      // (The value is from "me", but it was edited by someone else in Elis so I'll mask it as "me"
-      String source = TAG;
-
-      // Find a forwarding where I am included
-      List<ServiceRoute> routes = ServiceRoute.find(ServiceRoute.class, "service1 = ? OR service2 = ?", TAG, TAG);
-      for (ServiceRoute route : routes) {
-        if (DEBUG) {
-          Log.d(TAG, "Found route! " + route.getService1() + "-" + route.getService2());
-        }
-
-        // Get the target
-        String target = MvdHelper.getServiceTarget(route, TAG);
-
-        // Send the broadcast
-        MvdHelper.sendDownBroadcast(getApplicationContext(), source, target, codePinValue);
-      }
-
-      // Find a forwarding where I am included
-      List<Binding> bindings = Binding.find(Binding.class, "service = ?", TAG);
-      for (Binding binding : bindings) {
-        if (DEBUG) {
-          Log.d(TAG, "Found binding for " + binding.getCode() + "/" + binding.getPin() + " to " + binding.getService());
-        }
-
-        // Get the target (For bindings this is always the BeanService in the DOWN direction)
-        String target = BeanService.class.getSimpleName();
-
-        String mac = binding.getMac();
-
-        // Send the broadcast
-        MvdHelper.sendBeanDownBroadcast(getApplicationContext(), source, target, mac, codePinValue);
-      }
-
       try {
         sendElisResponseValueSet(code, pin, value);
       } catch (JSONException e) {
@@ -321,6 +303,16 @@ public class ElisService extends Service {
     webSocketClient.send(message.toString());
   }
 
+  /**
+   * This is how other services hand me their values
+   */
+  private MvdBus.Subscriber busSubscriber = new MvdBus.Subscriber() {
+    @Override
+    public void onEvent(MvdEvent event) {
+      onValue(event.getAction(), event.getSender(), event.getTarget(), event.getCodePinValue());
+    }
+  };
+
   /**
    * This is how other components of the app communicate with me
    */
@@ -346,58 +338,22 @@ public class ElisService extends Service {
         codePinValue = new CodePinValue(code, pin, value);
       }
 
-      // ... or if we're getting the serializable
+      // ... or if we're getting the parcelable
       else if (intent.hasExtra(MvdHelper.EXTRA_CODE_PIN_VALUE)) {
-        codePinValue = (CodePinValue) intent.getSerializableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
+        codePinValue = intent.<ParcelableCodePinValue>getParcelableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
       }
 
-      // Make sure we've got a valid key-value set.
-      if (codePinValue != null) {
-
-        if (DEBUG) {
-          Log.d(TAG, codePinValue.toString());
-        }
-
-        if (!sender.equals(TAG)) {
-          // If we're getting values from the Bean service (UP direction)
-          if (action.equals(MvdHelper.ACTION_UP)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              try {
-                sendElisResponseValueGet(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
-              } catch (JSONException e) {
-                e.printStackTrace();
-              }
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-
-          // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
-          else if (action.equals(MvdHelper.ACTION_DOWN)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              try {
-                sendElisResponseValueGet(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
-              } catch (JSONException e) {
-                e.printStackTrace();
-              }
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-        } else {
-          // Do nothing, this was myself broadcasting values
-          if (DEBUG) {
-            Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
-          }
-        }
+      // Make sure we've got a valid key-value set, it's handled on the dispatcher like any other value
+      if (codePinValue != null && target.equals(TAG)) {
+        MvdBus.getInstance().publish(new MvdEvent(action, sender, target, null, codePinValue));
       }
 
       // If someone told me to kill myself...
       if (action.equals(MvdHelper.ACTION_KILL) && target.equals(TAG)) {
         webSocketClient.disconnect();
 
+        MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
         unregisterReceiver(broadcastReceiver);
 
         stopSelf();
@@ -407,4 +363,53 @@ public class ElisService extends Service {
     }
   };
 
+  /**
+   * Handle a value sent to, or by, me. Values from other services, and the UP/DOWN broadcasts
+   * injected from the outside (adb), are handed to me through the bus on a Dispatcher worker.
+   */
+  private void onValue(String action, String sender, String target, CodePinValue codePinValue) {
+    if (DEBUG) {
+      Log.d(TAG, codePinValue.toString());
+    }
+
+    if (!sender.equals(TAG)) {
+      // If we're getting values from the Bean service (UP direction)
+      if (action.equals(MvdHelper.ACTION_UP)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          try {
+            sendElisResponseValueGet(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
+
+            Tracer.getInstance().complete(TAG, codePinValue);
+          } catch (JSONException e) {
+            e.printStackTrace();
+          }
+
+          Router.getInstance().onWritten(TAG, codePinValue);
+        }
+      }
+
+      // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
+      else if (action.equals(MvdHelper.ACTION_DOWN)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          try {
+            sendElisResponseValueGet(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
+
+            Tracer.getInstance().complete(TAG, codePinValue);
+          } catch (JSONException e) {
+            e.printStackTrace();
+          }
+
+          Router.getInstance().onWritten(TAG, codePinValue);
+        }
+      }
+    } else {
+      // Do nothing, this was myself broadcasting values
+      if (DEBUG) {
+        Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
+      }
+    }
+  }
+
 }
\ No newline at end of file
@@ -29,13 +29,18 @@ import com.firebase.client.DataSnapshot;
 import com.firebase.client.Firebase;
 import com.firebase.client.FirebaseError;
 
-import java.util.List;
-
 import cc.arduino.mvd.MvdHelper;
 import cc.arduino.mvd.MvdServiceReceiver;
-import cc.arduino.mvd.models.Binding;
+import cc.arduino.mvd.bus.MvdBus;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.dispatch.Coalescer;
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
 import cc.arduino.mvd.models.CodePinValue;
-import cc.arduino.mvd.models.ServiceRoute;
+import cc.arduino.mvd.models.ParcelableCodePinValue;
+import cc.arduino.mvd.routing.LastValueTable;
+import cc.arduino.mvd.routing.Router;
+import cc.arduino.mvd.trace.Tracer;
 
 import static cc.arduino.mvd.MvdHelper.DEBUG;
 
@@ -48,13 +53,21 @@ public class FirebaseService extends Service {
 
   public static final String TAG = FirebaseService.class.getSimpleName();
 
+  private final ServiceMetrics metrics = Metrics.getInstance().get(TAG);
+
   private String url;
 
   private Firebase firebase;
 
   private boolean started = false;
 
-  private CodePinValue lastCodePinValue;
+  // Only the newest value per code/pin is written, one write at a time
+  private Coalescer<CodePinValue> writer = new Coalescer<>(TAG + "/writer", new Coalescer.Sender<CodePinValue>() {
+    @Override
+    public void send(CodePinValue codePinValue) {
+      write(codePinValue);
+    }
+  });
 
   @Override
   public void onCreate() {
@@ -66,6 +79,8 @@ public class FirebaseService extends Service {
     filter.addAction(MvdHelper.ACTION_KILL);
 
     registerReceiver(broadcastReceiver, filter);
+
+    MvdBus.getInstance().subscribe(TAG, busSubscriber);
   }
 
   @Override
@@ -74,6 +89,8 @@ public class FirebaseService extends Service {
     if (!started) {
       url = intent.getStringExtra(MvdServiceReceiver.EXTRA_SERVICE_URL);
 
+      writer.setInterval(intent.getIntExtra(MvdServiceReceiver.EXTRA_SERVICE_FLUSH_INTERVAL, 0));
+
       Firebase.setAndroidContext(getApplicationContext());
 
       firebase = new Firebase(url);
@@ -94,12 +111,18 @@ public class FirebaseService extends Service {
   public void onDestroy() {
     super.onDestroy();
 
+    MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
+    LastValueTable.getInstance().clear(TAG);
+
     unregisterReceiver(broadcastReceiver);
 
     firebase.removeEventListener(childListener);
 
     firebase = null;
 
+    writer.close();
+
     if (DEBUG) {
       Log.d(TAG, TAG + " stopped.");
     }
@@ -147,7 +170,7 @@ public class FirebaseService extends Service {
 
     @Override
     public void onCancelled(FirebaseError firebaseError) {
-
+      metrics.countError();
     }
   };
 
@@ -162,56 +185,23 @@ public class FirebaseService extends Service {
   private void handleKeyValFromFirebase(String code, String pin, String value) {
     CodePinValue codePinValue = new CodePinValue(code, pin, value);
 
-    // First read, just store the last values.
-    if (lastCodePinValue == null) {
+    int change = Router.getInstance().onRead(TAG, null, codePinValue);
+
+    // First read of the pin, the Router has passed it on as well
+    if (change == LastValueTable.FIRST) {
       if (DEBUG) {
         Log.d(TAG, "First read.");
         Log.d(TAG, codePinValue.toString());
       }
-
-      lastCodePinValue = codePinValue;
     }
 
     // Someone else changed the values in the cloud, I should react to it!
-    else if (!lastCodePinValue.equals(codePinValue)) {
+    // (the Router has already passed it on to my routes and bindings)
+    else if (change == LastValueTable.CHANGED) {
       if (DEBUG) {
         Log.d(TAG, "I got the following from Firebase:");
         Log.d(TAG, codePinValue.toString());
       }
-
-      // This was not me editing, I'll go ahead and broadcast the value "down" to other services
-      // (The value is from "me", but it was edited by someone else in Firebase so I'll mask it as "me"
-      String source = TAG;
-
-      // Find a forwarding where I am included
-      List<ServiceRoute> routes = ServiceRoute.find(ServiceRoute.class, "service1 = ? OR service2 = ?", TAG, TAG);
-      for (ServiceRoute route : routes) {
-        if (DEBUG) {
-          Log.d(TAG, "Found route! " + route.getService1() + "-" + route.getService2());
-        }
-
-        // Get the target
-        String target = MvdHelper.getServiceTarget(route, TAG);
-
-        // Send the broadcast
-        MvdHelper.sendDownBroadcast(getApplicationContext(), source, target, codePinValue);
-      }
-
-      // Find a forwarding where I am included
-      List<Binding> bindings = Binding.find(Binding.class, "service = ?", TAG);
-      for (Binding binding : bindings) {
-        if (DEBUG) {
-          Log.d(TAG, "Found binding for " + binding.getCode() + "/" + binding.getPin() + " to " + binding.getService());
-        }
-
-        // Get the target (For bindings this is always the BeanService in the DOWN direction)
-        String target = BeanService.class.getSimpleName();
-
-        String mac = binding.getMac();
-
-        // Send the broadcast
-        MvdHelper.sendBeanDownBroadcast(getApplicationContext(), source, target, mac, codePinValue);
-      }
     }
 
     // I wrote these changes, I shouldn't care about informing anyone else
@@ -220,6 +210,16 @@ public class FirebaseService extends Service {
     }
   }
 
+  /**
+   * This is how other services hand me their values
+   */
+  private MvdBus.Subscriber busSubscriber = new MvdBus.Subscriber() {
+    @Override
+    public void onEvent(MvdEvent event) {
+      onValue(event.getAction(), event.getSender(), event.getTarget(), event.getCodePinValue());
+    }
+  };
+
   /**
    * This is how other components of the app communicate with me
    */
@@ -245,50 +245,22 @@ public class FirebaseService extends Service {
         codePinValue = new CodePinValue(code, pin, value);
       }
 
-      // ... or if we're getting the serializable
+      // ... or if we're getting the parcelable
       else if (intent.hasExtra(MvdHelper.EXTRA_CODE_PIN_VALUE)) {
-        codePinValue = (CodePinValue) intent.getSerializableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
+        codePinValue = intent.<ParcelableCodePinValue>getParcelableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
       }
 
-      // Make sure we've got a valid key-value set.
-      if (codePinValue != null) {
-
-        if (DEBUG) {
-          Log.d(TAG, codePinValue.toString());
-        }
-
-        if (!sender.equals(TAG)) {
-          // If we're getting values from the Bean service (UP direction)
-          if (action.equals(MvdHelper.ACTION_UP)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              firebase.child(codePinValue.getCode()).child(codePinValue.getPin()).setValue(codePinValue.getValue());
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-
-          // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
-          else if (action.equals(MvdHelper.ACTION_DOWN)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              firebase.child(codePinValue.getCode()).child(codePinValue.getPin()).setValue(codePinValue.getValue());
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-        } else {
-          // Do nothing, this was myself broadcasting values
-          if (DEBUG) {
-            Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
-          }
-        }
+      // Make sure we've got a valid key-value set, it's handled on the dispatcher like any other value
+      if (codePinValue != null && target.equals(TAG)) {
+        MvdBus.getInstance().publish(new MvdEvent(action, sender, target, null, codePinValue));
       }
 
       // If someone told me to kill myself...
       if (action.equals(MvdHelper.ACTION_KILL) && target.equals(TAG)) {
         firebase.removeEventListener(childListener);
 
+        MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
         unregisterReceiver(broadcastReceiver);
 
         stopSelf();
@@ -297,4 +269,69 @@ public class FirebaseService extends Service {
     }
   };
 
+  /**
+   * Write a value to Firebase, called by the writer when it's the value's turn.
+   *
+   * @param codePinValue
+   */
+  private void write(final CodePinValue codePinValue) {
+    Firebase reference = firebase;
+
+    // Stopped while the value was pending
+    if (reference == null) {
+      writer.done();
+      return;
+    }
+
+    reference.child(codePinValue.getCode()).child(codePinValue.getPin()).setValue(codePinValue.getValue(), new Firebase.CompletionListener() {
+      @Override
+      public void onComplete(FirebaseError firebaseError, Firebase firebaseRef) {
+        if (firebaseError == null) {
+          Tracer.getInstance().complete(TAG, codePinValue);
+        } else {
+          metrics.countError();
+        }
+
+        writer.done();
+      }
+    });
+  }
+
+  /**
+   * Handle a value sent to, or by, me. Values from other services, and the UP/DOWN broadcasts
+   * injected from the outside (adb), are handed to me through the bus on a Dispatcher worker.
+   */
+  private void onValue(String action, String sender, String target, CodePinValue codePinValue) {
+    if (DEBUG) {
+      Log.d(TAG, codePinValue.toString());
+    }
+
+    if (!sender.equals(TAG)) {
+      // If we're getting values from the Bean service (UP direction)
+      if (action.equals(MvdHelper.ACTION_UP)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          writer.submit(codePinValue.getCode() + "/" + codePinValue.getPin(), codePinValue);
+
+          Router.getInstance().onWritten(TAG, codePinValue);
+        }
+      }
+
+      // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
+      else if (action.equals(MvdHelper.ACTION_DOWN)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          writer.submit(codePinValue.getCode() + "/" + codePinValue.getPin(), codePinValue);
+
+          Router.getInstance().onWritten(TAG, codePinValue);
+        }
+      }
+    } else {
+      // Do nothing, this was myself broadcasting values
+      if (DEBUG) {
+        Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
+      }
+    }
+  }
+
 }
\ No newline at end of file
@@ -37,16 +37,25 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import cc.arduino.mvd.MvdHelper;
 import cc.arduino.mvd.MvdServiceReceiver;
-import cc.arduino.mvd.models.Binding;
+import cc.arduino.mvd.bus.MvdBus;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.dispatch.Coalescer;
+import cc.arduino.mvd.dispatch.Workers;
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
 import cc.arduino.mvd.models.CodePinValue;
-import cc.arduino.mvd.models.ServiceRoute;
+import cc.arduino.mvd.models.HttpPoll;
+import cc.arduino.mvd.models.ParcelableCodePinValue;
+import cc.arduino.mvd.routing.BindingEntry;
+import cc.arduino.mvd.routing.LastValueTable;
+import cc.arduino.mvd.routing.Router;
+import cc.arduino.mvd.routing.RoutingTable;
+import cc.arduino.mvd.trace.Tracer;
 
 import static cc.arduino.mvd.MvdHelper.DEBUG;
 
@@ -59,9 +68,11 @@ public class HttpService extends Service {
 
   public static final String TAG = HttpService.class.getSimpleName();
 
-  OkHttpClient client = new OkHttpClient();
+  private static final long BATCH_RETRY = 10 * 60 * 1000; // Time before asking a server that didn't know batches again
+
+  private final ServiceMetrics metrics = Metrics.getInstance().get(TAG);
 
-  private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(5);
+  OkHttpClient client = new OkHttpClient();
 
   private ScheduledFuture scheduledFuture;
 
@@ -69,9 +80,20 @@ public class HttpService extends Service {
 
   private int delay = 5000; // Delay in ms between GET requests
 
+  private boolean batch = true; // Poll all bound pins in one GET, if the server knows how
+
+  // Until when the server is polled pin by pin, because it didn't answer a batch
+  private volatile long batchRetryAt = 0;
+
   private boolean started = false;
 
-  private CodePinValue lastCodePinValue = null;
+  // Only the newest value per code/pin is posted, one request at a time
+  private Coalescer<CodePinValue> writer = new Coalescer<>(TAG + "/writer", new Coalescer.Sender<CodePinValue>() {
+    @Override
+    public void send(CodePinValue codePinValue) {
+      write(codePinValue);
+    }
+  });
 
   @Override
   public void onCreate() {
@@ -83,6 +105,8 @@ public class HttpService extends Service {
     filter.addAction(MvdHelper.ACTION_KILL);
 
     registerReceiver(broadcastReceiver, filter);
+
+    MvdBus.getInstance().subscribe(TAG, busSubscriber);
   }
 
   @Override
@@ -98,6 +122,10 @@ public class HttpService extends Service {
 
       delay = intent.getIntExtra(MvdServiceReceiver.EXTRA_SERVICE_DELAY, 5000);
 
+      batch = intent.getBooleanExtra(MvdServiceReceiver.EXTRA_SERVICE_BATCH, true);
+
+      writer.setInterval(intent.getIntExtra(MvdServiceReceiver.EXTRA_SERVICE_FLUSH_INTERVAL, 0));
+
       startGetRequests(delay);
 
       started = true;
@@ -114,10 +142,16 @@ public class HttpService extends Service {
   public void onDestroy() {
     super.onDestroy();
 
+    MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
+    LastValueTable.getInstance().clear(TAG);
+
     unregisterReceiver(broadcastReceiver);
 
     stopGetRequests();
 
+    writer.close();
+
     if (DEBUG) {
       Log.d(TAG, TAG + " stopped.");
     }
@@ -142,10 +176,24 @@ public class HttpService extends Service {
 //          }
 //        }
 
-        List<Binding> bindings = Binding.find(Binding.class, "service = ?", TAG);
-        for (Binding binding : bindings) {
+        List<BindingEntry> bindings = RoutingTable.getInstance().getBindings(TAG);
+
+        // One request for all pins, instead of one per pin
+        if (batch && System.currentTimeMillis() >= batchRetryAt) {
+          HttpPoll poll = new HttpPoll();
+          for (BindingEntry binding : bindings) {
+            poll.add(binding.getCode(), binding.getPin());
+          }
+
+          for (HttpPoll.Batch pins : poll.build()) {
+            getBatch(pins);
+          }
+          return;
+        }
+
+        for (BindingEntry binding : bindings) {
           try {
-            get(url + "components/" + binding.code + "/pins/" + binding.pin);
+            get(url + "components/" + binding.getCode() + "/pins/" + binding.getPin());
           } catch (IOException e) {
             e.printStackTrace();
           }
@@ -153,7 +201,9 @@ public class HttpService extends Service {
       }
     };
 
-    scheduledFuture = scheduler.scheduleAtFixedRate(
+    scheduledFuture = Workers.getInstance().scheduleAtFixedRate(
+        Workers.IO,
+        TAG,
         task,
         delay,
         delay,
@@ -184,56 +234,23 @@ public class HttpService extends Service {
   private void handleKeyValFromHttp(String code, String pin, String value) {
     CodePinValue codePinValue = new CodePinValue(code, pin, value);
 
-    // First read, just store the last values.
-    if (lastCodePinValue == null) {
+    int change = Router.getInstance().onRead(TAG, null, codePinValue);
+
+    // First read of the pin, the Router has passed it on as well
+    if (change == LastValueTable.FIRST) {
       if (DEBUG) {
         Log.d(TAG, "First read.");
         Log.d(TAG, codePinValue.toString());
       }
-
-      lastCodePinValue = codePinValue;
     }
 
     // Someone else changed the values in the cloud, I should react to it!
-    else if (!lastCodePinValue.equals(codePinValue)) {
+    // (the Router has already passed it on to my routes and bindings)
+    else if (change == LastValueTable.CHANGED) {
       if (DEBUG) {
         Log.d(TAG, "I got the following from Firebase:");
         Log.d(TAG, codePinValue.toString());
       }
-
-      // This was not me editing, I'll go ahead and broadcast the value "down" to other services
-      // (The value is from "me", but it was edited by someone else in Firebase so I'll mask it as "me"
-      String source = TAG;
-
-      // Find a forwarding where I am included
-      List<ServiceRoute> routes = ServiceRoute.find(ServiceRoute.class, "service1 = ? OR service2 = ?", TAG, TAG);
-      for (ServiceRoute route : routes) {
-        if (DEBUG) {
-          Log.d(TAG, "Found route! " + route.getService1() + "-" + route.getService2());
-        }
-
-        // Get the target
-        String target = MvdHelper.getServiceTarget(route, TAG);
-
-        // Send the broadcast
-        MvdHelper.sendDownBroadcast(getApplicationContext(), source, target, codePinValue);
-      }
-
-      // Find a forwarding where I am included
-      List<Binding> bindings = Binding.find(Binding.class, "service = ?", TAG);
-      for (Binding binding : bindings) {
-        if (DEBUG) {
-          Log.d(TAG, "Found binding for " + binding.getCode() + "/" + binding.getPin() + " to " + binding.getService());
-        }
-
-        // Get the target (For bindings this is always the BeanService in the DOWN direction)
-        String target = BeanService.class.getSimpleName();
-
-        String mac = binding.getMac();
-
-        // Send the broadcast
-        MvdHelper.sendBeanDownBroadcast(getApplicationContext(), source, target, mac, codePinValue);
-      }
     }
 
     // I wrote these changes, I shouldn't care about informing anyone else
@@ -243,14 +260,31 @@ public class HttpService extends Service {
   }
 
   /**
-   * Perform a POST request to the service
+   * Post a value to the service, called by the writer when it's the value's turn.
+   *
+   * @param codePinValue
+   */
+  private void write(CodePinValue codePinValue) {
+    try {
+      JSONObject json = new JSONObject();
+      json.put("value", codePinValue.getValue());
+
+      post(url + "components/" + codePinValue.getCode() + "/pins/" + codePinValue.getPin(), json.toString(), codePinValue);
+    } catch (JSONException e) {
+      e.printStackTrace();
+
+      writer.done();
+    }
+  }
+
+  /**
+   * Perform a POST request to the service, the writer is told when it has completed or failed.
    *
    * @param url
    * @param json
-   * @return
-   * @throws IOException
+   * @param codePinValue The value that is posted, its trace is completed on success
    */
-  private void post(String url, String json) {
+  private void post(String url, String json, final CodePinValue codePinValue) {
     MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
     RequestBody body = RequestBody.create(JSON, json);
@@ -264,17 +298,34 @@ public class HttpService extends Service {
 
     Call call = client.newCall(request);
 
+    final long started = metrics.requestStarted();
+
     call.enqueue(new Callback() {
       @Override
       public void onFailure(final Request request, final IOException exception) {
         // Meh, don't do anything...
         exception.printStackTrace();
+
+        metrics.requestFinished(ServiceMetrics.RTT_HTTP, started);
+        metrics.countError();
+
+        writer.done();
       }
 
       @Override
       public void onResponse(final Response response) throws IOException {
         // Meh, don't do anything...
         Log.d(TAG, request.toString());
+
+        metrics.requestFinished(ServiceMetrics.RTT_HTTP, started);
+
+        if (response.isSuccessful()) {
+          Tracer.getInstance().complete(TAG, codePinValue);
+        } else {
+          metrics.countError();
+        }
+
+        writer.done();
       }
     });
   }
@@ -296,27 +347,124 @@ public class HttpService extends Service {
 
     Call call = client.newCall(request);
 
+    final long started = metrics.requestStarted();
+
     call.enqueue(new Callback() {
       @Override
       public void onFailure(final Request request, final IOException exception) {
         // Meh, don't do anything...
         exception.printStackTrace();
+
+        metrics.requestFinished(ServiceMetrics.RTT_HTTP, started);
+        metrics.countError();
       }
 
       @Override
       public void onResponse(final Response response) throws IOException {
+        metrics.requestFinished(ServiceMetrics.RTT_HTTP, started);
+
         try {
           String body = new String(response.body().bytes());
           JSONObject json = new JSONObject(body);
           handleKeyValFromHttp(json.getString("code"), json.getString("pin"), json.getString("value"));
         } catch (JSONException e) {
           e.printStackTrace();
+
+          metrics.countError();
+        }
+
+      }
+    });
+  }
+
+  /**
+   * Get many pins from the service in one request. If the server doesn't know batches, they're
+   * polled one by one for a while.
+   *
+   * @param pins The batch
+   */
+  private void getBatch(final HttpPoll.Batch pins) {
+    final Request request = new Request.Builder()
+        .url(url + HttpPoll.PATH + "?" + pins.getQuery())
+        .get()
+        .build();
+
+    Call call = client.newCall(request);
+
+    final long started = metrics.requestStarted();
+
+    call.enqueue(new Callback() {
+      @Override
+      public void onFailure(final Request request, final IOException exception) {
+        exception.printStackTrace();
+
+        metrics.requestFinished(ServiceMetrics.RTT_HTTP, started);
+        metrics.countError();
+      }
+
+      @Override
+      public void onResponse(final Response response) throws IOException {
+        metrics.requestFinished(ServiceMetrics.RTT_HTTP, started);
+
+        int code = response.code();
+
+        // The server has no such resource, or doesn't take the query
+        if (code == 400 || code == 404 || code == 405 || code == 501) {
+          response.body().close();
+          batchUnsupported(pins);
+          return;
+        }
+
+        if (!response.isSuccessful()) {
+          response.body().close();
+          metrics.countError();
+          return;
         }
 
+        try {
+          String body = new String(response.body().bytes());
+
+          for (CodePinValue codePinValue : HttpPoll.parse(body)) {
+            handleKeyValFromHttp(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
+          }
+        } catch (JSONException e) {
+          // Not an array, probably something that isn't MVD's API answered
+          batchUnsupported(pins);
+        }
       }
     });
   }
 
+  /**
+   * The server didn't answer a batch, poll its pins one by one now and for the next BATCH_RETRY.
+   *
+   * @param pins The batch that wasn't answered
+   */
+  private void batchUnsupported(HttpPoll.Batch pins) {
+    if (batchRetryAt <= System.currentTimeMillis()) {
+      Log.d(TAG, "The server doesn't know batched polls, polling pin by pin.");
+    }
+
+    batchRetryAt = System.currentTimeMillis() + BATCH_RETRY;
+
+    for (HttpPoll.Pin pin : pins.getPins()) {
+      try {
+        get(url + "components/" + pin.getCode() + "/pins/" + pin.getPin());
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * This is how other services hand me their values
+   */
+  private MvdBus.Subscriber busSubscriber = new MvdBus.Subscriber() {
+    @Override
+    public void onEvent(MvdEvent event) {
+      onValue(event.getAction(), event.getSender(), event.getTarget(), event.getCodePinValue());
+    }
+  };
 
   /**
    * This is how other components of the app communicate with me
@@ -343,64 +491,14 @@ public class HttpService extends Service {
         codePinValue = new CodePinValue(code, pin, value);
       }
 
-      // ... or if we're getting the serializable
+      // ... or if we're getting the parcelable
       else if (intent.hasExtra(MvdHelper.EXTRA_CODE_PIN_VALUE)) {
-        codePinValue = (CodePinValue) intent.getSerializableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
+        codePinValue = intent.<ParcelableCodePinValue>getParcelableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
       }
 
-      // Make sure we've got a valid key-value set.
-      if (codePinValue != null) {
-
-        if (DEBUG) {
-          Log.d(TAG, codePinValue.toString());
-        }
-
-        if (!sender.equals(TAG)) {
-          // If we're getting values from the Bean service (UP direction)
-          if (action.equals(MvdHelper.ACTION_UP)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              try {
-                JSONObject json = new JSONObject();
-                json.put("value", codePinValue.getValue());
-
-                post(url + "components/" + codePinValue.getCode() + "/pins/" + codePinValue.getPin(), json.toString());
-
-                lastCodePinValue = codePinValue;
-
-              } catch (JSONException e) {
-                e.printStackTrace();
-              }
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-
-          // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
-          else if (action.equals(MvdHelper.ACTION_DOWN)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              try {
-                JSONObject json = new JSONObject();
-                json.put("value", codePinValue.getValue());
-
-                post(url + "components/" + codePinValue.getCode() + "/pins/" + codePinValue.getPin(), json.toString());
-
-                lastCodePinValue = codePinValue;
-
-              } catch (JSONException e) {
-                e.printStackTrace();
-              }
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-        } else {
-          // Do nothing, this was myself broadcasting values
-          if (DEBUG) {
-            Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
-          }
-        }
+      // Make sure we've got a valid key-value set, it's handled on the dispatcher like any other value
+      if (codePinValue != null && target.equals(TAG)) {
+        MvdBus.getInstance().publish(new MvdEvent(action, sender, target, null, codePinValue));
       }
 
       // If someone told me to kill myself...
@@ -408,6 +506,8 @@ public class HttpService extends Service {
 //        firebase.removeEventListener(childListener)
         // TODO: remove the listner? (client. ... ?)
 
+        MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
         unregisterReceiver(broadcastReceiver);
 
         stopSelf();
@@ -416,4 +516,41 @@ public class HttpService extends Service {
     }
   };
 
+  /**
+   * Handle a value sent to, or by, me. Values from other services, and the UP/DOWN broadcasts
+   * injected from the outside (adb), are handed to me through the bus on a Dispatcher worker.
+   */
+  private void onValue(String action, String sender, String target, CodePinValue codePinValue) {
+    if (DEBUG) {
+      Log.d(TAG, codePinValue.toString());
+    }
+
+    if (!sender.equals(TAG)) {
+      // If we're getting values from the Bean service (UP direction)
+      if (action.equals(MvdHelper.ACTION_UP)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          writer.submit(codePinValue.getCode() + "/" + codePinValue.getPin(), codePinValue);
+
+          Router.getInstance().onWritten(TAG, codePinValue);
+        }
+      }
+
+      // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
+      else if (action.equals(MvdHelper.ACTION_DOWN)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          writer.submit(codePinValue.getCode() + "/" + codePinValue.getPin(), codePinValue);
+
+          Router.getInstance().onWritten(TAG, codePinValue);
+        }
+      }
+    } else {
+      // Do nothing, this was myself broadcasting values
+      if (DEBUG) {
+        Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
+      }
+    }
+  }
+
 }
\ No newline at end of file
@@ -34,13 +34,19 @@ import org.fusesource.mqtt.client.QoS;
 import org.fusesource.mqtt.client.Topic;
 
 import java.net.URISyntaxException;
-import java.util.List;
 
 import cc.arduino.mvd.MvdHelper;
 import cc.arduino.mvd.MvdServiceReceiver;
-import cc.arduino.mvd.models.Binding;
+import cc.arduino.mvd.bus.MvdBus;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.dispatch.Coalescer;
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
 import cc.arduino.mvd.models.CodePinValue;
-import cc.arduino.mvd.models.ServiceRoute;
+import cc.arduino.mvd.models.ParcelableCodePinValue;
+import cc.arduino.mvd.routing.LastValueTable;
+import cc.arduino.mvd.routing.Router;
+import cc.arduino.mvd.trace.Tracer;
 
 import static cc.arduino.mvd.MvdHelper.DEBUG;
 
@@ -61,6 +67,8 @@ public class MqttService extends Service {
 
   public static final String TAG = MqttService.class.getSimpleName();
 
+  private final ServiceMetrics metrics = Metrics.getInstance().get(TAG);
+
   private String host;
 
   private int port;
@@ -71,7 +79,16 @@ public class MqttService extends Service {
 
   private CallbackConnection connection;
 
-  private CodePinValue lastCodePinValue = null;
+  // Set when the connection drops, the client reconnects on its own
+  private volatile boolean disconnected;
+
+  // Only the newest value per code/pin is published, one message at a time
+  private Coalescer<CodePinValue> writer = new Coalescer<>(TAG + "/writer", new Coalescer.Sender<CodePinValue>() {
+    @Override
+    public void send(CodePinValue codePinValue) {
+      publish(codePinValue);
+    }
+  });
 
   @Override
   public void onCreate() {
@@ -83,6 +100,8 @@ public class MqttService extends Service {
     filter.addAction(MvdHelper.ACTION_KILL);
 
     registerReceiver(broadcastReceiver, filter);
+
+    MvdBus.getInstance().subscribe(TAG, busSubscriber);
   }
 
   @Override
@@ -91,6 +110,8 @@ public class MqttService extends Service {
       host = intent.getStringExtra(MvdServiceReceiver.EXTRA_SERVICE_URL);
       port = intent.getIntExtra(MvdServiceReceiver.EXTRA_SERVICE_PORT, 1883);
 
+      writer.setInterval(intent.getIntExtra(MvdServiceReceiver.EXTRA_SERVICE_FLUSH_INTERVAL, 0));
+
       mqtt = new MQTT();
 
       try {
@@ -124,6 +145,10 @@ public class MqttService extends Service {
   public void onDestroy() {
     super.onDestroy();
 
+    MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
+    LastValueTable.getInstance().clear(TAG);
+
     unregisterReceiver(broadcastReceiver);
 
     // To disconnect..
@@ -137,6 +162,8 @@ public class MqttService extends Service {
       }
     });
 
+    writer.close();
+
     if (DEBUG) {
       Log.d(TAG, TAG + " stopped.");
     }
@@ -158,55 +185,22 @@ public class MqttService extends Service {
   private void handleKeyValFromMqtt(String code, String pin, String value) {
     CodePinValue codePinValue = new CodePinValue(code, pin, value);
 
-    // First read, just store the last values.
-    if (lastCodePinValue == null) {
+    int change = Router.getInstance().onRead(TAG, null, codePinValue);
+
+    // First read of the pin, the Router has passed it on as well
+    if (change == LastValueTable.FIRST) {
       if (DEBUG) {
         Log.d(TAG, "First read.");
         Log.d(TAG, codePinValue.toString());
       }
-
-      lastCodePinValue = codePinValue;
     }
 
     // Someone else changed the values in the cloud, I should react to it!
-    else if (!lastCodePinValue.equals(codePinValue)) {
+    // (the Router has already passed it on to my routes and bindings)
+    else if (change == LastValueTable.CHANGED) {
       if (DEBUG) {
         Log.d(TAG, codePinValue.toString());
       }
-
-      // This was not me editing, I'll go ahead and broadcast the value "down" to other services
-      // (The value is from "me", but it was edited by someone else in Xively so I'll mask it as "me"
-      String source = TAG;
-
-      // Find a forwarding where I am included
-      List<ServiceRoute> routes = ServiceRoute.find(ServiceRoute.class, "service1 = ? OR service2 = ?", TAG, TAG);
-      for (ServiceRoute route : routes) {
-        if (DEBUG) {
-          Log.d(TAG, "Found route! " + route.getService1() + "-" + route.getService2());
-        }
-
-        // Get the target
-        String target = MvdHelper.getServiceTarget(route, TAG);
-
-        // Send the broadcast
-        MvdHelper.sendDownBroadcast(getApplicationContext(), source, target, codePinValue);
-      }
-
-      // Find a forwarding where I am included
-      List<Binding> bindings = Binding.find(Binding.class, "service = ?", TAG);
-      for (Binding binding : bindings) {
-        if (DEBUG) {
-          Log.d(TAG, "Found binding for " + binding.getCode() + "/" + binding.getPin() + " to " + binding.getService());
-        }
-
-        // Get the target (For bindings this is always the BeanService in the DOWN direction)
-        String target = BeanService.class.getSimpleName();
-
-        String mac = binding.getMac();
-
-        // Send the broadcast
-        MvdHelper.sendBeanDownBroadcast(getApplicationContext(), source, target, mac, codePinValue);
-      }
     }
 
     // I wrote these changes, I shouldn't care about informing anyone else
@@ -215,8 +209,9 @@ public class MqttService extends Service {
     }
   }
 
-  private void publish(String code, String pin, String value) {
-    final String topic = "component/" + code + "/" + pin;
+  private void publish(final CodePinValue codePinValue) {
+    final String topic = "component/" + codePinValue.getCode() + "/" + codePinValue.getPin();
+    final String value = codePinValue.getValue();
 
 //    try {
 //      connection.publish(topic, value.getBytes(), QoS.AT_MOST_ONCE, false);
@@ -228,20 +223,39 @@ public class MqttService extends Service {
 //      e.printStackTrace();
 //    }
 
-    // Send a message to a topic
-    connection.publish(topic, value.getBytes(), QoS.AT_MOST_ONCE, false, new Callback<Void>() {
-      public void onSuccess(Void v) {
-        // the pubish operation completed successfully.
-        if (DEBUG) {
-          Log.d(TAG, "Successfully published message to: " + topic);
-        }
-      }
+    // Values arrive on the dispatcher, but the connection must only be used from its own queue
+    connection.getDispatchQueue().execute(new Runnable() {
+      @Override
+      public void run() {
+        final long started = metrics.requestStarted();
+
+        // Send a message to a topic
+        connection.publish(topic, value.getBytes(), QoS.AT_MOST_ONCE, false, new Callback<Void>() {
+          public void onSuccess(Void v) {
+            // the pubish operation completed successfully.
+            if (DEBUG) {
+              Log.d(TAG, "Successfully published message to: " + topic);
+            }
 
-      public void onFailure(Throwable value) {
-//          connection.close(null); // publish failed.
-        if (DEBUG) {
-          Log.e(TAG, "Failed published message");
-        }
+            metrics.requestFinished(ServiceMetrics.RTT_MQTT_PUBLISH, started);
+
+            Tracer.getInstance().complete(TAG, codePinValue);
+
+            writer.done();
+          }
+
+          public void onFailure(Throwable value) {
+//              connection.close(null); // publish failed.
+            if (DEBUG) {
+              Log.e(TAG, "Failed published message");
+            }
+
+            metrics.requestFinished(ServiceMetrics.RTT_MQTT_PUBLISH, started);
+            metrics.countError();
+
+            writer.done();
+          }
+        });
       }
     });
   }
@@ -249,12 +263,15 @@ public class MqttService extends Service {
   private Listener mqttListener = new Listener() {
     @Override
     public void onConnected() {
-
+      if (disconnected) {
+        disconnected = false;
+        metrics.countReconnect();
+      }
     }
 
     @Override
     public void onDisconnected() {
-
+      disconnected = true;
     }
 
     @Override
@@ -270,7 +287,7 @@ public class MqttService extends Service {
 
     @Override
     public void onFailure(Throwable throwable) {
-
+      metrics.countError();
     }
   };
 
@@ -300,6 +317,16 @@ public class MqttService extends Service {
   };
 
 
+  /**
+   * This is how other services hand me their values
+   */
+  private MvdBus.Subscriber busSubscriber = new MvdBus.Subscriber() {
+    @Override
+    public void onEvent(MvdEvent event) {
+      onValue(event.getAction(), event.getSender(), event.getTarget(), event.getCodePinValue());
+    }
+  };
+
   /**
    * This is how other components of the app communicate with me
    */
@@ -325,46 +352,14 @@ public class MqttService extends Service {
         codePinValue = new CodePinValue(code, pin, value);
       }
 
-      // ... or if we're getting the serializable
+      // ... or if we're getting the parcelable
       else if (intent.hasExtra(MvdHelper.EXTRA_CODE_PIN_VALUE)) {
-        codePinValue = (CodePinValue) intent.getSerializableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
+        codePinValue = intent.<ParcelableCodePinValue>getParcelableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
       }
 
-      // Make sure we've got a valid key-value set.
-      if (codePinValue != null) {
-
-        if (DEBUG) {
-          Log.d(TAG, "TARGET: " + target);
-          Log.d(TAG, "SENDER: " + sender);
-          Log.d(TAG, codePinValue.toString());
-        }
-
-        if (!sender.equals(TAG)) {
-          // If we're getting values from the Bean service (UP direction)
-          if (action.equals(MvdHelper.ACTION_UP)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              publish(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-
-          // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
-          else if (action.equals(MvdHelper.ACTION_DOWN)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              publish(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-        } else {
-          // Do nothing, this was myself broadcasting values
-          if (DEBUG) {
-            Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
-          }
-        }
+      // Make sure we've got a valid key-value set, it's handled on the dispatcher like any other value
+      if (codePinValue != null && target.equals(TAG)) {
+        MvdBus.getInstance().publish(new MvdEvent(action, sender, target, null, codePinValue));
       }
 
       // If someone told me to kill myself...
@@ -405,6 +400,8 @@ public class MqttService extends Service {
           e.printStackTrace();
         }
 
+        MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
         unregisterReceiver(broadcastReceiver);
 
         stopSelf();
@@ -413,4 +410,43 @@ public class MqttService extends Service {
     }
   };
 
+  /**
+   * Handle a value sent to, or by, me. Values from other services, and the UP/DOWN broadcasts
+   * injected from the outside (adb), are handed to me through the bus on a Dispatcher worker.
+   */
+  private void onValue(String action, String sender, String target, CodePinValue codePinValue) {
+    if (DEBUG) {
+      Log.d(TAG, "TARGET: " + target);
+      Log.d(TAG, "SENDER: " + sender);
+      Log.d(TAG, codePinValue.toString());
+    }
+
+    if (!sender.equals(TAG)) {
+      // If we're getting values from the Bean service (UP direction)
+      if (action.equals(MvdHelper.ACTION_UP)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          writer.submit(codePinValue.getCode() + "/" + codePinValue.getPin(), codePinValue);
+
+          Router.getInstance().onWritten(TAG, codePinValue);
+        }
+      }
+
+      // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
+      else if (action.equals(MvdHelper.ACTION_DOWN)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          writer.submit(codePinValue.getCode() + "/" + codePinValue.getPin(), codePinValue);
+
+          Router.getInstance().onWritten(TAG, codePinValue);
+        }
+      }
+    } else {
+      // Do nothing, this was myself broadcasting values
+      if (DEBUG) {
+        Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
+      }
+    }
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.services;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes one MVD service: its name, class and the START_SERVICE extras it takes. The
+ * descriptor builds the intent that starts the service from the START_SERVICE broadcast, copying
+ * the required extras and the optional ones with their defaults.
+ */
+public final class ServiceDescriptor {
+
+  private final String name;
+
+  private final String label;
+
+  private final Class<? extends Service> serviceClass;
+
+  private final List<String> requiredExtras;
+
+  private final Map<String, Integer> optionalIntExtras;
+
+  private final Map<String, Boolean> optionalBooleanExtras;
+
+  private ServiceDescriptor(Builder builder) {
+    this.name = builder.serviceClass.getSimpleName();
+    this.label = builder.label;
+    this.serviceClass = builder.serviceClass;
+    this.requiredExtras = Collections.unmodifiableList(new ArrayList<>(builder.requiredExtras));
+    this.optionalIntExtras = Collections.unmodifiableMap(new LinkedHashMap<>(builder.optionalIntExtras));
+    this.optionalBooleanExtras = Collections.unmodifiableMap(new LinkedHashMap<>(builder.optionalBooleanExtras));
+  }
+
+  /**
+   * @return The service name, the simple name of the service class
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return A short name for log messages, f.ex. "HTTP"
+   */
+  public String getLabel() {
+    return label;
+  }
+
+  public Class<? extends Service> getServiceClass() {
+    return serviceClass;
+  }
+
+  /**
+   * @return The string extras the service can't be started without
+   */
+  public List<String> getRequiredExtras() {
+    return requiredExtras;
+  }
+
+  /**
+   * Get the required extras that are missing from a START_SERVICE broadcast.
+   *
+   * @param request The START_SERVICE intent
+   * @return The missing extras, never null
+   */
+  public List<String> getMissingExtras(Intent request) {
+    List<String> missing = new ArrayList<>();
+    for (String extra : requiredExtras) {
+      if (request.getStringExtra(extra) == null) {
+        missing.add(extra);
+      }
+    }
+    return missing;
+  }
+
+  /**
+   * Build the intent that starts the service.
+   *
+   * @param context The context
+   * @param request The START_SERVICE intent, the extras are read from here
+   * @return The service intent
+   */
+  public Intent buildStartIntent(Context context, Intent request) {
+    Intent intent = new Intent(context, serviceClass);
+
+    for (String extra : requiredExtras) {
+      intent.putExtra(extra, request.getStringExtra(extra));
+    }
+
+    for (Map.Entry<String, Integer> extra : optionalIntExtras.entrySet()) {
+      if (extra.getValue() != null) {
+        intent.putExtra(extra.getKey(), request.getIntExtra(extra.getKey(), extra.getValue()));
+      } else if (request.hasExtra(extra.getKey())) {
+        intent.putExtra(extra.getKey(), request.getIntExtra(extra.getKey(), 0));
+      }
+    }
+
+    for (Map.Entry<String, Boolean> extra : optionalBooleanExtras.entrySet()) {
+      intent.putExtra(extra.getKey(), request.getBooleanExtra(extra.getKey(), extra.getValue()));
+    }
+
+    return intent;
+  }
+
+  /**
+   * Build the intent that stops the service.
+   *
+   * @param context The context
+   * @return The service intent
+   */
+  public Intent buildStopIntent(Context context) {
+    return new Intent(context, serviceClass);
+  }
+
+  @Override
+  public String toString() {
+    return name + " (required: " + requiredExtras + ", optional: " + optionalIntExtras + " " + optionalBooleanExtras + ")";
+  }
+
+  public static final class Builder {
+
+    private final Class<? extends Service> serviceClass;
+
+    private final String label;
+
+    private final List<String> requiredExtras = new ArrayList<>();
+
+    private final Map<String, Integer> optionalIntExtras = new LinkedHashMap<>();
+
+    private final Map<String, Boolean> optionalBooleanExtras = new LinkedHashMap<>();
+
+    /**
+     * @param serviceClass The service class, its simple name becomes the service name
+     * @param label        A short name for log messages
+     */
+    public Builder(Class<? extends Service> serviceClass, String label) {
+      this.serviceClass = serviceClass;
+      this.label = label;
+    }
+
+    /**
+     * A string extra that must be present to start the service.
+     */
+    public Builder require(String extra) {
+      requiredExtras.add(extra);
+      return this;
+    }
+
+    /**
+     * An int extra that is passed on to the service, or the default if it's missing.
+     */
+    public Builder optional(String extra, int defaultValue) {
+      optionalIntExtras.put(extra, defaultValue);
+      return this;
+    }
+
+    /**
+     * An int extra that is passed on to the service only if it's present, for defaults the
+     * service works out from other extras.
+     */
+    public Builder optional(String extra) {
+      optionalIntExtras.put(extra, null);
+      return this;
+    }
+
+    /**
+     * A boolean extra that is passed on to the service, or the default if it's missing.
+     */
+    public Builder optional(String extra, boolean defaultValue) {
+      optionalBooleanExtras.put(extra, defaultValue);
+      return this;
+    }
+
+    public ServiceDescriptor build() {
+      return new ServiceDescriptor(this);
+    }
+  }
+}
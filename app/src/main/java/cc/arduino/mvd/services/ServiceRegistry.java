@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static cc.arduino.mvd.MvdServiceReceiver.EXTRA_SERVICE_API_KEY;
+import static cc.arduino.mvd.MvdServiceReceiver.EXTRA_SERVICE_BATCH;
+import static cc.arduino.mvd.MvdServiceReceiver.EXTRA_SERVICE_DELAY;
+import static cc.arduino.mvd.MvdServiceReceiver.EXTRA_SERVICE_FEED_ID;
+import static cc.arduino.mvd.MvdServiceReceiver.EXTRA_SERVICE_FLUSH_INTERVAL;
+import static cc.arduino.mvd.MvdServiceReceiver.EXTRA_SERVICE_MAX_DELAY;
+import static cc.arduino.mvd.MvdServiceReceiver.EXTRA_SERVICE_PORT;
+import static cc.arduino.mvd.MvdServiceReceiver.EXTRA_SERVICE_SCAN_INTERVAL;
+import static cc.arduino.mvd.MvdServiceReceiver.EXTRA_SERVICE_TIMEOUT;
+import static cc.arduino.mvd.MvdServiceReceiver.EXTRA_SERVICE_URL;
+
+/**
+ * All services the MVD knows about, looked up by name. The built in services are registered here,
+ * other connectors can add themselves with register() before their name is used in a broadcast.
+ */
+public class ServiceRegistry {
+
+  private static final ServiceRegistry INSTANCE = new ServiceRegistry();
+
+  private final ConcurrentHashMap<String, ServiceDescriptor> descriptors = new ConcurrentHashMap<>();
+
+  private ServiceRegistry() {
+    register(new ServiceDescriptor.Builder(BeanService.class, "BEAN")
+        .optional(EXTRA_SERVICE_DELAY, 1000)
+        .optional(EXTRA_SERVICE_MAX_DELAY)
+        .optional(EXTRA_SERVICE_TIMEOUT, 3000)
+        .optional(EXTRA_SERVICE_SCAN_INTERVAL, 30000)
+        .build());
+
+    register(new ServiceDescriptor.Builder(BinocularService.class, "Binocular")
+        .require(EXTRA_SERVICE_URL)
+        .optional(EXTRA_SERVICE_DELAY, 5000)
+        .build());
+
+    register(new ServiceDescriptor.Builder(ElisService.class, "ELIS")
+        .require(EXTRA_SERVICE_URL)
+        .optional(EXTRA_SERVICE_PORT, 11414)
+        .build());
+
+    register(new ServiceDescriptor.Builder(FirebaseService.class, "FIREBASE")
+        .require(EXTRA_SERVICE_URL)
+        .optional(EXTRA_SERVICE_FLUSH_INTERVAL, 0)
+        .build());
+
+    register(new ServiceDescriptor.Builder(HttpService.class, "HTTP")
+        .require(EXTRA_SERVICE_URL)
+        .optional(EXTRA_SERVICE_DELAY, 5000)
+        .optional(EXTRA_SERVICE_FLUSH_INTERVAL, 0)
+        .optional(EXTRA_SERVICE_BATCH, true)
+        .build());
+
+    register(new ServiceDescriptor.Builder(MqttService.class, "MQTT")
+        .require(EXTRA_SERVICE_URL)
+        .optional(EXTRA_SERVICE_PORT, 1883)
+        .optional(EXTRA_SERVICE_FLUSH_INTERVAL, 0)
+        .build());
+
+    register(new ServiceDescriptor.Builder(XivelyService.class, "XIVELY")
+        .require(EXTRA_SERVICE_API_KEY)
+        .require(EXTRA_SERVICE_FEED_ID)
+        .optional(EXTRA_SERVICE_FLUSH_INTERVAL, 0)
+        .build());
+  }
+
+  public static ServiceRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Add a service, or replace the one registered with the same name.
+   *
+   * @param descriptor The service descriptor
+   */
+  public void register(ServiceDescriptor descriptor) {
+    descriptors.put(descriptor.getName(), descriptor);
+  }
+
+  /**
+   * Get a service by name.
+   *
+   * @param name The service name
+   * @return The descriptor, or null if there is no such service
+   */
+  public ServiceDescriptor get(String name) {
+    return name != null ? descriptors.get(name) : null;
+  }
+
+  /**
+   * @param name The service name
+   * @return true if a service with the name is registered
+   */
+  public boolean contains(String name) {
+    return name != null && descriptors.containsKey(name);
+  }
+
+  /**
+   * @return All registered services
+   */
+  public List<ServiceDescriptor> getAll() {
+    return new ArrayList<>(descriptors.values());
+  }
+}
@@ -32,22 +32,25 @@ import org.fusesource.mqtt.client.Listener;
 import org.fusesource.mqtt.client.MQTT;
 import org.fusesource.mqtt.client.QoS;
 import org.fusesource.mqtt.client.Topic;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.net.URISyntaxException;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.List;
-import java.util.Locale;
-import java.util.regex.Pattern;
 
 import cc.arduino.mvd.MvdHelper;
 import cc.arduino.mvd.MvdServiceReceiver;
-import cc.arduino.mvd.models.Binding;
+import cc.arduino.mvd.bus.MvdBus;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.dispatch.Coalescer;
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
 import cc.arduino.mvd.models.CodePinValue;
-import cc.arduino.mvd.models.ServiceRoute;
+import cc.arduino.mvd.models.ParcelableCodePinValue;
+import cc.arduino.mvd.models.XivelyPayload;
+import cc.arduino.mvd.routing.LastValueTable;
+import cc.arduino.mvd.routing.Router;
+import cc.arduino.mvd.trace.Tracer;
 
 import static cc.arduino.mvd.MvdHelper.DEBUG;
 
@@ -65,6 +68,8 @@ public class XivelyService extends Service {
 
   public static final String TAG = XivelyService.class.getSimpleName();
 
+  private final ServiceMetrics metrics = Metrics.getInstance().get(TAG);
+
   private String host = "api.xively.com";
 
   private int port = 1883;
@@ -78,7 +83,16 @@ public class XivelyService extends Service {
   //  private BlockingConnection connection;
   private CallbackConnection connection;
 
-  private CodePinValue lastCodePinValue = null;
+  // Set when the connection drops, the client reconnects on its own
+  private volatile boolean disconnected;
+
+  // Only the newest value per code/pin is published, one message at a time
+  private Coalescer<CodePinValue> writer = new Coalescer<>(TAG + "/writer", new Coalescer.Sender<CodePinValue>() {
+    @Override
+    public void send(CodePinValue codePinValue) {
+      publish(codePinValue);
+    }
+  });
 
   @Override
   public void onCreate() {
@@ -90,6 +104,8 @@ public class XivelyService extends Service {
     filter.addAction(MvdHelper.ACTION_KILL);
 
     registerReceiver(broadcastReceiver, filter);
+
+    MvdBus.getInstance().subscribe(TAG, busSubscriber);
   }
 
   @Override
@@ -100,6 +116,8 @@ public class XivelyService extends Service {
 
       feedId = intent.getStringExtra(MvdServiceReceiver.EXTRA_SERVICE_FEED_ID);
 
+      writer.setInterval(intent.getIntExtra(MvdServiceReceiver.EXTRA_SERVICE_FLUSH_INTERVAL, 0));
+
       mqtt = new MQTT();
 
       try {
@@ -131,6 +149,10 @@ public class XivelyService extends Service {
   public void onDestroy() {
     super.onDestroy();
 
+    MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
+    LastValueTable.getInstance().clear(TAG);
+
     unregisterReceiver(broadcastReceiver);
 
     // To disconnect..
@@ -144,6 +166,8 @@ public class XivelyService extends Service {
       }
     });
 
+    writer.close();
+
     if (DEBUG) {
       Log.d(TAG, TAG + " stopped.");
     }
@@ -165,56 +189,23 @@ public class XivelyService extends Service {
   private void handleKeyValFromXively(String code, String pin, String value) {
     CodePinValue codePinValue = new CodePinValue(code, pin, value);
 
-    // First read, just store the last values.
-    if (lastCodePinValue == null) {
+    int change = Router.getInstance().onRead(TAG, null, codePinValue);
+
+    // First read of the pin, the Router has passed it on as well
+    if (change == LastValueTable.FIRST) {
       if (DEBUG) {
         Log.d(TAG, "First read.");
         Log.d(TAG, codePinValue.toString());
       }
-
-      lastCodePinValue = codePinValue;
     }
 
     // Someone else changed the values in the cloud, I should react to it!
-    else if (!lastCodePinValue.equals(codePinValue)) {
+    // (the Router has already passed it on to my routes and bindings)
+    else if (change == LastValueTable.CHANGED) {
       if (DEBUG) {
         Log.d(TAG, "I got the following from Xively:");
         Log.d(TAG, codePinValue.toString());
       }
-
-      // This was not me editing, I'll go ahead and broadcast the value "down" to other services
-      // (The value is from "me", but it was edited by someone else in Xively so I'll mask it as "me"
-      String source = TAG;
-
-      // Find a forwarding where I am included
-      List<ServiceRoute> routes = ServiceRoute.find(ServiceRoute.class, "service1 = ? OR service2 = ?", TAG, TAG);
-      for (ServiceRoute route : routes) {
-        if (DEBUG) {
-          Log.d(TAG, "Found route! " + route.getService1() + "-" + route.getService2());
-        }
-
-        // Get the target
-        String target = MvdHelper.getServiceTarget(route, TAG);
-
-        // Send the broadcast
-        MvdHelper.sendDownBroadcast(getApplicationContext(), source, target, codePinValue);
-      }
-
-      // Find a forwarding where I am included
-      List<Binding> bindings = Binding.find(Binding.class, "service = ?", TAG);
-      for (Binding binding : bindings) {
-        if (DEBUG) {
-          Log.d(TAG, "Found binding for " + binding.getCode() + "/" + binding.getPin() + " to " + binding.getService());
-        }
-
-        // Get the target (For bindings this is always the BeanService in the DOWN direction)
-        String target = BeanService.class.getSimpleName();
-
-        String mac = binding.getMac();
-
-        // Send the broadcast
-        MvdHelper.sendBeanDownBroadcast(getApplicationContext(), source, target, mac, codePinValue);
-      }
     }
 
     // I wrote these changes, I shouldn't care about informing anyone else
@@ -223,6 +214,16 @@ public class XivelyService extends Service {
     }
   }
 
+  /**
+   * This is how other services hand me their values
+   */
+  private MvdBus.Subscriber busSubscriber = new MvdBus.Subscriber() {
+    @Override
+    public void onEvent(MvdEvent event) {
+      onValue(event.getAction(), event.getSender(), event.getTarget(), event.getCodePinValue());
+    }
+  };
+
   /**
    * This is how other components of the app communicate with me
    */
@@ -248,44 +249,14 @@ public class XivelyService extends Service {
         codePinValue = new CodePinValue(code, pin, value);
       }
 
-      // ... or if we're getting the serializable
+      // ... or if we're getting the parcelable
       else if (intent.hasExtra(MvdHelper.EXTRA_CODE_PIN_VALUE)) {
-        codePinValue = (CodePinValue) intent.getSerializableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
+        codePinValue = intent.<ParcelableCodePinValue>getParcelableExtra(MvdHelper.EXTRA_CODE_PIN_VALUE);
       }
 
-      // Make sure we've got a valid key-value set.
-      if (codePinValue != null) {
-
-        if (DEBUG) {
-          Log.d(TAG, codePinValue.toString());
-        }
-
-        if (!sender.equals(TAG)) {
-          // If we're getting values from the Bean service (UP direction)
-          if (action.equals(MvdHelper.ACTION_UP)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              publish(codePinValue);
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-
-          // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
-          else if (action.equals(MvdHelper.ACTION_DOWN)) {
-            // Make sure the value is intended for us
-            if (target.equals(TAG)) {
-              publish(codePinValue);
-
-              lastCodePinValue = codePinValue;
-            }
-          }
-        } else {
-          // Do nothing, this was myself broadcasting values
-          if (DEBUG) {
-            Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
-          }
-        }
+      // Make sure we've got a valid key-value set, it's handled on the dispatcher like any other value
+      if (codePinValue != null && target.equals(TAG)) {
+        MvdBus.getInstance().publish(new MvdEvent(action, sender, target, null, codePinValue));
       }
 
       // If someone told me to kill myself...
@@ -293,6 +264,8 @@ public class XivelyService extends Service {
 //        firebase.removeEventListener(childListener)
         // TODO: remove the listner? (connection.disconnect()?)
 
+        MvdBus.getInstance().unsubscribe(TAG, busSubscriber);
+
         unregisterReceiver(broadcastReceiver);
 
         stopSelf();
@@ -301,29 +274,82 @@ public class XivelyService extends Service {
     }
   };
 
-  private void publish(CodePinValue codePinValue) {
-    publish(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
+  /**
+   * Handle a value sent to, or by, me. Values from other services, and the UP/DOWN broadcasts
+   * injected from the outside (adb), are handed to me through the bus on a Dispatcher worker.
+   */
+  private void onValue(String action, String sender, String target, CodePinValue codePinValue) {
+    if (DEBUG) {
+      Log.d(TAG, codePinValue.toString());
+    }
+
+    if (!sender.equals(TAG)) {
+      // If we're getting values from the Bean service (UP direction)
+      if (action.equals(MvdHelper.ACTION_UP)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          writer.submit(codePinValue.getCode() + "/" + codePinValue.getPin(), codePinValue);
+
+          Router.getInstance().onWritten(TAG, codePinValue);
+        }
+      }
+
+      // Or if we've getting values from other "cloud" services (DOWN direction) we should write to Firebase too
+      else if (action.equals(MvdHelper.ACTION_DOWN)) {
+        // Make sure the value is intended for us
+        if (target.equals(TAG)) {
+          writer.submit(codePinValue.getCode() + "/" + codePinValue.getPin(), codePinValue);
+
+          Router.getInstance().onWritten(TAG, codePinValue);
+        }
+      }
+    } else {
+      // Do nothing, this was myself broadcasting values
+      if (DEBUG) {
+        Log.d(TAG, "I just forwarded a value to another service (" + target + ")");
+      }
+    }
   }
 
-  private void publish(String code, String pin, String value) {
-    String topic = "/v2/feeds/" + feedId + ".json";
+  private void publish(final CodePinValue codePinValue) {
+    final String topic = "/v2/feeds/" + feedId + ".json";
 
-    JSONObject payload = null;
     try {
-      payload = createPayload(code, pin, value);
+      final JSONObject payload = XivelyPayload.create(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue(), new Date());
 
-      // Send a message to a topic
-      connection.publish(topic, payload.toString().getBytes(), QoS.AT_MOST_ONCE, false, new Callback<Void>() {
-        public void onSuccess(Void v) {
-          // the pubish operation completed successfully.
-        }
+      // Values arrive on the dispatcher, but the connection must only be used from its own queue
+      connection.getDispatchQueue().execute(new Runnable() {
+        @Override
+        public void run() {
+          final long started = metrics.requestStarted();
 
-        public void onFailure(Throwable value) {
-//          connection.close(null); // publish failed.
+          // Send a message to a topic
+          connection.publish(topic, payload.toString().getBytes(), QoS.AT_MOST_ONCE, false, new Callback<Void>() {
+            public void onSuccess(Void v) {
+              // the pubish operation completed successfully.
+              metrics.requestFinished(ServiceMetrics.RTT_MQTT_PUBLISH, started);
+
+              Tracer.getInstance().complete(TAG, codePinValue);
+
+              writer.done();
+            }
+
+            public void onFailure(Throwable value) {
+//              connection.close(null); // publish failed.
+              metrics.requestFinished(ServiceMetrics.RTT_MQTT_PUBLISH, started);
+              metrics.countError();
+
+              writer.done();
+            }
+          });
         }
       });
     } catch (JSONException e) {
       e.printStackTrace();
+
+      metrics.countError();
+
+      writer.done();
     }
 
   }
@@ -331,12 +357,15 @@ public class XivelyService extends Service {
   private Listener mqttListener = new Listener() {
     @Override
     public void onConnected() {
-
+      if (disconnected) {
+        disconnected = false;
+        metrics.countReconnect();
+      }
     }
 
     @Override
     public void onDisconnected() {
-
+      disconnected = true;
     }
 
     @Override
@@ -347,9 +376,13 @@ public class XivelyService extends Service {
       String json = new String(utf8Buffer.getData());
 
       try {
-        parsePayload(json);
+        for (CodePinValue codePinValue : XivelyPayload.parse(json)) {
+          handleKeyValFromXively(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
+        }
       } catch (JSONException e) {
         e.printStackTrace();
+
+        metrics.countError();
       }
 
       // Once process execute the ack runnable.
@@ -358,7 +391,7 @@ public class XivelyService extends Service {
 
     @Override
     public void onFailure(Throwable throwable) {
-
+      metrics.countError();
     }
   };
 
@@ -387,52 +420,4 @@ public class XivelyService extends Service {
 //      result.failure(value); // If we could not connect to the server.
     }
   };
-
-  private JSONObject createPayload(String code, String pin, String value) throws JSONException {
-    JSONObject root = new JSONObject();
-
-    Date d = Calendar.getInstance(Locale.getDefault()).getTime();
-
-    JSONObject datapoint = new JSONObject();
-    datapoint.put("at", d.toString());
-    datapoint.put("value", value);
-
-    JSONArray datapoints = new JSONArray();
-    datapoints.put(datapoint);
-
-    JSONObject datastream = new JSONObject();
-    datastream.put("id", code + "+" + pin);
-    datastream.put("datapoints", datapoints);
-
-    JSONArray datastreams = new JSONArray();
-    datastreams.put(datastream);
-
-    root.put("version", "1.0.0");
-    root.put("datastreams", datastreams);
-
-    return root;
-  }
-
-  private String[] parsePayload(String json) throws JSONException {
-    int start = json.indexOf("{");
-    String jsonFixed = json.substring(start);
-    JSONObject root = new JSONObject(jsonFixed);
-
-    JSONArray datastreams = root.getJSONArray("datastreams");
-
-    for (int i = 0; i < datastreams.length(); i++) {
-      JSONObject datastream = datastreams.getJSONObject(i);
-      String id = datastream.getString("id");
-      final String re = Pattern.quote("+");
-      String[] codepin = id.split(re);
-      String code = codepin[0];
-      String pin = codepin[1];
-      String value = datastream.getString("current_value");
-
-      handleKeyValFromXively(code, pin, value);
-    }
-
-    return new String[]{};
-  }
-
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.transport;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nl.littlerobots.bean.Bean;
+import nl.littlerobots.bean.BeanListener;
+
+/**
+ * Reaches real Beans over BLE through the Bean library. A Bean has to be found by startDiscovery()
+ * before it can be opened, only devices that advertise as a Bean are found. They are forgotten
+ * when they expire from the discovery cache.
+ */
+public class BeanlibTransport implements BeanTransport {
+
+  private final Context context;
+
+  private final BeanDiscoveryCache discoveryCache;
+
+  // The Beans our scans found and the discovery cache still has, by MAC
+  private final Map<String, BluetoothDevice> found = new ConcurrentHashMap<>();
+
+  private BluetoothAdapter.LeScanCallback scanCallback;
+
+  /**
+   * @param context        The context
+   * @param discoveryCache The cache the discovery listener fills, devices are kept as long as it
+   *                       has them
+   */
+  public BeanlibTransport(Context context, BeanDiscoveryCache discoveryCache) {
+    this.context = context.getApplicationContext();
+    this.discoveryCache = discoveryCache;
+  }
+
+  @Override
+  public Link open(String mac, Listener listener) {
+    BluetoothDevice device = found.get(mac);
+    if (device != null) {
+      return new BeanLink(new Bean(device), listener);
+    }
+
+    return null;
+  }
+
+  @Override
+  public synchronized void startDiscovery(final DiscoveryListener listener) {
+    cancelDiscovery();
+
+    // Forget the devices that haven't been seen for a while, links already open keep their Bean
+    discoveryCache.expire(System.currentTimeMillis());
+    Iterator<String> it = found.keySet().iterator();
+    while (it.hasNext()) {
+      if (discoveryCache.get(it.next()) == null) {
+        it.remove();
+      }
+    }
+
+    // Our own LE scan, the Bean library doesn't tell the RSSI
+    scanCallback = new BluetoothAdapter.LeScanCallback() {
+      @Override
+      public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+        if (!BeanAdvertisement.isBean(scanRecord)) {
+          return;
+        }
+
+        String mac = device.getAddress();
+
+        found.put(mac, device);
+
+        listener.onDiscovered(mac, device.getName(), rssi);
+      }
+    };
+
+    BluetoothAdapter.getDefaultAdapter().startLeScan(scanCallback);
+  }
+
+  @Override
+  public synchronized void cancelDiscovery() {
+    if (scanCallback != null) {
+      BluetoothAdapter.getDefaultAdapter().stopLeScan(scanCallback);
+      scanCallback = null;
+    }
+  }
+
+  private final class BeanLink implements Link, BeanListener {
+
+    private final Bean bean;
+
+    private final Listener listener;
+
+    private BeanLink(Bean bean, Listener listener) {
+      this.bean = bean;
+      this.listener = listener;
+    }
+
+    @Override
+    public String getMac() {
+      return bean.getDevice().getAddress();
+    }
+
+    @Override
+    public String getName() {
+      return bean.getDevice().getName();
+    }
+
+    @Override
+    public boolean isConnected() {
+      return bean.isConnected();
+    }
+
+    @Override
+    public void send(String message) {
+      bean.sendSerialMessage(message);
+    }
+
+    @Override
+    public void connect() {
+      bean.connect(context, this);
+    }
+
+    @Override
+    public void disconnect() {
+      bean.disconnect();
+    }
+
+    @Override
+    public void onConnected() {
+      listener.onConnected();
+    }
+
+    @Override
+    public void onConnectionFailed() {
+      listener.onConnectionFailed();
+    }
+
+    @Override
+    public void onDisconnected() {
+      listener.onDisconnected();
+    }
+
+    @Override
+    public void onSerialMessageReceived(byte[] bytes) {
+      listener.onSerialMessageReceived(bytes);
+    }
+
+    @Override
+    public void onScratchValueChanged(int bank, byte[] bytes) {
+      listener.onScratchValueChanged(bank, bytes);
+    }
+  }
+}
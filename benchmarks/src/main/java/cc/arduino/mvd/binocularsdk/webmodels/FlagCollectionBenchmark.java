@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.binocularsdk.webmodels;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the flags the BinocularService polls for.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlagCollectionBenchmark {
+
+  private String response = "{\"status_code\":\"200\",\"T\":{\"12\":\"23.5\",\"13\":\"24.0\"},\"L\":{\"3\":\"255\"},\"H\":{\"7\":\"41\"}}";
+
+  private String failed = "{\"status_code\":\"404\",\"message\":\"Device not found\"}";
+
+  private FlagCollection flags = new FlagCollection(new ICollectionState() {
+    @Override
+    public String getUrl() {
+      return "http://localhost/flags";
+    }
+
+    @Override
+    public Map<String, String> getDataMapping() {
+      return Collections.emptyMap();
+    }
+
+    @Override
+    public String getCode() {
+      return "flags";
+    }
+
+    @Override
+    public String getAction() {
+      return "GET";
+    }
+  });
+
+  @Benchmark
+  public JSONObject parseResponse() {
+    flags.parseResponse(response);
+    return flags.getFlags();
+  }
+
+  @Benchmark
+  public JSONObject parseFailedResponse() {
+    flags.parseResponse(failed);
+    return flags.getFlags();
+  }
+}
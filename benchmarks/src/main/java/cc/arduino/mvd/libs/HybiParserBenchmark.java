@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.libs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The websocket framing the ElisService talks through. Framing and masking happen for every value
+ * sent, emitFrame for every message received.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HybiParserBenchmark {
+
+  private static final int MESSAGES = 16;
+
+  private String message = "{\"code\":\"T\",\"pin\":\"12\",\"value\":\"23.5\",\"sender\":\"mvd\"}";
+
+  private byte[] payload = message.getBytes();
+
+  private byte[] key = {0x12, 0x34, 0x56, 0x78};
+
+  // Server frames are not masked
+  private byte[] frames;
+
+  private int received;
+
+  private HybiParser parser = new HybiParser(new HybiParser.Client() {
+    @Override
+    public void onMessage(String message) {
+      received++;
+    }
+
+    @Override
+    public void onMessage(byte[] data) {
+      received++;
+    }
+
+    @Override
+    public void onDisconnect(int code, String reason) {
+    }
+
+    @Override
+    public void send(byte[] data) {
+    }
+
+    @Override
+    public void sendFrame(byte[] frame) {
+    }
+  });
+
+  @Setup
+  public void setUp() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    for (int i = 0; i < MESSAGES; i++) {
+      out.write(0x80 | 0x01);
+      out.write(payload.length);
+      out.write(payload);
+    }
+
+    frames = out.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] frameText() {
+    return parser.frame(message);
+  }
+
+  @Benchmark
+  public byte[] frameBinary() {
+    return parser.frame(payload);
+  }
+
+  @Benchmark
+  public byte[] mask() {
+    return HybiParser.mask(payload, key, 0);
+  }
+
+  /**
+   * Reads MESSAGES frames, the score is per batch.
+   */
+  @Benchmark
+  public int emitFrame() throws IOException {
+    received = 0;
+
+    try {
+      parser.start(new HybiParser.HappyDataInputStream(new ByteArrayInputStream(frames)));
+    } catch (EOFException e) {
+      // The parser reads until the stream ends
+    }
+
+    return received;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the serial messages that arrive from a Bean, once per poll and pin.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeanMessageBenchmark {
+
+  private String message = "T/12/23.5";
+
+  private String garbage = "T/12";
+
+  // One notification with a message and the start of the next, then the rest of it
+  private byte[] first = "T/12/23.5\nT/1".getBytes();
+
+  private byte[] second = "3/0\n".getBytes();
+
+  private BeanMessageParser parser;
+
+  private CodePinValue last;
+
+  @Setup
+  public void setup() {
+    parser = new BeanMessageParser(new BeanMessageParser.Listener() {
+      @Override
+      public void onValue(CodePinValue codePinValue) {
+        last = codePinValue;
+      }
+
+      @Override
+      public void onInvalid() {
+      }
+    });
+  }
+
+  @Benchmark
+  public CodePinValue parse() {
+    return BeanMessage.parse(message);
+  }
+
+  @Benchmark
+  public CodePinValue parseInvalid() {
+    return BeanMessage.parse(garbage);
+  }
+
+  @Benchmark
+  public CodePinValue feed() {
+    parser.feed(first);
+    parser.feed(second);
+    return last;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding values with CodePinValueCodec, the format values are passed between
+ * processes in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodePinValueBenchmark {
+
+  private CodePinValue value = new CodePinValue("T", "12", "23.5");
+
+  private byte[] encoded = CodePinValueCodec.encode(value);
+
+  private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+  @Benchmark
+  public byte[] encode() {
+    return CodePinValueCodec.encode(value);
+  }
+
+  @Benchmark
+  public ByteBuffer encodeIntoBuffer() {
+    buffer.clear();
+    CodePinValueCodec.encode(value, buffer);
+    return buffer;
+  }
+
+  @Benchmark
+  public CodePinValue decode() {
+    return CodePinValueCodec.decode(encoded);
+  }
+
+  @Benchmark
+  public CodePinValue roundTrip() {
+    return CodePinValue.fromBytes(value.toBytes());
+  }
+}
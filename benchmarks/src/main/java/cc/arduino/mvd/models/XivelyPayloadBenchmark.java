@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the document for every value written to Xively, and reading the feed updates it sends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XivelyPayloadBenchmark {
+
+  // A feed update as the MQTT bridge sends it, with a few datastreams
+  private String update = "{\"id\":123456789,\"title\":\"mvd\",\"private\":\"true\",\"feed\":\"https://api.xively.com/v2/feeds/123456789.json\","
+      + "\"status\":\"live\",\"updated\":\"2015-04-20T10:01:02.123456Z\",\"created\":\"2015-03-01T09:00:00.000000Z\",\"version\":\"1.0.0\","
+      + "\"datastreams\":["
+      + "{\"id\":\"T+12\",\"current_value\":\"23.5\",\"at\":\"2015-04-20T10:01:02.123456Z\",\"max_value\":\"30.0\",\"min_value\":\"18.0\"},"
+      + "{\"id\":\"L+3\",\"current_value\":\"255\",\"at\":\"2015-04-20T10:01:02.123456Z\",\"max_value\":\"255.0\",\"min_value\":\"0.0\"},"
+      + "{\"id\":\"H+7\",\"current_value\":\"41\",\"at\":\"2015-04-20T10:01:02.123456Z\",\"max_value\":\"60.0\",\"min_value\":\"20.0\"}"
+      + "]}";
+
+  private Date at = new Date();
+
+  @Benchmark
+  public String createPayload() throws JSONException {
+    JSONObject payload = XivelyPayload.create("T", "12", "23.5", at);
+
+    // The service sends the payload as a string, so that is part of the cost
+    return payload.toString();
+  }
+
+  @Benchmark
+  public List<CodePinValue> parsePayload() throws JSONException {
+    return XivelyPayload.parse(update);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import cc.arduino.mvd.bus.EventSink;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.models.CodePinValue;
+
+/**
+ * Passing a value read by one service on to its routes and bound beans. The sink only counts, so
+ * this is the cost of the Router itself and not of the delivery.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+  private static final String SERVICE = "FirebaseService";
+
+  @Param({"1", "4"})
+  private int routes;
+
+  @Param({"1", "8"})
+  private int beans;
+
+  private Router router;
+
+  private CodePinValue[] values = {
+      new CodePinValue("T", "12", "23.5"),
+      new CodePinValue("T", "12", "24.0")
+  };
+
+  private int next;
+
+  private int published;
+
+  @Setup
+  public void setUp() {
+    final List<RouteEntry> routeEntries = new ArrayList<>();
+    for (int i = 0; i < routes; i++) {
+      routeEntries.add(new RouteEntry(SERVICE, "Service" + i));
+    }
+
+    final List<BindingEntry> bindingEntries = new ArrayList<>();
+    for (int i = 0; i < beans; i++) {
+      bindingEntries.add(new BindingEntry("00:00:00:00:00:0" + i, "bean" + i, SERVICE, "T", "12"));
+    }
+
+    RoutingTable table = new RoutingTable();
+    table.setSource(new RoutingSource() {
+      @Override
+      public List<RouteEntry> loadRoutes() {
+        return routeEntries;
+      }
+
+      @Override
+      public List<BindingEntry> loadBindings() {
+        return bindingEntries;
+      }
+    });
+
+    router = new Router(table, new LastValueTable(), new EventSink() {
+      @Override
+      public boolean publish(MvdEvent event) {
+        published++;
+        return true;
+      }
+    });
+  }
+
+  /**
+   * Every read is a change, so every read is fanned out.
+   */
+  @Benchmark
+  public int onReadChanged() {
+    next ^= 1;
+    return router.onRead(SERVICE, null, values[next]);
+  }
+
+  /**
+   * The same value again, dropped by the LastValueTable.
+   */
+  @Benchmark
+  public int onReadUnchanged() {
+    return router.onRead(SERVICE, null, values[0]);
+  }
+
+  @Benchmark
+  public int fanOut() {
+    return router.fanOut(SERVICE, null, values[0]);
+  }
+}
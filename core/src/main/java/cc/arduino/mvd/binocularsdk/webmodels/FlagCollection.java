@@ -1,7 +1,5 @@
 package cc.arduino.mvd.binocularsdk.webmodels;
 
-import android.util.Log;
-
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -17,8 +15,6 @@ import cc.arduino.mvd.binocularsdk.web.IJsonCollectionConvertable;
  */
 public class FlagCollection implements IJsonCollectionConvertable {
 
-    private final String TAG = FlagCollection.class.getSimpleName();
-
     private final ICollectionState state;
     JSONObject flags;
 
@@ -35,9 +31,6 @@ public class FlagCollection implements IJsonCollectionConvertable {
 
     @Override
     public void parseResponse(String json) {
-
-        Log.d(TAG, json);
-
         try {
             flags = new JSONObject(json);
 
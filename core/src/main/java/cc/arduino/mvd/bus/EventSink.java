@@ -0,0 +1,31 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.bus;
+
+/**
+ * Where events are published. The MvdBus in the app, anything that records them in tests.
+ */
+public interface EventSink {
+
+  /**
+   * Hand an event over to its target.
+   *
+   * @param event The event
+   * @return true if anyone received the event
+   */
+  boolean publish(MvdEvent event);
+}
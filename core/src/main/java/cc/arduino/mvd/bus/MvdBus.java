@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.bus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import cc.arduino.mvd.dispatch.Dispatcher;
+import cc.arduino.mvd.dispatch.OutboundQueue;
+import cc.arduino.mvd.models.CodePinValue;
+import cc.arduino.mvd.trace.Trace;
+
+/**
+ * In-process publish/subscribe bus for the UP and DOWN values passed between services. Services
+ * subscribe with their own name and only receive the events targeted at them, the event object is
+ * handed over as is. Unless a subscriber asks for a specific executor, events go through the
+ * target's bounded OutboundQueue and are delivered on the Dispatcher, ordered per target, code,
+ * pin and Bean.
+ * <p/>
+ * The UP and DOWN broadcast intents are still understood by the services, but only as a way to
+ * inject values from the outside (adb).
+ */
+public class MvdBus implements EventSink {
+
+  /**
+   * Receives the events targeted at a service.
+   */
+  public interface Subscriber {
+    void onEvent(MvdEvent event);
+  }
+
+  private static final MvdBus INSTANCE = new MvdBus();
+
+  private final ConcurrentHashMap<String, CopyOnWriteArrayList<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<String, OutboundQueue<MvdEvent>> queues = new ConcurrentHashMap<>();
+
+  private MvdBus() {
+  }
+
+  public static MvdBus getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Subscribe to all events targeted at a service, delivered through the service's outbound queue.
+   *
+   * @param target     The service name
+   * @param subscriber The subscriber
+   */
+  public void subscribe(String target, Subscriber subscriber) {
+    subscribe(target, subscriber, null);
+  }
+
+  /**
+   * Subscribe to all events targeted at a service.
+   *
+   * @param target     The service name
+   * @param subscriber The subscriber
+   * @param executor   The executor the subscriber is called on, or null for the outbound queue
+   */
+  public void subscribe(String target, Subscriber subscriber, Executor executor) {
+    CopyOnWriteArrayList<Subscription> list = subscriptions.get(target);
+    if (list == null) {
+      CopyOnWriteArrayList<Subscription> created = new CopyOnWriteArrayList<>();
+      list = subscriptions.putIfAbsent(target, created);
+      if (list == null) {
+        list = created;
+      }
+    }
+    list.add(new Subscription(subscriber, executor));
+  }
+
+  /**
+   * Stop receiving events for a service.
+   *
+   * @param target     The service name
+   * @param subscriber The subscriber
+   */
+  public void unsubscribe(String target, Subscriber subscriber) {
+    List<Subscription> list = subscriptions.get(target);
+    if (list != null) {
+      for (Subscription subscription : list) {
+        if (subscription.subscriber == subscriber) {
+          list.remove(subscription);
+        }
+      }
+    }
+  }
+
+  /**
+   * Hand an event over to the subscribers of its target.
+   *
+   * @param event The event
+   * @return true if anyone was subscribed to the target
+   */
+  @Override
+  public boolean publish(MvdEvent event) {
+    List<Subscription> list = subscriptions.get(event.getTarget());
+    if (list == null || list.isEmpty()) {
+      return false;
+    }
+
+    boolean queued = false;
+    for (Subscription subscription : list) {
+      if (subscription.executor != null) {
+        subscription.deliver(event);
+      }
+
+      // The queue delivers to all the target's Dispatcher subscribers at once
+      else if (!queued) {
+        CodePinValue codePinValue = event.getCodePinValue();
+        getQueue(event.getTarget()).offer(
+            Dispatcher.key(event.getTarget(), codePinValue.getCode(), codePinValue.getPin(), event.getMac()), event);
+        queued = true;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Set the policy and capacity of a service's outbound queue.
+   *
+   * @param target   The service name
+   * @param policy   What to do when the queue is full
+   * @param capacity The max number of pending events
+   */
+  public void configureQueue(String target, OutboundQueue.Policy policy, int capacity) {
+    getQueue(target).configure(policy, capacity);
+  }
+
+  /**
+   * Get the outbound queue of a service, it's created with the default policy on first use.
+   *
+   * @param target The service name
+   * @return The queue
+   */
+  public OutboundQueue<MvdEvent> getQueue(final String target) {
+    OutboundQueue<MvdEvent> queue = queues.get(target);
+    if (queue == null) {
+      OutboundQueue<MvdEvent> created = new OutboundQueue<>(target, new OutboundQueue.Sink<MvdEvent>() {
+        @Override
+        public void deliver(MvdEvent event) {
+          delivered(event);
+
+          List<Subscription> list = subscriptions.get(target);
+          if (list != null) {
+            for (Subscription subscription : list) {
+              if (subscription.executor == null) {
+                subscription.subscriber.onEvent(event);
+              }
+            }
+          }
+        }
+      });
+      queue = queues.putIfAbsent(target, created);
+      if (queue == null) {
+        queue = created;
+      }
+    }
+    return queue;
+  }
+
+  /**
+   * @return All outbound queues created so far
+   */
+  public List<OutboundQueue<MvdEvent>> getQueues() {
+    return new ArrayList<>(queues.values());
+  }
+
+  /**
+   * Add the delivery to the trace of an event's value.
+   */
+  private static void delivered(MvdEvent event) {
+    CodePinValue codePinValue = event.getCodePinValue();
+    Trace trace = codePinValue.getTrace();
+    if (trace != null) {
+      codePinValue.setTrace(trace.hop(event.getTarget() + ":delivered"));
+    }
+  }
+
+  private static final class Subscription {
+
+    private final Subscriber subscriber;
+
+    private final Executor executor;
+
+    private Subscription(Subscriber subscriber, Executor executor) {
+      this.subscriber = subscriber;
+      this.executor = executor;
+    }
+
+    private void deliver(final MvdEvent event) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          delivered(event);
+          subscriber.onEvent(event);
+        }
+      });
+    }
+  }
+}
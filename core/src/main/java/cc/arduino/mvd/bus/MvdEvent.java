@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.bus;
+
+import cc.arduino.mvd.models.CodePinValue;
+
+/**
+ * A value travelling between two services, either UP or DOWN. The action is one of ACTION_UP or
+ * ACTION_DOWN, the MAC is only set for values to or from a Bean.
+ */
+public final class MvdEvent {
+
+  public static final String ACTION_UP = "cc.arduino.mvd.helper.actions.UP";
+
+  public static final String ACTION_DOWN = "cc.arduino.mvd.helper.actions.DOWN";
+
+  private final String action;
+
+  private final String sender;
+
+  private final String target;
+
+  private final String mac;
+
+  private final CodePinValue codePinValue;
+
+  public MvdEvent(String action, String sender, String target, String mac, CodePinValue codePinValue) {
+    this.action = action;
+    this.sender = sender;
+    this.target = target;
+    this.mac = mac;
+    this.codePinValue = codePinValue;
+  }
+
+  public String getAction() {
+    return action;
+  }
+
+  public String getSender() {
+    return sender;
+  }
+
+  public String getTarget() {
+    return target;
+  }
+
+  public String getMac() {
+    return mac;
+  }
+
+  public CodePinValue getCodePinValue() {
+    return codePinValue;
+  }
+
+  @Override
+  public String toString() {
+    return "MvdEvent{" +
+        "action='" + action + '\'' +
+        ", sender='" + sender + '\'' +
+        ", target='" + target + '\'' +
+        ", mac='" + mac + '\'' +
+        ", codePinValue=" + codePinValue +
+        '}';
+  }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import cc.arduino.mvd.metrics.ServiceMetrics;
+
+/**
+ * Keeps the link to one Bean up. The state is driven by the Bean's callbacks and by the outcome
+ * of the writes:
+ * <ul>
+ * <li>CONNECTING - the first connect hasn't completed yet.</li>
+ * <li>CONNECTED - the link is up.</li>
+ * <li>DEGRADED - the link is up but writes have failed, after DEGRADED_LIMIT failures in a row we
+ * reconnect.</li>
+ * <li>RECONNECTING - the link is down, connect attempts are made with exponential backoff and
+ * jitter.</li>
+ * <li>LOST - MAX_ATTEMPTS attempts failed, or the connection was closed. Only retry() starts over.
+ * </li>
+ * </ul>
+ * The write queue is paused while the link is down, so writes are kept and replayed once it is
+ * back. All timers run on the Bean's own Dispatcher lane, a Bean that doesn't answer never holds
+ * up the others.
+ */
+public class BeanConnection {
+
+  public enum State {
+    CONNECTING, CONNECTED, DEGRADED, RECONNECTING, LOST
+  }
+
+  /**
+   * Connects to the Bean, neither call may block.
+   */
+  public interface Link {
+    void connect();
+
+    void disconnect();
+  }
+
+  public static final int DEGRADED_LIMIT = 3;
+
+  public static final int MAX_ATTEMPTS = 10;
+
+  public static final long DEFAULT_MIN_BACKOFF = 1000;
+
+  public static final long DEFAULT_MAX_BACKOFF = 60000;
+
+  /**
+   * A connect that hasn't succeeded or failed by now counts as failed.
+   */
+  public static final long CONNECT_TIMEOUT = 15000;
+
+  /**
+   * How much a backoff may differ from the nominal one, so Beans that dropped together don't all
+   * reconnect at the same moment.
+   */
+  static final double JITTER = 0.2;
+
+  private final String name;
+
+  private final Link link;
+
+  private final BeanWriteQueue<?> queue;
+
+  private final ServiceMetrics metrics;
+
+  private final Random random = new Random();
+
+  private State state = State.CONNECTING;
+
+  private int failures;
+
+  private int attempts;
+
+  private long minBackoff = DEFAULT_MIN_BACKOFF;
+
+  private long maxBackoff = DEFAULT_MAX_BACKOFF;
+
+  private ScheduledFuture<?> timer;
+
+  // The timer is a backoff, not a connect timeout
+  private boolean waiting;
+
+  private final Runnable attempt = new Runnable() {
+    @Override
+    public void run() {
+      attempt();
+    }
+  };
+
+  /**
+   * @param name    The name, also the Dispatcher key of the timers
+   * @param link    Connects to the Bean
+   * @param queue   The Bean's write queue, paused until the link is up
+   * @param metrics Where reconnects and errors are counted
+   */
+  public BeanConnection(String name, Link link, BeanWriteQueue<?> queue, ServiceMetrics metrics) {
+    this.name = name;
+    this.link = link;
+    this.queue = queue;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Make the first connect attempt.
+   */
+  public void start() {
+    synchronized (this) {
+      state = State.CONNECTING;
+      attempts = 0;
+      queue.pause();
+    }
+
+    Dispatcher.getInstance().execute(name, attempt);
+  }
+
+  /**
+   * Set the bounds for the time between two connect attempts.
+   *
+   * @param min The first backoff in ms
+   * @param max The longest backoff in ms
+   */
+  public synchronized void setBackoff(long min, long max) {
+    minBackoff = Math.max(1, min);
+    maxBackoff = Math.max(minBackoff, max);
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return true if writes go out right away
+   */
+  public synchronized boolean isWritable() {
+    return state == State.CONNECTED || state == State.DEGRADED;
+  }
+
+  public synchronized int getAttempts() {
+    return attempts;
+  }
+
+  public void onConnected() {
+    synchronized (this) {
+      if (state == State.LOST) {
+        return;
+      }
+
+      cancelTimer();
+      state = State.CONNECTED;
+      failures = 0;
+      attempts = 0;
+    }
+
+    queue.resume();
+  }
+
+  public void onConnectionFailed() {
+    metrics.countError();
+    linkDown();
+  }
+
+  public void onDisconnected() {
+    linkDown();
+  }
+
+  /**
+   * A write made it to the Bean.
+   */
+  public synchronized void onWriteSucceeded() {
+    failures = 0;
+
+    if (state == State.DEGRADED) {
+      state = State.CONNECTED;
+    }
+  }
+
+  /**
+   * A write to the Bean failed, enough of them in a row and we reconnect.
+   */
+  public void onWriteFailed() {
+    synchronized (this) {
+      if (state != State.CONNECTED && state != State.DEGRADED) {
+        return;
+      }
+
+      failures++;
+      state = State.DEGRADED;
+
+      if (failures < DEGRADED_LIMIT) {
+        return;
+      }
+    }
+
+    reconnect();
+  }
+
+  /**
+   * Start over after the connection was lost, like when the Bean shows up in a scan again.
+   */
+  public void retry() {
+    synchronized (this) {
+      if (state != State.LOST) {
+        return;
+      }
+    }
+
+    reconnect();
+  }
+
+  /**
+   * The Bean showed up in a scan. Start over if it was lost, or try now rather than wait out the
+   * backoff, it's in range after all.
+   */
+  public void onSeen() {
+    boolean lost;
+    boolean now = false;
+
+    synchronized (this) {
+      lost = state == State.LOST;
+
+      if (waiting && (state == State.CONNECTING || state == State.RECONNECTING)) {
+        cancelTimer();
+        now = true;
+      }
+    }
+
+    if (lost) {
+      retry();
+    } else if (now) {
+      Dispatcher.getInstance().execute(name, attempt);
+    }
+  }
+
+  /**
+   * Give up on the Bean for good, the waiting writes are dropped.
+   */
+  public void close() {
+    synchronized (this) {
+      cancelTimer();
+      state = State.LOST;
+    }
+
+    queue.clear();
+  }
+
+  private void linkDown() {
+    synchronized (this) {
+      // A failed attempt, try again later
+      if (state == State.CONNECTING || state == State.RECONNECTING) {
+        scheduleAttempt();
+        return;
+      }
+
+      if (state == State.LOST) {
+        return;
+      }
+    }
+
+    reconnect();
+  }
+
+  private void reconnect() {
+    synchronized (this) {
+      cancelTimer();
+      state = State.RECONNECTING;
+      attempts = 0;
+      queue.pause();
+    }
+
+    metrics.countReconnect();
+
+    // Drop what's left of the old link before trying a new one
+    try {
+      link.disconnect();
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    }
+
+    synchronized (this) {
+      scheduleAttempt();
+    }
+  }
+
+  private void attempt() {
+    boolean lost = false;
+
+    synchronized (this) {
+      if (state != State.CONNECTING && state != State.RECONNECTING) {
+        return;
+      }
+
+      if (attempts >= MAX_ATTEMPTS) {
+        cancelTimer();
+        state = State.LOST;
+        lost = true;
+      } else {
+        attempts++;
+
+        // Count it as failed if the Bean never answers
+        final int current = attempts;
+        cancelTimer();
+        timer = Dispatcher.getInstance().schedule(name, new Runnable() {
+          @Override
+          public void run() {
+            timedOut(current);
+          }
+        }, CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    // Nobody is going to write these any time soon
+    if (lost) {
+      queue.clear();
+      return;
+    }
+
+    try {
+      link.connect();
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      linkDown();
+    }
+  }
+
+  private void timedOut(int attempt) {
+    synchronized (this) {
+      if (attempt != attempts || (state != State.CONNECTING && state != State.RECONNECTING)) {
+        return;
+      }
+    }
+
+    linkDown();
+  }
+
+  /**
+   * Must hold the lock.
+   */
+  private void scheduleAttempt() {
+    cancelTimer();
+    timer = Dispatcher.getInstance().schedule(name, attempt, backoff(attempts), TimeUnit.MILLISECONDS);
+    waiting = true;
+  }
+
+  /**
+   * Must hold the lock.
+   */
+  private void cancelTimer() {
+    if (timer != null) {
+      timer.cancel(false);
+      timer = null;
+    }
+    waiting = false;
+  }
+
+  /**
+   * The time to wait before the next attempt, doubling with every failed one.
+   *
+   * @param attempts The number of attempts made so far
+   * @return The backoff in ms
+   */
+  long backoff(int attempts) {
+    long nominal = minBackoff << Math.min(attempts, 20);
+    if (nominal <= 0 || nominal > maxBackoff) {
+      nominal = maxBackoff;
+    }
+
+    double jitter = 1 + JITTER * (2 * random.nextDouble() - 1);
+    return Math.max(1, (long) (nominal * jitter));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return name + " : " + state + (attempts > 0 ? " (attempt " + attempts + ")" : "");
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cc.arduino.mvd.metrics.ServiceMetrics;
+
+/**
+ * The single writer for one Bean. Android's GATT stack handles one write at a time, so a poll from
+ * the scheduler and a value from the main thread that hit the Bean together make one of them fail.
+ * Here every write goes through one Dispatcher lane, at most one every PACING ms.
+ * <p/>
+ * Actuator values are written before any poll. A poll frame that is already waiting is not queued
+ * again. When more than CAPACITY actuator values are waiting the oldest is dropped.
+ * <p/>
+ * While the queue is paused, like when the Bean is reconnecting, values are kept and written once
+ * it is resumed. An actuator value whose write failed because the link went down is kept too.
+ *
+ * @param <T> What the owner wants back with every actuator value that was written
+ */
+public class BeanWriteQueue<T> {
+
+  public interface Writer<T> {
+    /**
+     * Write a message to the Bean.
+     *
+     * @param message The message, ending with "\n"
+     * @return true if the message was handed to the Bean
+     */
+    boolean write(String message);
+
+    /**
+     * An actuator value was written, or could not be.
+     *
+     * @param tag     The tag it was queued with
+     * @param written true if it was handed to the Bean
+     */
+    void onWritten(T tag, boolean written);
+  }
+
+  public static final long DEFAULT_PACING = 30;
+
+  public static final int CAPACITY = 64;
+
+  private final String name;
+
+  private final ServiceMetrics metrics;
+
+  private final Writer<T> writer;
+
+  private final ArrayDeque<Write<T>> actuators = new ArrayDeque<>();
+
+  private final Set<String> polls = new LinkedHashSet<>();
+
+  private long pacing = DEFAULT_PACING;
+
+  private long lastWrite;
+
+  // A drain is running or waiting on the Dispatcher
+  private boolean busy = false;
+
+  private boolean paused = false;
+
+  private final AtomicLong written = new AtomicLong();
+
+  private final AtomicLong merged = new AtomicLong();
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  private final Runnable drain = new Runnable() {
+    @Override
+    public void run() {
+      drain();
+    }
+  };
+
+  /**
+   * @param name    The name of the queue, also the Dispatcher key it writes on
+   * @param metrics Where the writes, their time and drops are counted
+   * @param writer  Writes to the Bean
+   */
+  public BeanWriteQueue(String name, ServiceMetrics metrics, Writer<T> writer) {
+    this.name = name;
+    this.metrics = metrics;
+    this.writer = writer;
+  }
+
+  /**
+   * Set the minimum time between two writes.
+   *
+   * @param pacing The time in ms, 0 to write as fast as the lane runs
+   */
+  public synchronized void setPacing(long pacing) {
+    this.pacing = Math.max(0, pacing);
+  }
+
+  public synchronized long getPacing() {
+    return pacing;
+  }
+
+  /**
+   * Queue an actuator value, it goes ahead of all polls.
+   *
+   * @param message The message
+   * @param tag     Handed back to the writer once the message is written
+   */
+  public void write(String message, T tag) {
+    Write<T> oldest = null;
+
+    synchronized (this) {
+      if (actuators.size() >= CAPACITY) {
+        oldest = actuators.poll();
+      }
+      actuators.add(new Write<>(message, tag));
+    }
+
+    if (oldest != null) {
+      dropped.incrementAndGet();
+      metrics.countDrop();
+      writer.onWritten(oldest.tag, false);
+    }
+
+    schedule();
+  }
+
+  /**
+   * Queue a poll frame, unless the same frame is still waiting.
+   *
+   * @param frame The frame
+   */
+  public void poll(String frame) {
+    synchronized (this) {
+      if (!polls.add(frame)) {
+        merged.incrementAndGet();
+        return;
+      }
+    }
+
+    schedule();
+  }
+
+  /**
+   * Stop writing, values are kept until resume().
+   */
+  public synchronized void pause() {
+    paused = true;
+  }
+
+  /**
+   * Write everything that was kept while paused.
+   */
+  public void resume() {
+    synchronized (this) {
+      paused = false;
+    }
+
+    schedule();
+  }
+
+  public synchronized boolean isPaused() {
+    return paused;
+  }
+
+  /**
+   * Forget everything that is waiting, the actuator values are reported as not written.
+   */
+  public void clear() {
+    ArrayDeque<Write<T>> forgotten;
+
+    synchronized (this) {
+      forgotten = new ArrayDeque<>(actuators);
+      actuators.clear();
+      polls.clear();
+    }
+
+    for (Write<T> write : forgotten) {
+      writer.onWritten(write.tag, false);
+    }
+  }
+
+  /**
+   * @return The number of messages waiting
+   */
+  public synchronized int getPending() {
+    return actuators.size() + polls.size();
+  }
+
+  /**
+   * @return true if nothing is waiting or being written
+   */
+  public synchronized boolean isIdle() {
+    return !busy;
+  }
+
+  /**
+   * @return The number of messages handed to the Bean
+   */
+  public long getWritten() {
+    return written.get();
+  }
+
+  /**
+   * @return The number of polls that were already waiting
+   */
+  public long getMerged() {
+    return merged.get();
+  }
+
+  /**
+   * @return The number of actuator values dropped because the queue was full
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  private void schedule() {
+    synchronized (this) {
+      if (busy || paused) {
+        return;
+      }
+      busy = true;
+    }
+
+    Dispatcher.getInstance().execute(name, drain);
+  }
+
+  private void drain() {
+    Write<T> actuator;
+    String poll = null;
+
+    synchronized (this) {
+      if (paused) {
+        busy = false;
+        return;
+      }
+
+      long wait = lastWrite + pacing - System.currentTimeMillis();
+      if (wait > 0) {
+        Dispatcher.getInstance().schedule(name, drain, wait, TimeUnit.MILLISECONDS);
+        return;
+      }
+
+      actuator = actuators.poll();
+      if (actuator == null) {
+        Iterator<String> iterator = polls.iterator();
+        if (iterator.hasNext()) {
+          poll = iterator.next();
+          iterator.remove();
+        }
+      }
+
+      if (actuator == null && poll == null) {
+        busy = false;
+        return;
+      }
+    }
+
+    boolean success = send(actuator != null ? actuator.message : poll);
+
+    synchronized (this) {
+      lastWrite = System.currentTimeMillis();
+
+      // The write failed and paused the queue, keep the value for when the link is back
+      if (!success && paused && actuator != null) {
+        actuators.addFirst(actuator);
+        actuator = null;
+      }
+    }
+
+    if (actuator != null) {
+      writer.onWritten(actuator.tag, success);
+    }
+
+    synchronized (this) {
+      if (paused || (actuators.isEmpty() && polls.isEmpty())) {
+        busy = false;
+        return;
+      }
+    }
+
+    Dispatcher.getInstance().execute(name, drain);
+  }
+
+  private boolean send(String message) {
+    long started = metrics.requestStarted();
+    try {
+      if (writer.write(message)) {
+        written.incrementAndGet();
+        return true;
+      }
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    } finally {
+      metrics.requestFinished(ServiceMetrics.RTT_BLE_WRITE, started);
+    }
+
+    metrics.countError();
+    return false;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return name + " : " + actuators.size() + " actuators and " + polls.size() + " polls pending, "
+        + written.get() + " written, " + merged.get() + " merged, " + dropped.get() + " dropped";
+  }
+
+  private static final class Write<T> {
+
+    private final String message;
+
+    private final T tag;
+
+    private Write(String message, T tag) {
+      this.message = message;
+      this.tag = tag;
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest-value-wins write stage in front of an upstream. Only the newest pending value is kept per
+ * key (code/pin), older values that were never sent are replaced. Pending values are sent either
+ * on a fixed interval, or, with no interval, one at a time whenever the previous write has
+ * completed.
+ * <p/>
+ * With no interval the owner must call done() when a write has completed or failed. A write that
+ * hasn't completed after IN_FLIGHT_TIMEOUT ms, unless set otherwise, no longer holds up the others:
+ * the next pending value is sent then, even if nothing else is submitted.
+ *
+ * @param <T> The value type
+ */
+public class Coalescer<T> {
+
+  /**
+   * Writes one value to the upstream.
+   */
+  public interface Sender<T> {
+    void send(T value);
+  }
+
+  public static final long IN_FLIGHT_TIMEOUT = 10000;
+
+  private final String name;
+
+  private final Sender<T> sender;
+
+  private final Map<String, T> pending = new LinkedHashMap<>();
+
+  private boolean inFlight = false;
+
+  private long inFlightSince;
+
+  private long inFlightTimeout = IN_FLIGHT_TIMEOUT;
+
+  private long interval = 0;
+
+  private ScheduledFuture<?> timer;
+
+  // Sends the next value when the write in flight takes too long
+  private ScheduledFuture<?> inFlightTimer;
+
+  private final AtomicLong submitted = new AtomicLong();
+
+  private final AtomicLong coalesced = new AtomicLong();
+
+  private final AtomicLong sent = new AtomicLong();
+
+  private final Runnable flushNext = new Runnable() {
+    @Override
+    public void run() {
+      flushNext();
+    }
+  };
+
+  private final Runnable flushAll = new Runnable() {
+    @Override
+    public void run() {
+      flushAll();
+    }
+  };
+
+  /**
+   * @param name   The name of the coalescer, also the Dispatcher key the values are sent on
+   * @param sender The upstream writer
+   */
+  public Coalescer(String name, Sender<T> sender) {
+    this.name = name;
+    this.sender = sender;
+  }
+
+  /**
+   * Set how often pending values are sent.
+   *
+   * @param interval The interval in ms, or 0 to send as soon as the previous write has completed
+   */
+  public synchronized void setInterval(long interval) {
+    this.interval = Math.max(0, interval);
+
+    if (timer != null) {
+      timer.cancel(false);
+      timer = null;
+    }
+
+    if (this.interval > 0) {
+      timer = Dispatcher.getInstance().scheduleAtFixedRate(name, flushAll, this.interval, TimeUnit.MILLISECONDS);
+    } else {
+      Dispatcher.getInstance().execute(name, flushNext);
+    }
+  }
+
+  /**
+   * Set how long a write may take before the next one is sent anyway.
+   *
+   * @param timeout The timeout in ms
+   */
+  public synchronized void setInFlightTimeout(long timeout) {
+    this.inFlightTimeout = timeout;
+  }
+
+  /**
+   * Queue a value for the upstream, replacing any pending value with the same key.
+   *
+   * @param key   The key, normally code/pin
+   * @param value The value
+   */
+  public void submit(String key, T value) {
+    submitted.incrementAndGet();
+
+    synchronized (this) {
+      if (pending.put(key, value) != null) {
+        coalesced.incrementAndGet();
+      }
+
+      if (interval > 0) {
+        return;
+      }
+    }
+
+    Dispatcher.getInstance().execute(name, flushNext);
+  }
+
+  /**
+   * The write that was sent last has completed, successfully or not.
+   */
+  public void done() {
+    synchronized (this) {
+      inFlight = false;
+      cancelInFlightTimer();
+    }
+
+    Dispatcher.getInstance().execute(name, flushNext);
+  }
+
+  /**
+   * Stop the timer and forget all pending values.
+   */
+  public synchronized void close() {
+    if (timer != null) {
+      timer.cancel(false);
+      timer = null;
+    }
+
+    cancelInFlightTimer();
+
+    pending.clear();
+  }
+
+  /**
+   * @return The number of values waiting to be sent
+   */
+  public synchronized int getPending() {
+    return pending.size();
+  }
+
+  /**
+   * @return The number of values submitted
+   */
+  public long getSubmitted() {
+    return submitted.get();
+  }
+
+  /**
+   * @return The number of values replaced before they were sent
+   */
+  public long getCoalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * @return The number of values sent upstream
+   */
+  public long getSent() {
+    return sent.get();
+  }
+
+  private void flushNext() {
+    T value;
+
+    synchronized (this) {
+      if (interval > 0 || pending.isEmpty()) {
+        return;
+      }
+
+      if (inFlight && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inFlightSince) < inFlightTimeout) {
+        return;
+      }
+
+      Iterator<T> iterator = pending.values().iterator();
+      value = iterator.next();
+      iterator.remove();
+
+      inFlight = true;
+      inFlightSince = System.nanoTime();
+
+      cancelInFlightTimer();
+      inFlightTimer = Dispatcher.getInstance().schedule(name, flushNext, inFlightTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    send(value);
+  }
+
+  /**
+   * Must hold the lock.
+   */
+  private void cancelInFlightTimer() {
+    if (inFlightTimer != null) {
+      inFlightTimer.cancel(false);
+      inFlightTimer = null;
+    }
+  }
+
+  private void flushAll() {
+    List<T> values;
+
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+
+      values = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+
+    for (T value : values) {
+      send(value);
+    }
+  }
+
+  private void send(T value) {
+    sent.incrementAndGet();
+
+    try {
+      sender.send(value);
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      done();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return name + " : " + pending.size() + " pending, " + submitted.get() + " submitted, "
+        + coalesced.get() + " coalesced, " + sent.get() + " sent";
+  }
+}
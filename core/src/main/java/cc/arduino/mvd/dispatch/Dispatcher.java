@@ -0,0 +1,281 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
+
+/**
+ * The dispatch stage between the bus and the services. Values are handed to a small pool of
+ * worker threads instead of the main looper, so a slow upstream only holds up its own values.
+ * <p/>
+ * Tasks are queued per key, normally target service, code and pin. Tasks with the same key run
+ * one at a time in the order they were dispatched, tasks with different keys run in parallel. A
+ * key's lane is removed as soon as it has run dry.
+ * Delayed and periodic tasks are started by the timer the Workers share.
+ */
+public class Dispatcher {
+
+  private static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  /**
+   * Max number of keys waiting for a worker. Each key only takes one slot no matter how many
+   * tasks it has queued. When it's full the key is counted as rejected and handed to the pool
+   * again after RETRY_DELAY, the dispatching thread may be the main thread so it never runs it.
+   */
+  private static final int POOL_QUEUE_CAPACITY = 512;
+
+  private static final long RETRY_DELAY = 10;
+
+  /**
+   * Max number of tasks a key runs before it gives up its worker to other keys.
+   */
+  private static final int BATCH_SIZE = 16;
+
+  private static final Dispatcher INSTANCE = new Dispatcher();
+
+  private final ThreadPoolExecutor pool;
+
+  private final ScheduledExecutorService timer;
+
+  private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+
+  private final ServiceMetrics metrics = Metrics.getInstance().get("Dispatcher");
+
+  private Dispatcher() {
+    pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(POOL_QUEUE_CAPACITY), new Workers.WorkerFactory("mvd-dispatch-"),
+        new RetryLater());
+    pool.allowCoreThreadTimeOut(true);
+
+    timer = Workers.getInstance().getTimer();
+  }
+
+  public static Dispatcher getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * The key values for a target are ordered by.
+   *
+   * @param target The target service name
+   * @param code   The component code
+   * @param pin    The pin
+   * @return The dispatch key
+   */
+  public static String key(String target, String code, String pin) {
+    return target + "/" + code + "/" + pin;
+  }
+
+  /**
+   * The key values for one Bean of a target are ordered by, so Beans bound to the same pin don't
+   * share a lane.
+   *
+   * @param target The target service name
+   * @param code   The component code
+   * @param pin    The pin
+   * @param mac    The Bean's MAC, or null if the value isn't for a Bean
+   * @return The dispatch key
+   */
+  public static String key(String target, String code, String pin, String mac) {
+    return mac != null ? key(target, code, pin) + "@" + mac : key(target, code, pin);
+  }
+
+  /**
+   * Run a task on a worker, after all tasks previously dispatched with the same key.
+   *
+   * @param key  The ordering key, see key()
+   * @param task The task
+   */
+  public void execute(String key, Runnable task) {
+    while (true) {
+      Lane lane = lanes.get(key);
+      if (lane == null) {
+        Lane created = new Lane(key);
+        lane = lanes.putIfAbsent(key, created);
+        if (lane == null) {
+          lane = created;
+        }
+      }
+
+      Boolean schedule = lane.offer(task);
+
+      // The lane ran dry and was removed in the meantime, start a new one
+      if (schedule == null) {
+        continue;
+      }
+
+      if (schedule) {
+        pool.execute(lane);
+      }
+      return;
+    }
+  }
+
+  /**
+   * Run a task on a key's lane at a fixed rate. The timer thread only hands the task over to the
+   * lane, it never runs it.
+   *
+   * @param key    The ordering key
+   * @param task   The task
+   * @param period The time between two runs
+   * @param unit   The unit of the period
+   * @return The future to cancel the task with
+   */
+  public ScheduledFuture<?> scheduleAtFixedRate(final String key, final Runnable task, long period, TimeUnit unit) {
+    return timer.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        execute(key, task);
+      }
+    }, period, period, unit);
+  }
+
+  /**
+   * Run a task on a key's lane once, after a delay.
+   *
+   * @param key   The ordering key
+   * @param task  The task
+   * @param delay The time to wait
+   * @param unit  The unit of the delay
+   * @return The future to cancel the task with
+   */
+  public ScheduledFuture<?> schedule(final String key, final Runnable task, long delay, TimeUnit unit) {
+    return timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        execute(key, task);
+      }
+    }, delay, unit);
+  }
+
+  /**
+   * @return The number of workers currently running a task
+   */
+  public int getActiveCount() {
+    return pool.getActiveCount();
+  }
+
+  /**
+   * @param key The ordering key
+   * @return true if the key has tasks queued or running
+   */
+  boolean hasLane(String key) {
+    return lanes.containsKey(key);
+  }
+
+  /**
+   * Hands a lane the full pool queue turned down back to the pool from the timer.
+   */
+  private final class RetryLater implements RejectedExecutionHandler {
+
+    @Override
+    public void rejectedExecution(final Runnable lane, ThreadPoolExecutor executor) {
+      metrics.countRejected();
+
+      if (!executor.isShutdown()) {
+        timer.schedule(new Runnable() {
+          @Override
+          public void run() {
+            pool.execute(lane);
+          }
+        }, RETRY_DELAY, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * The tasks of one key. The lane is scheduled on the pool when its first task arrives and stays
+   * scheduled until it has run dry, then it's removed.
+   */
+  private final class Lane implements Runnable {
+
+    private final String key;
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private boolean scheduled = false;
+
+    private boolean removed = false;
+
+    private Lane(String key) {
+      this.key = key;
+    }
+
+    /**
+     * @return true if the lane has to be scheduled, null if it was removed and takes no more tasks
+     */
+    private synchronized Boolean offer(Runnable task) {
+      if (removed) {
+        return null;
+      }
+
+      tasks.add(task);
+
+      if (scheduled) {
+        return false;
+      }
+
+      scheduled = true;
+      return true;
+    }
+
+    private synchronized Runnable poll() {
+      Runnable task = tasks.poll();
+
+      // Removed under the lock, so no task can be added to it once it's out of the map
+      if (task == null) {
+        scheduled = false;
+        removed = true;
+        lanes.remove(key, this);
+      }
+
+      return task;
+    }
+
+    @Override
+    public void run() {
+      for (int i = 0; i < BATCH_SIZE; i++) {
+        Runnable task = poll();
+        if (task == null) {
+          return;
+        }
+
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          // One bad value must not take the lane down with it
+          e.printStackTrace();
+        }
+      }
+
+      // Still more to do, go to the back of the pool queue to let the other keys in
+      pool.execute(this);
+    }
+  }
+}
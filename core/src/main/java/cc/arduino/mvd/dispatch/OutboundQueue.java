@@ -0,0 +1,298 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
+
+/**
+ * Bounded buffer between the producers of values (Bean polls, HTTP polls, MQTT subscriptions) and
+ * one consuming service. Items are queued per key, normally target/code/pin, and every key is
+ * drained on its own Dispatcher lane, so the per pin ordering of the Dispatcher is kept.
+ * <p/>
+ * What happens when the queue is full depends on the policy:
+ * <ul>
+ * <li>LATEST - only the newest pending item is kept per key, and the oldest item is dropped when a
+ * new key doesn't fit.</li>
+ * <li>DROP_OLDEST - the oldest pending item is dropped.</li>
+ * <li>BLOCK - the producer waits for room, at most BLOCK_TIMEOUT ms, then the new item is
+ * dropped.</li>
+ * </ul>
+ *
+ * @param <T> The item type
+ */
+public class OutboundQueue<T> {
+
+  public enum Policy {
+    LATEST,
+    DROP_OLDEST,
+    BLOCK
+  }
+
+  /**
+   * Receives the items of the queue, one at a time per key.
+   */
+  public interface Sink<T> {
+    void deliver(T item);
+  }
+
+  public static final Policy DEFAULT_POLICY = Policy.DROP_OLDEST;
+
+  public static final int DEFAULT_CAPACITY = 64;
+
+  /**
+   * Max time a producer is blocked with the BLOCK policy. Producers may be on the main thread, so
+   * this is kept well below the ANR limit.
+   */
+  public static final long BLOCK_TIMEOUT = 500;
+
+  private final String name;
+
+  private final Sink<T> sink;
+
+  private Policy policy = DEFAULT_POLICY;
+
+  private int capacity = DEFAULT_CAPACITY;
+
+  private final Map<String, ArrayDeque<T>> pending = new HashMap<>();
+
+  /**
+   * The key of every pending item, oldest first. Used to find the oldest item to drop.
+   */
+  private final ArrayDeque<String> order = new ArrayDeque<>();
+
+  /**
+   * The keys that have a drain task on the Dispatcher.
+   */
+  private final Set<String> scheduled = new HashSet<>();
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  private final AtomicLong delivered = new AtomicLong();
+
+  private final ServiceMetrics metrics;
+
+  public OutboundQueue(String name, Sink<T> sink) {
+    this.name = name;
+    this.sink = sink;
+    this.metrics = Metrics.getInstance().get(name);
+  }
+
+  /**
+   * Change the policy and capacity. Items above the new capacity are dropped, oldest first.
+   *
+   * @param policy   The policy
+   * @param capacity The max number of pending items, at least 1
+   */
+  public synchronized void configure(Policy policy, int capacity) {
+    this.policy = policy;
+    this.capacity = Math.max(1, capacity);
+
+    while (order.size() > this.capacity) {
+      dropOldest();
+    }
+
+    notifyAll();
+  }
+
+  /**
+   * Queue an item for delivery.
+   *
+   * @param key  The ordering key, see Dispatcher.key()
+   * @param item The item
+   * @return false if the item was dropped
+   */
+  public boolean offer(String key, T item) {
+    synchronized (this) {
+      ArrayDeque<T> items = pending.get(key);
+
+      // Latest value wins, replace the pending item in place
+      if (policy == Policy.LATEST && items != null && !items.isEmpty()) {
+        items.pollLast();
+        items.addLast(item);
+        drop();
+        return true;
+      }
+
+      if (order.size() >= capacity) {
+        if (policy == Policy.BLOCK) {
+          if (!awaitRoom()) {
+            drop();
+            return false;
+          }
+
+          // Waiting released the lock, the key may have been drained in the meantime
+          items = pending.get(key);
+        } else {
+          dropOldest();
+        }
+      }
+
+      if (items == null) {
+        items = new ArrayDeque<>();
+        pending.put(key, items);
+      }
+      items.addLast(item);
+      order.addLast(key);
+
+      if (!scheduled.add(key)) {
+        return true;
+      }
+    }
+
+    Dispatcher.getInstance().execute(key, new Drain(key));
+    return true;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public synchronized Policy getPolicy() {
+    return policy;
+  }
+
+  public synchronized int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return The number of items waiting to be delivered
+   */
+  public synchronized int getDepth() {
+    return order.size();
+  }
+
+  /**
+   * @return The number of items dropped or replaced since the queue was created
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * @return The number of items delivered since the queue was created
+   */
+  public long getDelivered() {
+    return delivered.get();
+  }
+
+  /**
+   * Wait until there is room for one more item, or BLOCK_TIMEOUT has passed. Must hold the lock.
+   *
+   * @return false if the queue is still full
+   */
+  private boolean awaitRoom() {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BLOCK_TIMEOUT);
+
+    while (order.size() >= capacity) {
+      long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remaining <= 0) {
+        return false;
+      }
+
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private void drop() {
+    dropped.incrementAndGet();
+    metrics.countDrop();
+  }
+
+  /**
+   * Drop the oldest pending item. Must hold the lock.
+   */
+  private void dropOldest() {
+    String key = order.pollFirst();
+    if (key == null) {
+      return;
+    }
+
+    // Items of one key are in order, so the oldest item overall is the first of its key
+    pending.get(key).pollFirst();
+    drop();
+  }
+
+  /**
+   * Take the next item of a key, or unschedule the key when there is none.
+   */
+  private synchronized T poll(String key) {
+    ArrayDeque<T> items = pending.get(key);
+    T item = items != null ? items.pollFirst() : null;
+
+    if (item == null) {
+      pending.remove(key);
+      scheduled.remove(key);
+      return null;
+    }
+
+    order.removeFirstOccurrence(key);
+    notifyAll();
+
+    return item;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return name + " : " + policy + ", " + order.size() + "/" + capacity + " pending, "
+        + delivered.get() + " delivered, " + dropped.get() + " dropped";
+  }
+
+  /**
+   * Delivers one item of a key, then queues itself again on the key's lane for the next. Going back
+   * to the lane between items lets the Dispatcher share the workers with other keys.
+   */
+  private final class Drain implements Runnable {
+
+    private final String key;
+
+    private Drain(String key) {
+      this.key = key;
+    }
+
+    @Override
+    public void run() {
+      T item = poll(key);
+      if (item == null) {
+        return;
+      }
+
+      try {
+        sink.deliver(item);
+        delivered.incrementAndGet();
+      } finally {
+        Dispatcher.getInstance().execute(key, this);
+      }
+    }
+  }
+}
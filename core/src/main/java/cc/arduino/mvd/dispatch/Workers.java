@@ -0,0 +1,285 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
+
+/**
+ * The threads all services share, instead of pools and threads of their own. Blocking work runs on
+ * a few named pools sized to the device's cores, periodic work is started by a single timer thread
+ * that only hands it over to a pool. Idle workers time out, so a quiet gateway holds no threads
+ * but the timer.
+ * <p/>
+ * Every task is counted in the metrics of the service that submitted it: the tasks run, the ones
+ * running, the ones a full pool turned away and the time they kept a worker busy.
+ */
+public class Workers {
+
+  /**
+   * Short blocking work, like an HTTP request, a Binocular fetch or a poll round.
+   */
+  public static final String IO = "io";
+
+  /**
+   * Work that blocks for as long as a connection is up, like reading a WebSocket. Nothing waits in
+   * this pool, a task that finds no free thread is rejected right away.
+   */
+  public static final String CONNECTIONS = "connections";
+
+  static final int CORES = Runtime.getRuntime().availableProcessors();
+
+  private static final int IO_THREADS = Math.max(2, Math.min(8, CORES * 2));
+
+  private static final int IO_CAPACITY = 256;
+
+  private static final int CONNECTION_THREADS = 8;
+
+  /**
+   * How long an idle worker is kept, in seconds.
+   */
+  private static final long KEEP_ALIVE = 30;
+
+  private static final Workers INSTANCE = new Workers(Metrics.getInstance());
+
+  private final Metrics metrics;
+
+  private final Map<String, ThreadPoolExecutor> pools = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new WorkerFactory("mvd-timer-"));
+
+  /**
+   * Create workers of their own, the app uses the shared ones from getInstance().
+   *
+   * @param metrics Where the tasks are counted
+   */
+  public Workers(Metrics metrics) {
+    this.metrics = metrics;
+
+    addPool(IO, IO_THREADS, IO_CAPACITY);
+    addPool(CONNECTIONS, CONNECTION_THREADS, 0);
+  }
+
+  public static Workers getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Add a named pool.
+   *
+   * @param name     The name, also the prefix of its threads
+   * @param threads  The most threads it runs
+   * @param capacity The most tasks waiting for a thread, more are rejected. With 0 a task is only
+   *                 taken if a thread is free, for tasks that block for good once started.
+   */
+  public void addPool(String name, int threads, int capacity) {
+    BlockingQueue<Runnable> queue = capacity > 0
+        ? new LinkedBlockingQueue<Runnable>(capacity) : new SynchronousQueue<Runnable>();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+        queue, new WorkerFactory("mvd-" + name + "-"));
+    pool.allowCoreThreadTimeOut(true);
+
+    ThreadPoolExecutor previous = pools.put(name, pool);
+    if (previous != null) {
+      previous.shutdown();
+    }
+  }
+
+  /**
+   * Run a task on a pool.
+   *
+   * @param pool    The pool name, like IO
+   * @param service The service the task is counted for
+   * @param task    The task
+   * @return False if the pool was full and the task was rejected
+   */
+  public boolean execute(String pool, String service, Runnable task) {
+    ServiceMetrics serviceMetrics = metrics.get(service);
+
+    try {
+      get(pool).execute(new Task(serviceMetrics, task));
+      return true;
+    } catch (RejectedExecutionException e) {
+      serviceMetrics.countRejected();
+      return false;
+    }
+  }
+
+  /**
+   * Run a task on a pool at a fixed rate. A run that is due while the previous one is still going
+   * is skipped, so a slow upstream doesn't pile up runs.
+   *
+   * @param pool         The pool name, like IO
+   * @param service      The service the task is counted for
+   * @param task         The task
+   * @param initialDelay The time before the first run
+   * @param period       The time between two runs
+   * @param unit         The unit of the delay and period
+   * @return The future to cancel the task with
+   */
+  public ScheduledFuture<?> scheduleAtFixedRate(final String pool, final String service, final Runnable task,
+                                                long initialDelay, long period, TimeUnit unit) {
+    final AtomicBoolean pending = new AtomicBoolean();
+
+    final Runnable run = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } finally {
+          pending.set(false);
+        }
+      }
+    };
+
+    return timer.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        if (pending.compareAndSet(false, true) && !execute(pool, service, run)) {
+          pending.set(false);
+        }
+      }
+    }, initialDelay, period, unit);
+  }
+
+  /**
+   * Run a task on a pool once, after a delay.
+   *
+   * @param pool    The pool name, like IO
+   * @param service The service the task is counted for
+   * @param task    The task
+   * @param delay   The time to wait
+   * @param unit    The unit of the delay
+   * @return The future to cancel the task with
+   */
+  public ScheduledFuture<?> schedule(final String pool, final String service, final Runnable task, long delay, TimeUnit unit) {
+    return timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        execute(pool, service, task);
+      }
+    }, delay, unit);
+  }
+
+  /**
+   * @return The number of threads of a pool running a task
+   */
+  public int getActiveCount(String pool) {
+    return get(pool).getActiveCount();
+  }
+
+  /**
+   * @return The number of tasks waiting for a thread of a pool
+   */
+  public int getQueued(String pool) {
+    return get(pool).getQueue().size();
+  }
+
+  /**
+   * @return A line per pool with its threads and waiting tasks, sorted by name
+   */
+  public List<String> dump() {
+    List<String> names = new ArrayList<>(pools.keySet());
+    Collections.sort(names);
+
+    List<String> lines = new ArrayList<>();
+    for (String name : names) {
+      ThreadPoolExecutor pool = pools.get(name);
+      lines.add(name + " : threads=" + pool.getPoolSize() + "/" + pool.getMaximumPoolSize()
+          + ", active=" + pool.getActiveCount() + ", queued=" + pool.getQueue().size()
+          + ", completed=" + pool.getCompletedTaskCount());
+    }
+    return lines;
+  }
+
+  /**
+   * The timer that starts all periodic work, its tasks must only hand work over.
+   */
+  ScheduledExecutorService getTimer() {
+    return timer;
+  }
+
+  private ThreadPoolExecutor get(String pool) {
+    ThreadPoolExecutor executor = pools.get(pool);
+    if (executor == null) {
+      throw new IllegalArgumentException("No pool named " + pool);
+    }
+    return executor;
+  }
+
+  private static final class Task implements Runnable {
+
+    private final ServiceMetrics metrics;
+
+    private final Runnable task;
+
+    private Task(ServiceMetrics metrics, Runnable task) {
+      this.metrics = metrics;
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      long started = metrics.taskStarted();
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        // One bad task must not take the worker down with it
+        e.printStackTrace();
+        metrics.countError();
+      } finally {
+        metrics.taskFinished(started);
+      }
+    }
+  }
+
+  static final class WorkerFactory implements ThreadFactory {
+
+    private final String prefix;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    WorkerFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
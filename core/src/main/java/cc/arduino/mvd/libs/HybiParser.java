@@ -30,16 +30,34 @@
 
 package cc.arduino.mvd.libs;
 
-import android.util.Log;
-
 import java.io.*;
 import java.util.Arrays;
 import java.util.List;
 
 public class HybiParser {
-  private static final String TAG = "HybiParser";
 
-  private WebSocketClient mClient;
+  /**
+   * What the parser needs from the connection, so it does not depend on the Android socket code.
+   */
+  public interface Client {
+    void onMessage(String message);
+
+    void onMessage(byte[] data);
+
+    void onDisconnect(int code, String reason);
+
+    /**
+     * Frame and send data.
+     */
+    void send(byte[] data);
+
+    /**
+     * Send a frame as is.
+     */
+    void sendFrame(byte[] frame);
+  }
+
+  private Client mClient;
 
   private boolean mMasking = true;
 
@@ -91,11 +109,11 @@ public class HybiParser {
       OP_CONTINUATION, OP_TEXT, OP_BINARY
   );
 
-  public HybiParser(WebSocketClient client) {
+  public HybiParser(Client client) {
     mClient = client;
   }
 
-  private static byte[] mask(byte[] payload, byte[] mask, int offset) {
+  static byte[] mask(byte[] payload, byte[] mask, int offset) {
     if (mask.length == 0) return payload;
 
     for (int i = 0; i < payload.length - offset; i++) {
@@ -128,7 +146,7 @@ public class HybiParser {
           break;
       }
     }
-    mClient.getListener().onDisconnect(0, "EOF");
+    mClient.onDisconnect(0, "EOF");
   }
 
   private void parseOpcode(byte data) throws ProtocolError {
@@ -192,8 +210,6 @@ public class HybiParser {
   private byte[] frame(Object data, int opcode, int errorCode) {
     if (mClosed) return null;
 
-    Log.d(TAG, "Creating frame for: " + data + " op: " + opcode + " err: " + errorCode);
-
     byte[] buffer = (data instanceof String) ? decode((String) data) : (byte[]) data;
     int insert = (errorCode > 0) ? 2 : 0;
     int length = buffer.length + insert;
@@ -262,9 +278,9 @@ public class HybiParser {
       if (mFinal) {
         byte[] message = mBuffer.toByteArray();
         if (mMode == MODE_TEXT) {
-          mClient.getListener().onMessage(encode(message));
+          mClient.onMessage(encode(message));
         } else {
-          mClient.getListener().onMessage(message);
+          mClient.onMessage(message);
         }
         reset();
       }
@@ -272,7 +288,7 @@ public class HybiParser {
     } else if (opcode == OP_TEXT) {
       if (mFinal) {
         String messageText = encode(payload);
-        mClient.getListener().onMessage(messageText);
+        mClient.onMessage(messageText);
       } else {
         mMode = MODE_TEXT;
         mBuffer.write(payload);
@@ -280,7 +296,7 @@ public class HybiParser {
 
     } else if (opcode == OP_BINARY) {
       if (mFinal) {
-        mClient.getListener().onMessage(payload);
+        mClient.onMessage(payload);
       } else {
         mMode = MODE_BINARY;
         mBuffer.write(payload);
@@ -289,20 +305,16 @@ public class HybiParser {
     } else if (opcode == OP_CLOSE) {
       int code = (payload.length >= 2) ? 256 * payload[0] + payload[1] : 0;
       String reason = (payload.length > 2) ? encode(slice(payload, 2)) : null;
-      Log.d(TAG, "Got close op! " + code + " " + reason);
-      mClient.getListener().onDisconnect(code, reason);
+      mClient.onDisconnect(code, reason);
 
     } else if (opcode == OP_PING) {
       if (payload.length > 125) {
         throw new ProtocolError("Ping payload too large");
       }
-      Log.d(TAG, "Sending pong!!");
       mClient.sendFrame(frame(payload, OP_PONG, -1));
 
     } else if (opcode == OP_PONG) {
-      String message = encode(payload);
       // FIXME: Fire callback...
-      Log.d(TAG, "Got pong! " + message);
     }
   }
 
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * All services' metrics, by service name.
+ */
+public class Metrics {
+
+  private static final Metrics INSTANCE = new Metrics();
+
+  private final ConcurrentHashMap<String, ServiceMetrics> services = new ConcurrentHashMap<>();
+
+  public Metrics() {
+  }
+
+  public static Metrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Get the metrics of a service, they're created on first use.
+   *
+   * @param service The service name
+   * @return The metrics
+   */
+  public ServiceMetrics get(String service) {
+    ServiceMetrics metrics = services.get(service);
+    if (metrics == null) {
+      ServiceMetrics created = new ServiceMetrics(service);
+      metrics = services.putIfAbsent(service, created);
+      if (metrics == null) {
+        metrics = created;
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * The metrics of all services, sorted by service.
+   *
+   * @return The lines
+   */
+  public List<String> dump() {
+    List<String> names = new ArrayList<>(services.keySet());
+    Collections.sort(names);
+
+    List<String> lines = new ArrayList<>();
+    for (String name : names) {
+      lines.addAll(services.get(name).dump());
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import cc.arduino.mvd.dispatch.Dispatcher;
+
+/**
+ * Writes the metrics to a file, on demand or on a fixed interval. The file is replaced as a whole,
+ * so a reader never sees half an export.
+ */
+public class MetricsExporter {
+
+  private static final String LANE = "metrics";
+
+  private final Metrics metrics;
+
+  private final File file;
+
+  private ScheduledFuture<?> task;
+
+  private final Runnable exportTask = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        export();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  };
+
+  public MetricsExporter(Metrics metrics, File file) {
+    this.metrics = metrics;
+    this.file = file;
+  }
+
+  /**
+   * Export every period, on the Dispatcher. Replaces an earlier schedule.
+   *
+   * @param period The period in ms
+   */
+  public synchronized void start(long period) {
+    stop();
+
+    task = Dispatcher.getInstance().scheduleAtFixedRate(LANE, exportTask, period, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    if (task != null) {
+      task.cancel(false);
+      task = null;
+    }
+  }
+
+  /**
+   * Write the metrics soon, on the Dispatcher, without blocking the caller.
+   */
+  public void exportLater() {
+    Dispatcher.getInstance().execute(LANE, exportTask);
+  }
+
+  /**
+   * Write the metrics now.
+   *
+   * @throws IOException
+   */
+  public synchronized void export() throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+
+    Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+    try {
+      writer.write("# " + new Date() + "\n");
+      for (String line : metrics.dump()) {
+        writer.write(line);
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+
+    if (!temp.renameTo(file)) {
+      throw new IOException("Could not replace " + file);
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+}
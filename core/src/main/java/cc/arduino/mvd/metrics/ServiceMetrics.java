@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cc.arduino.mvd.trace.LatencyHistogram;
+
+/**
+ * The counters and upstream round trip histograms of one service. Everything is an atomic, so
+ * services count from whatever thread their callbacks arrive on.
+ */
+public final class ServiceMetrics {
+
+  public static final String RTT_HTTP = "http";
+
+  public static final String RTT_FETCHER = "fetcher";
+
+  public static final String RTT_MQTT_PUBLISH = "mqtt.publish";
+
+  public static final String RTT_BLE_WRITE = "ble.write";
+
+  private final String service;
+
+  private final AtomicLong in = new AtomicLong();
+
+  private final AtomicLong out = new AtomicLong();
+
+  private final AtomicLong dedup = new AtomicLong();
+
+  private final AtomicLong drops = new AtomicLong();
+
+  private final AtomicLong errors = new AtomicLong();
+
+  private final AtomicLong reconnects = new AtomicLong();
+
+  private final AtomicLong inFlight = new AtomicLong();
+
+  private final AtomicLong tasks = new AtomicLong();
+
+  private final AtomicLong running = new AtomicLong();
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  private final AtomicLong busy = new AtomicLong();
+
+  private final ConcurrentHashMap<String, LatencyHistogram> rtts = new ConcurrentHashMap<>();
+
+  ServiceMetrics(String service) {
+    this.service = service;
+  }
+
+  /**
+   * A value was read from the upstream.
+   */
+  public void countIn() {
+    in.incrementAndGet();
+  }
+
+  /**
+   * A value was written to the upstream.
+   */
+  public void countOut() {
+    out.incrementAndGet();
+  }
+
+  /**
+   * A value read from the upstream was the same as the last one and was not passed on.
+   */
+  public void countDedup() {
+    dedup.incrementAndGet();
+  }
+
+  /**
+   * A value was dropped before it was delivered.
+   */
+  public void countDrop() {
+    drops.incrementAndGet();
+  }
+
+  public void countError() {
+    errors.incrementAndGet();
+  }
+
+  public void countReconnect() {
+    reconnects.incrementAndGet();
+  }
+
+  /**
+   * A request to the upstream was sent. Pass the result to requestFinished() once it's answered.
+   *
+   * @return The start time
+   */
+  public long requestStarted() {
+    inFlight.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  /**
+   * A request to the upstream was answered, or has failed.
+   *
+   * @param rtt     The histogram to record the round trip in, like RTT_HTTP
+   * @param started What requestStarted() returned
+   */
+  public void requestFinished(String rtt, long started) {
+    inFlight.decrementAndGet();
+    getRtt(rtt).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+  }
+
+  /**
+   * A task of the service started on a shared worker. Pass the result to taskFinished().
+   *
+   * @return The start time
+   */
+  public long taskStarted() {
+    running.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  /**
+   * A task of the service has finished, or has thrown.
+   *
+   * @param started What taskStarted() returned
+   */
+  public void taskFinished(long started) {
+    running.decrementAndGet();
+    tasks.incrementAndGet();
+    busy.addAndGet(System.nanoTime() - started);
+  }
+
+  /**
+   * A task of the service was turned away because its pool was full.
+   */
+  public void countRejected() {
+    rejected.incrementAndGet();
+  }
+
+  public String getService() {
+    return service;
+  }
+
+  public long getIn() {
+    return in.get();
+  }
+
+  public long getOut() {
+    return out.get();
+  }
+
+  public long getDedup() {
+    return dedup.get();
+  }
+
+  public long getDrops() {
+    return drops.get();
+  }
+
+  public long getErrors() {
+    return errors.get();
+  }
+
+  public long getReconnects() {
+    return reconnects.get();
+  }
+
+  public long getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @return The number of tasks the service has run on the shared workers
+   */
+  public long getTasks() {
+    return tasks.get();
+  }
+
+  /**
+   * @return The number of tasks of the service running right now
+   */
+  public long getRunning() {
+    return running.get();
+  }
+
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * @return The time the service's tasks have kept workers busy, in ms
+   */
+  public long getBusy() {
+    return TimeUnit.NANOSECONDS.toMillis(busy.get());
+  }
+
+  /**
+   * Get a round trip histogram, it's created on first use.
+   *
+   * @param name The name, like RTT_HTTP
+   * @return The histogram
+   */
+  public LatencyHistogram getRtt(String name) {
+    LatencyHistogram histogram = rtts.get(name);
+    if (histogram == null) {
+      LatencyHistogram created = new LatencyHistogram();
+      histogram = rtts.putIfAbsent(name, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * @return The counters on one line, followed by a line per round trip histogram
+   */
+  List<String> dump() {
+    List<String> lines = new ArrayList<>();
+    lines.add(service + " : " + toString());
+
+    List<String> names = new ArrayList<>(rtts.keySet());
+    Collections.sort(names);
+    for (String name : names) {
+      lines.add(service + " rtt." + name + " : " + rtts.get(name));
+    }
+    return lines;
+  }
+
+  @Override
+  public String toString() {
+    return "in=" + in.get() + ", out=" + out.get() + ", dedup=" + dedup.get() + ", drops=" + drops.get()
+        + ", errors=" + errors.get() + ", reconnects=" + reconnects.get() + ", in_flight=" + inFlight.get()
+        + ", tasks=" + tasks.get() + ", running=" + running.get() + ", rejected=" + rejected.get() + ", busy_ms=" + getBusy();
+  }
+}
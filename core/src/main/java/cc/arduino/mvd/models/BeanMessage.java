@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+/**
+ * The serial messages a Bean sends, "code/pin/value".
+ */
+public final class BeanMessage {
+
+  private BeanMessage() {
+  }
+
+  /**
+   * Parse a message from a Bean.
+   *
+   * @param msg The message
+   * @return The value, or null if the message is not "code/pin/value"
+   */
+  public static CodePinValue parse(String msg) {
+    String[] parts = msg.split("/");
+
+    if (parts.length == 3) {
+      return new CodePinValue(parts[0], parts[1], parts[2]);
+    }
+
+    return null;
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import java.nio.charset.Charset;
+
+/**
+ * Reads the serial stream of one Bean. A BLE notification may hold part of a message, or several,
+ * so bytes are collected until a "\n" ends the line, which is then parsed as "code/pin/value". A
+ * "\r" before the "\n" is ignored. Sketches speaking BeanPoll.VERSION_2 may also answer several
+ * values in one line, separated by ";".
+ * <p/>
+ * The code, pin and value Strings are cached, Beans repeat the same ones on every poll, so a line
+ * that was seen before costs no allocation other than the CodePinValue. Not thread safe, use one
+ * parser per Bean and feed it from that Bean's callback.
+ */
+public final class BeanMessageParser {
+
+  public interface Listener {
+    void onValue(CodePinValue codePinValue);
+
+    /**
+     * A message that is not "code/pin/value", or longer than MAX_LINE, was dropped.
+     */
+    void onInvalid();
+  }
+
+  /**
+   * The longest line kept, longer lines are dropped up to the next "\n".
+   */
+  public static final int MAX_LINE = 256;
+
+  private static final byte SEPARATOR = '/';
+
+  private static final byte NEWLINE = '\n';
+
+  private static final byte RETURN = '\r';
+
+  private final Listener listener;
+
+  private final boolean batched;
+
+  private final byte[] line = new byte[MAX_LINE];
+
+  private int length;
+
+  // Set while skipping the rest of a line that didn't fit
+  private boolean overflow;
+
+  private final StringCache strings = new StringCache();
+
+  private long messages;
+
+  private long invalid;
+
+  public BeanMessageParser(Listener listener) {
+    this(BeanPoll.VERSION_1, listener);
+  }
+
+  /**
+   * @param version  The protocol version the sketch speaks, see BeanPoll
+   * @param listener Gets the parsed values
+   */
+  public BeanMessageParser(int version, Listener listener) {
+    this.listener = listener;
+    this.batched = version >= BeanPoll.VERSION_2;
+  }
+
+  public void feed(byte[] bytes) {
+    feed(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Add bytes from the Bean, every line they complete is parsed and handed to the listener.
+   *
+   * @param bytes  The bytes
+   * @param offset Where to start
+   * @param count  How many bytes to read
+   */
+  public void feed(byte[] bytes, int offset, int count) {
+    int end = offset + count;
+
+    for (int i = offset; i < end; i++) {
+      byte b = bytes[i];
+
+      if (b == NEWLINE || (batched && b == BeanPoll.BATCH_SEPARATOR)) {
+        if (overflow) {
+          overflow = false;
+        } else {
+          parseLine();
+        }
+        length = 0;
+      } else if (!overflow) {
+        if (length == MAX_LINE) {
+          overflow = true;
+          invalid++;
+          listener.onInvalid();
+        } else {
+          line[length++] = b;
+        }
+      }
+    }
+  }
+
+  /**
+   * Forget a partial line, like when the Bean disconnects.
+   */
+  public void reset() {
+    length = 0;
+    overflow = false;
+  }
+
+  /**
+   * @return The number of bytes waiting for a "\n"
+   */
+  public int getPending() {
+    return length;
+  }
+
+  public long getMessages() {
+    return messages;
+  }
+
+  public long getInvalid() {
+    return invalid;
+  }
+
+  private void parseLine() {
+    int end = length;
+    if (end > 0 && line[end - 1] == RETURN) {
+      end--;
+    }
+
+    // Empty lines are just line endings, not messages
+    if (end == 0) {
+      return;
+    }
+
+    int first = -1;
+    int second = -1;
+    for (int i = 0; i < end; i++) {
+      if (line[i] == SEPARATOR) {
+        if (first < 0) {
+          first = i;
+        } else if (second < 0) {
+          second = i;
+        } else {
+          second = -1;
+          break;
+        }
+      }
+    }
+
+    // Exactly two separators, and no empty parts
+    if (first <= 0 || second < 0 || second == first + 1 || second == end - 1) {
+      invalid++;
+      listener.onInvalid();
+      return;
+    }
+
+    String code = strings.get(line, 0, first);
+    String pin = strings.get(line, first + 1, second - first - 1);
+    String value = strings.get(line, second + 1, end - second - 1);
+
+    messages++;
+    listener.onValue(new CodePinValue(code, pin, value));
+  }
+
+  /**
+   * A small direct mapped cache from bytes to Strings. A miss replaces whatever was in the slot.
+   */
+  private static final class StringCache {
+
+    private static final int SIZE = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[][] keys = new byte[SIZE][];
+
+    private final String[] values = new String[SIZE];
+
+    private String get(byte[] bytes, int offset, int length) {
+      int hash = 1;
+      for (int i = offset; i < offset + length; i++) {
+        hash = 31 * hash + bytes[i];
+      }
+      int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+
+      byte[] key = keys[slot];
+      if (key != null && equals(key, bytes, offset, length)) {
+        return values[slot];
+      }
+
+      key = new byte[length];
+      System.arraycopy(bytes, offset, key, 0, length);
+      String value = new String(bytes, offset, length, UTF_8);
+
+      keys[slot] = key;
+      values[slot] = value;
+
+      return value;
+    }
+
+    private static boolean equals(byte[] key, byte[] bytes, int offset, int length) {
+      if (key.length != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (key[i] != bytes[offset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
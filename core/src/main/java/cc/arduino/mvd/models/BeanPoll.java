@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the poll frames that ask a Bean for its values. Sketches speaking VERSION_1 get one
+ * "code/pin\n" per pin, sketches speaking VERSION_2 get all pins in one "code/pin;code/pin\n" frame
+ * and reply with "code/pin/value;code/pin/value\n". A frame never grows beyond MAX_FRAME, the
+ * size of the Bean's serial buffer, longer polls are split over several frames.
+ */
+public final class BeanPoll {
+
+  /**
+   * One pin per frame, what all older sketches speak.
+   */
+  public static final int VERSION_1 = 1;
+
+  /**
+   * Several pins per frame, separated by ";".
+   */
+  public static final int VERSION_2 = 2;
+
+  public static final int MAX_FRAME = 64;
+
+  static final char BATCH_SEPARATOR = ';';
+
+  private final int version;
+
+  private final List<String> frames = new ArrayList<>();
+
+  private final StringBuilder frame = new StringBuilder(MAX_FRAME);
+
+  private final Set<String> added = new HashSet<>();
+
+  public BeanPoll(int version) {
+    this.version = version;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * Add a pin to poll, a pin that is bound to several services is only polled once.
+   *
+   * @param code The component code
+   * @param pin  The pin
+   * @return This poll
+   */
+  public BeanPoll add(String code, String pin) {
+    if (!added.add(code + "/" + pin)) {
+      return this;
+    }
+
+    int length = code.length() + 1 + pin.length();
+
+    // Close the current frame if this pin doesn't fit, counting the separator and the newline
+    if (frame.length() > 0 && (version < VERSION_2 || frame.length() + 1 + length + 1 > MAX_FRAME)) {
+      flush();
+    }
+
+    if (frame.length() > 0) {
+      frame.append(BATCH_SEPARATOR);
+    }
+    frame.append(code).append('/').append(pin);
+
+    return this;
+  }
+
+  /**
+   * @return The frames to write, in order, each ending with "\n"
+   */
+  public List<String> build() {
+    if (frame.length() > 0) {
+      flush();
+    }
+    return Collections.unmodifiableList(new ArrayList<>(frames));
+  }
+
+  private void flush() {
+    frames.add(frame.append('\n').toString());
+    frame.setLength(0);
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import java.nio.charset.Charset;
+
+/**
+ * The Bean's scratch banks, five characteristics of up to 20 bytes that a sketch can write to with
+ * Bean.setScratchData() and that are pushed to us as soon as they change. MVD expects the value as
+ * text, like "23.5", the code and pin come from the binding of the bank.
+ */
+public final class BeanScratch {
+
+  public static final int FIRST_BANK = 1;
+
+  public static final int LAST_BANK = 5;
+
+  public static final int MAX_LENGTH = 20;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private BeanScratch() {
+  }
+
+  public static boolean isBank(int bank) {
+    return bank >= FIRST_BANK && bank <= LAST_BANK;
+  }
+
+  /**
+   * Read the value in a scratch bank. It ends at the first "\0", "\r" or "\n", since sketches
+   * often write a whole C string or a println.
+   *
+   * @param bytes The bank's content
+   * @return The value, or null if it is empty
+   */
+  public static String decode(byte[] bytes) {
+    if (bytes == null) {
+      return null;
+    }
+
+    int end = 0;
+    while (end < bytes.length && bytes[end] != 0 && bytes[end] != '\r' && bytes[end] != '\n') {
+      end++;
+    }
+
+    String value = new String(bytes, 0, end, UTF_8).trim();
+    return value.isEmpty() ? null : value;
+  }
+}
@@ -16,12 +16,12 @@
 
 package cc.arduino.mvd.models;
 
-import java.io.Serializable;
+import cc.arduino.mvd.trace.Trace;
 
 /**
  * @author Andreas Goransson, 2015-04-05
  */
-public class CodePinValue implements Serializable {
+public class CodePinValue {
 
   private String code;
 
@@ -29,6 +29,8 @@ public class CodePinValue implements Serializable {
 
   private String value;
 
+  private Trace trace;
+
   public CodePinValue(String code, String pin, String value) {
     this.code = code;
     this.pin = pin;
@@ -59,8 +61,33 @@ public class CodePinValue implements Serializable {
     this.value = value;
   }
 
+  /**
+   * @return The path of this value through the MVD, or null. Not part of the value, it's not
+   * compared or encoded.
+   */
+  public Trace getTrace() {
+    return trace;
+  }
+
+  public void setTrace(Trace trace) {
+    this.trace = trace;
+  }
+
   public boolean equals(CodePinValue codePinValue) {
-    return (codePinValue.getPin().equals(code) && codePinValue.getPin().equals(pin) && codePinValue.getValue().equals(value));
+    return (codePinValue.getCode().equals(code) && codePinValue.getPin().equals(pin) && codePinValue.getValue().equals(value));
+  }
+
+  /**
+   * The compact binary form of this value, see CodePinValueCodec.
+   *
+   * @return The encoded bytes
+   */
+  public byte[] toBytes() {
+    return CodePinValueCodec.encode(this);
+  }
+
+  public static CodePinValue fromBytes(byte[] bytes) {
+    return CodePinValueCodec.decode(bytes);
   }
 
   @Override
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Compact, versioned binary form of a CodePinValue. Used wherever a value has to be stored or sent
+ * as bytes, instead of java.io serialization.
+ * <p/>
+ * Layout (version 1):
+ * <pre>
+ * [version:1][code length:2][code:n][pin length:2][pin:n][value length:2][value:n]
+ * </pre>
+ * Lengths are unsigned, big endian byte counts of the UTF-8 encoded string that follows. A length
+ * of 0xFFFF means the string is null.
+ */
+public final class CodePinValueCodec {
+
+  public static final byte VERSION = 1;
+
+  private static final int NULL_LENGTH = 0xFFFF;
+
+  private static final int MAX_LENGTH = 0xFFFE;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private CodePinValueCodec() {
+  }
+
+  /**
+   * The number of bytes the encoded value will take.
+   *
+   * @param codePinValue The value
+   * @return The size in bytes
+   */
+  public static int encodedLength(CodePinValue codePinValue) {
+    return 1 + 6
+        + utf8Length(codePinValue.getCode())
+        + utf8Length(codePinValue.getPin())
+        + utf8Length(codePinValue.getValue());
+  }
+
+  /**
+   * Encode a value into a new byte array.
+   *
+   * @param codePinValue The value
+   * @return The encoded bytes
+   */
+  public static byte[] encode(CodePinValue codePinValue) {
+    ByteBuffer buffer = ByteBuffer.allocate(encodedLength(codePinValue));
+    encode(codePinValue, buffer);
+    return buffer.array();
+  }
+
+  /**
+   * Encode a value into an existing buffer, starting at its current position.
+   *
+   * @param codePinValue The value
+   * @param buffer       The buffer, needs at least encodedLength() bytes remaining
+   */
+  public static void encode(CodePinValue codePinValue, ByteBuffer buffer) {
+    buffer.put(VERSION);
+    putString(buffer, codePinValue.getCode());
+    putString(buffer, codePinValue.getPin());
+    putString(buffer, codePinValue.getValue());
+  }
+
+  /**
+   * Decode a value from a byte array.
+   *
+   * @param bytes The encoded bytes
+   * @return The value
+   * @throws IllegalArgumentException if the bytes are not a valid encoded value
+   */
+  public static CodePinValue decode(byte[] bytes) {
+    return decode(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Decode a value from a buffer, starting at its current position.
+   *
+   * @param buffer The buffer
+   * @return The value
+   * @throws IllegalArgumentException if the bytes are not a valid encoded value
+   */
+  public static CodePinValue decode(ByteBuffer buffer) {
+    try {
+      byte version = buffer.get();
+      if (version != VERSION) {
+        throw new IllegalArgumentException("Unknown CodePinValue version: " + version);
+      }
+
+      String code = getString(buffer);
+      String pin = getString(buffer);
+      String value = getString(buffer);
+
+      return new CodePinValue(code, pin, value);
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated CodePinValue");
+    }
+  }
+
+  private static void putString(ByteBuffer buffer, String string) {
+    if (string == null) {
+      buffer.putShort((short) NULL_LENGTH);
+      return;
+    }
+
+    int length = string.length();
+
+    // Codes, pins and most values are plain ASCII, write those without a temporary array
+    if (isAscii(string)) {
+      checkLength(length);
+      buffer.putShort((short) length);
+      for (int i = 0; i < length; i++) {
+        buffer.put((byte) string.charAt(i));
+      }
+    } else {
+      byte[] bytes = string.getBytes(UTF_8);
+      checkLength(bytes.length);
+      buffer.putShort((short) bytes.length);
+      buffer.put(bytes);
+    }
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    int length = buffer.getShort() & 0xFFFF;
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+
+    if (buffer.remaining() < length) {
+      throw new BufferUnderflowException();
+    }
+
+    String string;
+    if (buffer.hasArray()) {
+      string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+      buffer.position(buffer.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      string = new String(bytes, UTF_8);
+    }
+    return string;
+  }
+
+  private static int utf8Length(String string) {
+    if (string == null) {
+      return 0;
+    }
+
+    int length = 0;
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates are replaced by '?' by the encoder
+        length += 1;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static boolean isAscii(String string) {
+    for (int i = 0; i < string.length(); i++) {
+      if (string.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void checkLength(int length) {
+    if (length > MAX_LENGTH) {
+      throw new IllegalArgumentException("String too long to encode: " + length + " bytes");
+    }
+  }
+}
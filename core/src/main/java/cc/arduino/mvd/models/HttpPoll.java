@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the batched polls that ask an HTTP API for many pins in one request,
+ * "components?pins=code/pin,code/pin", and reads the answer, an array of the same
+ * {"code", "pin", "value"} objects a single pin GET returns. A query never grows beyond MAX_QUERY
+ * characters, so the URL stays well under what servers and proxies accept, longer polls are split
+ * over several requests.
+ */
+public final class HttpPoll {
+
+  public static final String PATH = "components";
+
+  public static final String PINS_PARAMETER = "pins";
+
+  public static final int MAX_QUERY = 1500;
+
+  static final char BATCH_SEPARATOR = ',';
+
+  private final List<Batch> batches = new ArrayList<>();
+
+  private final Set<String> added = new HashSet<>();
+
+  private StringBuilder query = new StringBuilder();
+
+  private List<Pin> pins = new ArrayList<>();
+
+  /**
+   * Add a pin to poll, a pin that is bound several times is only polled once.
+   *
+   * @param code The component code
+   * @param pin  The pin
+   * @return This poll
+   */
+  public HttpPoll add(String code, String pin) {
+    if (!added.add(code + "/" + pin)) {
+      return this;
+    }
+
+    String encoded = encode(code) + "/" + encode(pin);
+
+    // Close the current batch if this pin doesn't fit, counting the separator
+    if (!pins.isEmpty() && query.length() + 1 + encoded.length() > MAX_QUERY) {
+      flush();
+    }
+
+    if (pins.isEmpty()) {
+      query.append(PINS_PARAMETER).append('=');
+    } else {
+      query.append(BATCH_SEPARATOR);
+    }
+    query.append(encoded);
+    pins.add(new Pin(code, pin));
+
+    return this;
+  }
+
+  /**
+   * @return The batches to request, in order
+   */
+  public List<Batch> build() {
+    if (!pins.isEmpty()) {
+      flush();
+    }
+    return Collections.unmodifiableList(new ArrayList<>(batches));
+  }
+
+  /**
+   * Read the answer to a batch.
+   *
+   * @param body The response body
+   * @return The values, entries without a code or pin are skipped
+   * @throws JSONException if the body is not a JSON array, like when the server doesn't know batches
+   */
+  public static List<CodePinValue> parse(String body) throws JSONException {
+    JSONArray array = new JSONArray(body);
+
+    List<CodePinValue> values = new ArrayList<>(array.length());
+    for (int i = 0; i < array.length(); i++) {
+      JSONObject entry = array.optJSONObject(i);
+      if (entry == null || !entry.has("code") || !entry.has("pin") || !entry.has("value")) {
+        continue;
+      }
+
+      // Servers differ in whether they quote numbers
+      Object value = entry.get("value");
+      values.add(new CodePinValue(entry.get("code").toString(), entry.get("pin").toString(), value == JSONObject.NULL ? null : value.toString()));
+    }
+
+    return values;
+  }
+
+  private void flush() {
+    batches.add(new Batch(query.toString(), Collections.unmodifiableList(pins)));
+    query = new StringBuilder();
+    pins = new ArrayList<>();
+  }
+
+  private static String encode(String string) {
+    try {
+      return URLEncoder.encode(string, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      // Every JVM has UTF-8
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * One request: the query and the pins it asks for, to poll them one by one if the server
+   * doesn't know batches.
+   */
+  public static final class Batch {
+
+    private final String query;
+
+    private final List<Pin> pins;
+
+    private Batch(String query, List<Pin> pins) {
+      this.query = query;
+      this.pins = pins;
+    }
+
+    /**
+     * @return The query, "pins=..." without the "?"
+     */
+    public String getQuery() {
+      return query;
+    }
+
+    public List<Pin> getPins() {
+      return pins;
+    }
+  }
+
+  public static final class Pin {
+
+    private final String code;
+
+    private final String pin;
+
+    private Pin(String code, String pin) {
+      this.code = code;
+      this.pin = pin;
+    }
+
+    public String getCode() {
+      return code;
+    }
+
+    public String getPin() {
+      return pin;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The JSON documents Xively's MQTT bridge sends and expects. Every code and pin is a datastream
+ * with the id "code+pin".
+ */
+public final class XivelyPayload {
+
+  private XivelyPayload() {
+  }
+
+  /**
+   * Build the document that writes a value to a datastream.
+   *
+   * @param code  The component code
+   * @param pin   The pin
+   * @param value The value
+   * @param at    The time of the datapoint
+   * @return The document
+   * @throws JSONException
+   */
+  public static JSONObject create(String code, String pin, String value, Date at) throws JSONException {
+    JSONObject root = new JSONObject();
+
+    JSONObject datapoint = new JSONObject();
+    datapoint.put("at", at.toString());
+    datapoint.put("value", value);
+
+    JSONArray datapoints = new JSONArray();
+    datapoints.put(datapoint);
+
+    JSONObject datastream = new JSONObject();
+    datastream.put("id", code + "+" + pin);
+    datastream.put("datapoints", datapoints);
+
+    JSONArray datastreams = new JSONArray();
+    datastreams.put(datastream);
+
+    root.put("version", "1.0.0");
+    root.put("datastreams", datastreams);
+
+    return root;
+  }
+
+  /**
+   * Read the current values of all datastreams in a feed update. Anything before the first "{" is
+   * skipped, and so are datastreams that are not named "code+pin".
+   *
+   * @param json The document
+   * @return The values, never null
+   * @throws JSONException
+   */
+  public static List<CodePinValue> parse(String json) throws JSONException {
+    int start = json.indexOf("{");
+    JSONObject root = new JSONObject(json.substring(start));
+
+    JSONArray datastreams = root.getJSONArray("datastreams");
+    List<CodePinValue> values = new ArrayList<>(datastreams.length());
+
+    for (int i = 0; i < datastreams.length(); i++) {
+      JSONObject datastream = datastreams.getJSONObject(i);
+      String id = datastream.getString("id");
+
+      int plus = id.indexOf('+');
+      if (plus < 0) {
+        continue;
+      }
+
+      values.add(new CodePinValue(id.substring(0, plus), id.substring(plus + 1), datastream.getString("current_value")));
+    }
+
+    return values;
+  }
+}
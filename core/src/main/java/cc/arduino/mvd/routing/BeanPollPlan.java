@@ -0,0 +1,380 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cc.arduino.mvd.models.BeanPoll;
+import cc.arduino.mvd.models.BeanScratch;
+import cc.arduino.mvd.models.CodePinValue;
+
+/**
+ * What to poll on every bound Bean, built from the RoutingTable. The plan is kept until the
+ * bindings, or a Bean's protocol version, change, so the poll loop doesn't have to read the
+ * bindings on every tick.
+ * <p/>
+ * Every pin has its own poll interval. A binding can ask for a fixed interval, otherwise the
+ * interval doubles, up to the max, for every read that didn't change the value and drops back to
+ * the min as soon as the value changes. Stable sensors are polled less and leave the BLE link to
+ * the ones that change. The poll loop should tick every min milliseconds.
+ * <p/>
+ * A pin bound several times is polled as often as the most demanding binding wants: at the
+ * fastest fixed interval, and if any of its bindings adapts, it adapts but never backs off past
+ * that fixed interval.
+ * <p/>
+ * Pins bound to a scratch bank are pushed by the Bean and never polled.
+ */
+public class BeanPollPlan {
+
+  public static final long DEFAULT_MIN_INTERVAL = 1000;
+
+  public static final long DEFAULT_MAX_INTERVAL = 16000;
+
+  private final RoutingTable table;
+
+  private final Map<String, Integer> protocols = new ConcurrentHashMap<>();
+
+  private volatile long minInterval = DEFAULT_MIN_INTERVAL;
+
+  private volatile long maxInterval = DEFAULT_MAX_INTERVAL;
+
+  private volatile Plan plan;
+
+  public BeanPollPlan(RoutingTable table) {
+    this.table = table;
+  }
+
+  /**
+   * Set the poll protocol version that a Bean's sketch speaks, see BeanPoll.
+   *
+   * @param mac     The MAC address of the Bean
+   * @param version The version
+   */
+  public void setProtocol(String mac, int version) {
+    protocols.put(mac, version);
+    plan = null;
+  }
+
+  public void removeProtocol(String mac) {
+    protocols.remove(mac);
+    plan = null;
+  }
+
+  public int getProtocol(String mac) {
+    Integer version = protocols.get(mac);
+    return version != null ? version : BeanPoll.VERSION_1;
+  }
+
+  /**
+   * Set the bounds for pins without a fixed interval. All pins start over at the min.
+   *
+   * @param min The shortest interval in milliseconds, also the poll loop's tick
+   * @param max The longest interval in milliseconds
+   */
+  public void setIntervals(long min, long max) {
+    minInterval = min;
+    maxInterval = Math.max(min, max);
+    plan = null;
+  }
+
+  public long getMinInterval() {
+    return minInterval;
+  }
+
+  public long getMaxInterval() {
+    return maxInterval;
+  }
+
+  /**
+   * Get the frames that poll every bound pin of each Bean, regardless of when they are due.
+   *
+   * @return The frames by MAC address, never null
+   */
+  public Map<String, List<String>> getFrames() {
+    return current().frames;
+  }
+
+  /**
+   * @return The MAC addresses of all bound Beans, never null
+   */
+  public List<String> getMacs() {
+    return current().macs;
+  }
+
+  /**
+   * Get the frames for the pins on a Bean that are due, and count them as polled.
+   *
+   * @param mac The MAC address of the Bean
+   * @param now The current time in milliseconds
+   * @return The frames, empty if no pin is due
+   */
+  public List<String> poll(String mac, long now) {
+    Plan current = current();
+
+    List<Pin> pins = current.pins.get(mac);
+    if (pins == null) {
+      return Collections.emptyList();
+    }
+
+    // Ticks are not exact, a pin due within half a tick is polled now rather than a tick late
+    long slack = minInterval / 2;
+
+    List<Pin> due = null;
+    for (Pin pin : pins) {
+      if (pin.poll(now, slack)) {
+        if (due == null) {
+          due = new ArrayList<>(pins.size());
+        }
+        due.add(pin);
+      }
+    }
+
+    if (due == null) {
+      return Collections.emptyList();
+    }
+
+    // Reuse the full frames when everything is due
+    if (due.size() == pins.size()) {
+      return current.frames.get(mac);
+    }
+
+    BeanPoll poll = new BeanPoll(getProtocol(mac));
+    for (Pin pin : due) {
+      poll.add(pin.code, pin.pin);
+    }
+    return poll.build();
+  }
+
+  /**
+   * Tell the plan that a pin was read, this speeds up or slows down its polling.
+   *
+   * @param mac     The MAC address of the Bean
+   * @param code    The component code
+   * @param pin     The pin
+   * @param changed If the value differs from the last read
+   */
+  public void onRead(String mac, String code, String pin, boolean changed) {
+    Pin state = current().byKey.get(key(mac, code, pin));
+    if (state != null) {
+      state.onRead(changed, minInterval, maxInterval);
+    }
+  }
+
+  /**
+   * Get the current poll interval of a pin.
+   *
+   * @param mac  The MAC address of the Bean
+   * @param code The component code
+   * @param pin  The pin
+   * @return The interval in milliseconds, or -1 if the pin isn't bound
+   */
+  public long getInterval(String mac, String code, String pin) {
+    Pin state = current().byKey.get(key(mac, code, pin));
+    return state != null ? state.getInterval() : -1;
+  }
+
+  /**
+   * Turn a scratch bank notification into the value of the pin bound to that bank.
+   *
+   * @param mac   The MAC address of the Bean
+   * @param bank  The scratch bank
+   * @param bytes The bank's content
+   * @return The value, or null if no pin is bound to the bank or the bank is empty
+   */
+  public CodePinValue onScratch(String mac, int bank, byte[] bytes) {
+    Pin pin = current().scratch.get(mac + "#" + bank);
+    if (pin == null) {
+      return null;
+    }
+
+    String value = BeanScratch.decode(bytes);
+    return value != null ? new CodePinValue(pin.code, pin.pin, value) : null;
+  }
+
+  private Plan current() {
+    List<BindingEntry> bindings = table.getAllBindings();
+
+    // The table hands out the same list until it is reloaded
+    Plan current = plan;
+    if (current == null || current.bindings != bindings) {
+      current = new Plan(bindings);
+      plan = current;
+    }
+
+    return current;
+  }
+
+  private static String key(String mac, String code, String pin) {
+    return mac + "/" + code + "/" + pin;
+  }
+
+  /**
+   * One immutable version of the plan, only the pins' intervals change.
+   */
+  private final class Plan {
+
+    private final List<BindingEntry> bindings;
+
+    private final Map<String, List<Pin>> pins = new LinkedHashMap<>();
+
+    private final Map<String, Pin> byKey = new HashMap<>();
+
+    // Pins by MAC and scratch bank
+    private final Map<String, Pin> scratch = new HashMap<>();
+
+    private final Map<String, List<String>> frames = new LinkedHashMap<>();
+
+    private final List<String> macs;
+
+    private Plan(List<BindingEntry> bindings) {
+      this.bindings = bindings;
+
+      // Pins that are pushed through a scratch bank, by any of their bindings
+      Set<String> pushed = new HashSet<>();
+      for (BindingEntry binding : bindings) {
+        if (isComplete(binding) && BeanScratch.isBank(binding.getScratchBank())) {
+          String bank = binding.getMac() + "#" + binding.getScratchBank();
+          if (!scratch.containsKey(bank)) {
+            scratch.put(bank, new Pin(binding.getCode(), binding.getPin(), 0, minInterval));
+            pushed.add(key(binding.getMac(), binding.getCode(), binding.getPin()));
+          }
+        }
+      }
+
+      for (BindingEntry binding : bindings) {
+        if (!isComplete(binding)) {
+          continue;
+        }
+
+        String key = key(binding.getMac(), binding.getCode(), binding.getPin());
+        if (pushed.contains(key)) {
+          continue;
+        }
+
+        // A pin bound to several services is polled as often as the most demanding one wants
+        Pin pin = byKey.get(key);
+        if (pin == null) {
+          pin = new Pin(binding.getCode(), binding.getPin(), binding.getInterval(), minInterval);
+          byKey.put(key, pin);
+
+          List<Pin> list = pins.get(binding.getMac());
+          if (list == null) {
+            list = new ArrayList<>();
+            pins.put(binding.getMac(), list);
+          }
+          list.add(pin);
+        } else {
+          pin.merge(binding.getInterval(), minInterval);
+        }
+      }
+
+      for (Map.Entry<String, List<Pin>> entry : pins.entrySet()) {
+        BeanPoll poll = new BeanPoll(getProtocol(entry.getKey()));
+        for (Pin pin : entry.getValue()) {
+          poll.add(pin.code, pin.pin);
+        }
+        frames.put(entry.getKey(), poll.build());
+      }
+
+      macs = Collections.unmodifiableList(new ArrayList<>(pins.keySet()));
+    }
+
+    private boolean isComplete(BindingEntry binding) {
+      return binding.getMac() != null && binding.getCode() != null && binding.getPin() != null;
+    }
+  }
+
+  /**
+   * The poll state of one pin on one Bean.
+   */
+  private static final class Pin {
+
+    private final String code;
+
+    private final String pin;
+
+    // The fastest fixed interval of its bindings, 0 if none has one
+    private long fixed;
+
+    // If any of its bindings adapts
+    private boolean adaptive;
+
+    private long interval;
+
+    private long due;
+
+    private Pin(String code, String pin, long fixed, long min) {
+      this.code = code;
+      this.pin = pin;
+      this.fixed = Math.max(0, fixed);
+      this.adaptive = this.fixed == 0;
+      this.interval = adaptive ? floor(min) : this.fixed;
+    }
+
+    private synchronized void merge(long fixed, long min) {
+      if (fixed > 0) {
+        this.fixed = this.fixed > 0 ? Math.min(this.fixed, fixed) : fixed;
+      } else {
+        adaptive = true;
+      }
+      interval = adaptive ? floor(min) : this.fixed;
+    }
+
+    /**
+     * The slowest an adaptive pin may be polled, a fixed binding caps it.
+     */
+    private long ceiling(long max) {
+      return fixed > 0 ? Math.min(max, fixed) : max;
+    }
+
+    private long floor(long min) {
+      return fixed > 0 ? Math.min(min, fixed) : min;
+    }
+
+    private synchronized boolean poll(long now, long slack) {
+      if (now + slack < due) {
+        return false;
+      }
+      due = now + interval;
+      return true;
+    }
+
+    private synchronized void onRead(boolean changed, long min, long max) {
+      if (!adaptive) {
+        return;
+      }
+
+      long next = changed ? floor(min) : Math.min(interval * 2, ceiling(max));
+
+      // The next poll was planned with the old interval
+      due += next - interval;
+      interval = next;
+    }
+
+    private synchronized long getInterval() {
+      return interval;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+/**
+ * Immutable copy of a Binding row, as held by the RoutingTable.
+ */
+public final class BindingEntry {
+
+  private final String mac;
+
+  private final String name;
+
+  private final String service;
+
+  private final String code;
+
+  private final String pin;
+
+  private final long interval;
+
+  private final int scratchBank;
+
+  public BindingEntry(String mac, String name, String service, String code, String pin) {
+    this(mac, name, service, code, pin, 0, 0);
+  }
+
+  public BindingEntry(String mac, String name, String service, String code, String pin, long interval) {
+    this(mac, name, service, code, pin, interval, 0);
+  }
+
+  /**
+   * @param interval    A fixed poll interval for the pin in milliseconds, or 0 to adapt it
+   * @param scratchBank The scratch bank the Bean pushes the pin's value to, or 0 to poll it
+   */
+  public BindingEntry(String mac, String name, String service, String code, String pin, long interval, int scratchBank) {
+    this.mac = mac;
+    this.name = name;
+    this.service = service;
+    this.code = code;
+    this.pin = pin;
+    this.interval = interval;
+    this.scratchBank = scratchBank;
+  }
+
+  public String getMac() {
+    return mac;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getService() {
+    return service;
+  }
+
+  public String getCode() {
+    return code;
+  }
+
+  public String getPin() {
+    return pin;
+  }
+
+  public long getInterval() {
+    return interval;
+  }
+
+  public int getScratchBank() {
+    return scratchBank;
+  }
+
+  @Override
+  public String toString() {
+    return name + " : " + code + "/" + pin + " --> " + service;
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import cc.arduino.mvd.models.CodePinValue;
+
+/**
+ * Process wide table of the last value each service has seen or written for every code and pin.
+ * The services consult it before propagating a value, so only real changes are fanned out and a
+ * value that a service just wrote is not echoed back when it is read again. Every pin is tracked
+ * on its own, two pins that alternate no longer look like a change every time.
+ * <p/>
+ * Numeric values are kept as a double next to the string, so "1" and "1.0" count as the same
+ * value and readers can use the number without parsing it again.
+ */
+public class LastValueTable {
+
+  /**
+   * The first value seen for a pin, it's stored but is not a change.
+   */
+  public static final int FIRST = 0;
+
+  /**
+   * The value differs from the stored one.
+   */
+  public static final int CHANGED = 1;
+
+  /**
+   * The value is the same as the stored one.
+   */
+  public static final int UNCHANGED = 2;
+
+  private static final LastValueTable INSTANCE = new LastValueTable();
+
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Create a table of its own, the app uses the shared one from getInstance().
+   */
+  public LastValueTable() {
+  }
+
+  public static LastValueTable getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Compare a value read by a service with the stored one and store it.
+   *
+   * @param service The service name
+   * @param code    The component code
+   * @param pin     The pin
+   * @param value   The value that was read
+   * @return FIRST, CHANGED or UNCHANGED
+   */
+  public int update(String service, String code, String pin, String value) {
+    String key = RoutingTable.pinKey(service, code, pin);
+
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      Entry created = new Entry(service, code, pin);
+      entry = entries.putIfAbsent(key, created);
+
+      if (entry == null) {
+        entry = created;
+      }
+    }
+
+    return entry.update(value, true);
+  }
+
+  /**
+   * Store a value that a service has written, so it's not propagated again when the service reads
+   * it back.
+   *
+   * @param service      The service name
+   * @param codePinValue The value that was written
+   */
+  public void put(String service, CodePinValue codePinValue) {
+    String key = RoutingTable.pinKey(service, codePinValue.getCode(), codePinValue.getPin());
+
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      Entry created = new Entry(service, codePinValue.getCode(), codePinValue.getPin());
+      entry = entries.putIfAbsent(key, created);
+
+      if (entry == null) {
+        entry = created;
+      }
+    }
+
+    entry.update(codePinValue.getValue(), false);
+  }
+
+  /**
+   * Get the last value for a pin.
+   *
+   * @param service The service name
+   * @param code    The component code
+   * @param pin     The pin
+   * @return A copy of the value, or null if nothing has been seen yet
+   */
+  public Value get(String service, String code, String pin) {
+    Entry entry = entries.get(RoutingTable.pinKey(service, code, pin));
+    return entry != null ? entry.copy() : null;
+  }
+
+  /**
+   * Get a copy of every value in the table.
+   *
+   * @return The values, never null
+   */
+  public List<Value> snapshot() {
+    return snapshot(null);
+  }
+
+  /**
+   * Get a copy of all values for one service.
+   *
+   * @param service The service name, or null for all services
+   * @return The values, never null
+   */
+  public List<Value> snapshot(String service) {
+    List<Value> values = new ArrayList<>();
+
+    for (Entry entry : entries.values()) {
+      if (service == null || service.equals(entry.service)) {
+        values.add(entry.copy());
+      }
+    }
+
+    return Collections.unmodifiableList(values);
+  }
+
+  /**
+   * Forget all values of a service, used when the service is stopped.
+   *
+   * @param service The service name
+   */
+  public void clear(String service) {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+    while (iterator.hasNext()) {
+      if (service.equals(iterator.next().getValue().service)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Forget all values.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Parse a value as a number, without throwing for the common non-numeric case.
+   *
+   * @return The number, or NaN
+   */
+  static double parseNumber(String value) {
+    if (value == null || value.isEmpty()) {
+      return Double.NaN;
+    }
+
+    // Cheap check before paying for an exception
+    char first = value.charAt(0);
+    if (!(first >= '0' && first <= '9') && first != '-' && first != '+' && first != '.') {
+      return Double.NaN;
+    }
+
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * The mutable slot for one pin. All access goes through the entry's lock so a compare and store
+   * is atomic.
+   */
+  private static final class Entry {
+
+    private final String service;
+
+    private final String code;
+
+    private final String pin;
+
+    private String value;
+
+    private double number = Double.NaN;
+
+    private long updated;
+
+    private Entry(String service, String code, String pin) {
+      this.service = service;
+      this.code = code;
+      this.pin = pin;
+    }
+
+    private synchronized int update(String newValue, boolean compare) {
+      double newNumber = parseNumber(newValue);
+
+      int result;
+      if (updated == 0) {
+        result = FIRST;
+      } else if (sameValue(newValue, newNumber)) {
+        result = UNCHANGED;
+      } else {
+        result = CHANGED;
+      }
+
+      value = newValue;
+      number = newNumber;
+      updated = System.currentTimeMillis();
+
+      return compare ? result : UNCHANGED;
+    }
+
+    private boolean sameValue(String newValue, double newNumber) {
+      if (!Double.isNaN(number) && !Double.isNaN(newNumber)) {
+        return number == newNumber;
+      }
+
+      return value == null ? newValue == null : value.equals(newValue);
+    }
+
+    private synchronized Value copy() {
+      return new Value(service, code, pin, value, number, updated);
+    }
+  }
+
+  /**
+   * Immutable copy of one entry in the table.
+   */
+  public static final class Value {
+
+    private final String service;
+
+    private final String code;
+
+    private final String pin;
+
+    private final String value;
+
+    private final double number;
+
+    private final long updated;
+
+    private Value(String service, String code, String pin, String value, double number, long updated) {
+      this.service = service;
+      this.code = code;
+      this.pin = pin;
+      this.value = value;
+      this.number = number;
+      this.updated = updated;
+    }
+
+    public String getService() {
+      return service;
+    }
+
+    public String getCode() {
+      return code;
+    }
+
+    public String getPin() {
+      return pin;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    /**
+     * @return True if the value is a number, see getNumber()
+     */
+    public boolean isNumeric() {
+      return !Double.isNaN(number);
+    }
+
+    /**
+     * @return The value as a number, or NaN if it isn't numeric
+     */
+    public double getNumber() {
+      return number;
+    }
+
+    /**
+     * @return When the value was last stored, in milliseconds since the epoch
+     */
+    public long getUpdated() {
+      return updated;
+    }
+
+    public CodePinValue toCodePinValue() {
+      return new CodePinValue(code, pin, value);
+    }
+
+    @Override
+    public String toString() {
+      return service + " : " + code + "/" + pin + " = " + value;
+    }
+  }
+}
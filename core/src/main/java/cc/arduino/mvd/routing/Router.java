@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+import cc.arduino.mvd.bus.EventSink;
+import cc.arduino.mvd.bus.MvdBus;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
+import cc.arduino.mvd.models.CodePinValue;
+import cc.arduino.mvd.trace.Trace;
+
+/**
+ * The routing logic shared by all services. A value a service reads from its upstream is compared
+ * with the last value for the same pin, and only the first value of a pin and a change are fanned
+ * out, so a pin that holds steady still reaches its routes and bindings once:
+ * <ul>
+ * <li>DOWN to every service the source service is routed to.</li>
+ * <li>DOWN to the BeanService for every Bean bound to the code and pin on the source service.</li>
+ * </ul>
+ * Values a service writes are recorded, so they are not fanned out again when they're read back.
+ */
+public class Router {
+
+  /**
+   * The name of the Bean service, the target of all binding DOWN values.
+   */
+  public static final String BEAN_SERVICE = "BeanService";
+
+  private static final Router INSTANCE = new Router(RoutingTable.getInstance(), LastValueTable.getInstance(), MvdBus.getInstance());
+
+  private final RoutingTable routingTable;
+
+  private final LastValueTable lastValues;
+
+  private final EventSink sink;
+
+  private final Metrics metrics;
+
+  public Router(RoutingTable routingTable, LastValueTable lastValues, EventSink sink) {
+    this(routingTable, lastValues, sink, Metrics.getInstance());
+  }
+
+  public Router(RoutingTable routingTable, LastValueTable lastValues, EventSink sink, Metrics metrics) {
+    this.routingTable = routingTable;
+    this.lastValues = lastValues;
+    this.sink = sink;
+    this.metrics = metrics;
+  }
+
+  public static Router getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * A service has read a value from its upstream.
+   *
+   * @param service      The service name
+   * @param mac          The MAC of the Bean the value came from, or null
+   * @param codePinValue The value
+   * @return LastValueTable.FIRST, CHANGED or UNCHANGED, UNCHANGED is not fanned out
+   */
+  public int onRead(String service, String mac, CodePinValue codePinValue) {
+    return onRead(service, mac, codePinValue, lastValues);
+  }
+
+  /**
+   * A service has read a value from its upstream, compared with a table of its own instead of the
+   * shared one. The BeanService keeps one per Bean, so Beans with the same pins don't mix.
+   *
+   * @param service      The service name
+   * @param mac          The MAC of the Bean the value came from, or null
+   * @param codePinValue The value
+   * @param lastValues   The table to compare with
+   * @return LastValueTable.FIRST, CHANGED or UNCHANGED, UNCHANGED is not fanned out
+   */
+  public int onRead(String service, String mac, CodePinValue codePinValue, LastValueTable lastValues) {
+    int change = lastValues.update(service, codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
+
+    ServiceMetrics serviceMetrics = metrics.get(service);
+    serviceMetrics.countIn();
+
+    if (change == LastValueTable.UNCHANGED) {
+      serviceMetrics.countDedup();
+    } else {
+      fanOut(service, mac, codePinValue);
+    }
+
+    return change;
+  }
+
+  /**
+   * A service has written a value to its upstream.
+   *
+   * @param service      The service name
+   * @param codePinValue The value
+   */
+  public void onWritten(String service, CodePinValue codePinValue) {
+    onWritten(service, codePinValue, lastValues);
+  }
+
+  /**
+   * A service has written a value to its upstream, stored in a table of its own.
+   *
+   * @param service      The service name
+   * @param codePinValue The value
+   * @param lastValues   The table the value is read back against
+   */
+  public void onWritten(String service, CodePinValue codePinValue, LastValueTable lastValues) {
+    lastValues.put(service, codePinValue);
+    metrics.get(service).countOut();
+  }
+
+  /**
+   * Send a value DOWN to all routes and bindings of a service, without checking for changes. Every
+   * target gets a copy of the value with its own trace, a trace is started if the value has none.
+   *
+   * @param service      The service name
+   * @param mac          The MAC of the Bean the value came from, or null
+   * @param codePinValue The value
+   * @return The number of events published
+   */
+  public int fanOut(String service, String mac, CodePinValue codePinValue) {
+    Trace trace = codePinValue.getTrace();
+    if (trace == null) {
+      trace = Trace.start(service);
+    }
+
+    int count = 0;
+
+    // The services this service is routed to
+    for (String target : routingTable.getRouteTargets(service)) {
+      sink.publish(new MvdEvent(MvdEvent.ACTION_DOWN, service, target, mac, copy(codePinValue, trace, target)));
+      count++;
+    }
+
+    // The beans that are bound to this code and pin
+    for (String boundMac : routingTable.getBoundMacs(service, codePinValue.getCode(), codePinValue.getPin())) {
+      sink.publish(new MvdEvent(MvdEvent.ACTION_DOWN, service, BEAN_SERVICE, boundMac, copy(codePinValue, trace, BEAN_SERVICE)));
+      count++;
+    }
+
+    return count;
+  }
+
+  private static CodePinValue copy(CodePinValue codePinValue, Trace trace, String target) {
+    CodePinValue copy = new CodePinValue(codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
+    copy.setTrace(trace.hop(target + ":queued"));
+    return copy;
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process wide, in-memory copy of all service routes and bindings. The table is loaded once from
+ * its RoutingSource (the database in the app) and then replaced as a whole whenever a route or
+ * binding is changed, so the services can look up their targets for every value without touching
+ * SQLite.
+ * <p/>
+ * Readers always see a complete snapshot, never a half updated one.
+ */
+public class RoutingTable {
+
+  private static final RoutingTable INSTANCE = new RoutingTable();
+
+  private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+  private volatile RoutingSource source;
+
+  /**
+   * Create a table of its own, the app uses the shared one from getInstance().
+   */
+  public RoutingTable() {
+  }
+
+  public static RoutingTable getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Set where the routes and bindings are loaded from. The table is loaded again on next use.
+   *
+   * @param source The source
+   */
+  public void setSource(RoutingSource source) {
+    this.source = source;
+    snapshot.set(null);
+  }
+
+  /**
+   * Read all routes and bindings from the source and swap in a new snapshot. Call this every time
+   * the routes or bindings have been modified. Without a source the table is empty.
+   */
+  public void reload() {
+    RoutingSource current = source;
+
+    if (current == null) {
+      snapshot.set(new Snapshot(Collections.<RouteEntry>emptyList(), Collections.<BindingEntry>emptyList()));
+    } else {
+      snapshot.set(new Snapshot(current.loadRoutes(), current.loadBindings()));
+    }
+  }
+
+  /**
+   * Get the names of all services that the given service is routed to.
+   *
+   * @param service The service name
+   * @return The "other" service names, never null
+   */
+  public List<String> getRouteTargets(String service) {
+    List<String> targets = current().routeTargets.get(service);
+    return targets != null ? targets : Collections.<String>emptyList();
+  }
+
+  /**
+   * Get all bindings for the given service.
+   *
+   * @param service The service name
+   * @return The bindings, never null
+   */
+  public List<BindingEntry> getBindings(String service) {
+    List<BindingEntry> bindings = current().bindingsByService.get(service);
+    return bindings != null ? bindings : Collections.<BindingEntry>emptyList();
+  }
+
+  /**
+   * Get the MAC addresses of all beans that are bound to a code and pin on the given service. This
+   * is what a value from that service should fan out to.
+   *
+   * @param service The service name
+   * @param code    The component code
+   * @param pin     The pin
+   * @return The MAC addresses, without duplicates, never null
+   */
+  public List<String> getBoundMacs(String service, String code, String pin) {
+    List<String> macs = current().macsByPin.get(pinKey(service, code, pin));
+    return macs != null ? macs : Collections.<String>emptyList();
+  }
+
+  /**
+   * Get all bindings, regardless of service.
+   *
+   * @return The bindings, never null
+   */
+  public List<BindingEntry> getAllBindings() {
+    return current().bindings;
+  }
+
+  /**
+   * Codes and pins never contain a slash, the Bean protocol uses it as separator.
+   */
+  static String pinKey(String service, String code, String pin) {
+    return service + "/" + code + "/" + pin;
+  }
+
+  private Snapshot current() {
+    Snapshot current = snapshot.get();
+
+    // Lazily load the first snapshot
+    if (current == null) {
+      synchronized (this) {
+        current = snapshot.get();
+        if (current == null) {
+          reload();
+          current = snapshot.get();
+        }
+      }
+    }
+
+    return current;
+  }
+
+  /**
+   * One immutable version of the table.
+   */
+  private static final class Snapshot {
+
+    private final Map<String, List<String>> routeTargets = new HashMap<>();
+
+    private final Map<String, List<BindingEntry>> bindingsByService = new HashMap<>();
+
+    private final Map<String, List<String>> macsByPin = new HashMap<>();
+
+    private final List<BindingEntry> bindings;
+
+    private Snapshot(List<RouteEntry> routes, List<BindingEntry> rows) {
+      for (RouteEntry route : routes) {
+        String service1 = route.getService1();
+        String service2 = route.getService2();
+
+        if (service1 == null || service2 == null) {
+          continue;
+        }
+
+        add(routeTargets, service1, service2.trim());
+
+        if (!service1.equals(service2)) {
+          add(routeTargets, service2, service1.trim());
+        }
+      }
+
+      List<BindingEntry> all = new ArrayList<>(rows);
+      for (BindingEntry entry : rows) {
+        if (entry.getService() != null) {
+          add(bindingsByService, entry.getService(), entry);
+
+          String key = pinKey(entry.getService(), entry.getCode(), entry.getPin());
+          List<String> macs = macsByPin.get(key);
+          if (entry.getMac() != null && (macs == null || !macs.contains(entry.getMac()))) {
+            add(macsByPin, key, entry.getMac());
+          }
+        }
+      }
+      bindings = Collections.unmodifiableList(all);
+
+      seal(routeTargets);
+      seal(bindingsByService);
+      seal(macsByPin);
+    }
+
+    private static <T> void add(Map<String, List<T>> map, String key, T value) {
+      List<T> list = map.get(key);
+      if (list == null) {
+        list = new ArrayList<>();
+        map.put(key, list);
+      }
+      list.add(value);
+    }
+
+    private static <T> void seal(Map<String, List<T>> map) {
+      for (Map.Entry<String, List<T>> entry : map.entrySet()) {
+        entry.setValue(Collections.unmodifiableList(entry.getValue()));
+      }
+    }
+  }
+}
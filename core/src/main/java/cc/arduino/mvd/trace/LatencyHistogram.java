@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies in microseconds. Buckets are exact up to 16 us and then split
+ * every power of two in eight, so any percentile is within 12.5% of the real value. Recording is a
+ * couple of atomic increments, reading while others record gives a slightly stale but usable view.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BITS = 3;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  private static final int BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  private final AtomicLong count = new AtomicLong();
+
+  private final AtomicLong total = new AtomicLong();
+
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a latency.
+   *
+   * @param micros The latency in microseconds, negative values count as 0
+   */
+  public void record(long micros) {
+    if (micros < 0) {
+      micros = 0;
+    }
+
+    counts.incrementAndGet(bucket(micros));
+    count.incrementAndGet();
+    total.addAndGet(micros);
+
+    long current = max.get();
+    while (micros > current && !max.compareAndSet(current, micros)) {
+      current = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public long getMean() {
+    long n = count.get();
+    return n > 0 ? total.get() / n : 0;
+  }
+
+  /**
+   * Get a percentile.
+   *
+   * @param percentile The percentile, 0 to 100
+   * @return The upper bound of the bucket the percentile falls in, in microseconds, 0 if empty
+   */
+  public long getPercentile(double percentile) {
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      n += counts.get(i);
+    }
+    if (n == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    total.set(0);
+    max.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "n=" + getCount() + ", p50=" + format(getPercentile(50)) + ", p99=" + format(getPercentile(99))
+        + ", max=" + format(getMax());
+  }
+
+  static String format(long micros) {
+    if (micros < 1000) {
+      return micros + "us";
+    }
+    return (micros / 1000) + "." + ((micros % 1000) / 100) + "ms";
+  }
+
+  static int bucket(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+
+    int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+    return shift * SUB_BUCKETS + (int) (micros >>> shift);
+  }
+
+  static long upperBound(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lower = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    return lower + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The path of one value through the MVD: a monotonic id, the service it was read by and the time
+ * of every hop since. A trace is immutable, hop() returns a new trace that shares the earlier hops,
+ * so a value fanned out to several targets gets a trace per target for free.
+ */
+public final class Trace {
+
+  private static final AtomicLong IDS = new AtomicLong();
+
+  private final long id;
+
+  private final Hop origin;
+
+  private final Hop last;
+
+  private final int hops;
+
+  private Trace(long id, Hop origin, Hop last, int hops) {
+    this.id = id;
+    this.origin = origin;
+    this.last = last;
+    this.hops = hops;
+  }
+
+  /**
+   * Start a trace for a value just read by a service.
+   *
+   * @param service The service name
+   * @return The trace
+   */
+  public static Trace start(String service) {
+    Hop origin = new Hop(service, System.nanoTime(), null);
+    return new Trace(IDS.incrementAndGet(), origin, origin, 1);
+  }
+
+  /**
+   * Record that the value has reached a stage.
+   *
+   * @param stage The stage, like "MqttService:queued"
+   * @return A new trace, this one is left as is
+   */
+  public Trace hop(String stage) {
+    return new Trace(id, origin, new Hop(stage, System.nanoTime(), last), hops + 1);
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * @return The name of the service the value was read by
+   */
+  public String getOrigin() {
+    return origin.name;
+  }
+
+  /**
+   * @return The System.nanoTime() the value was read at
+   */
+  public long getStarted() {
+    return origin.time;
+  }
+
+  /**
+   * @return The nanoseconds since the value was read
+   */
+  public long getElapsed() {
+    return System.nanoTime() - origin.time;
+  }
+
+  /**
+   * @return All hops, the origin first
+   */
+  public List<Hop> getHops() {
+    List<Hop> list = new ArrayList<>(hops);
+    for (Hop hop = last; hop != null; hop = hop.previous) {
+      list.add(hop);
+    }
+    Collections.reverse(list);
+    return list;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("#").append(id);
+    for (Hop hop : getHops()) {
+      builder.append(' ').append(hop.name).append(String.format(Locale.US, " +%.2fms", (hop.time - origin.time) / 1e6));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * A stage and the System.nanoTime() it was reached at.
+   */
+  public static final class Hop {
+
+    private final String name;
+
+    private final long time;
+
+    private final Hop previous;
+
+    private Hop(String name, long time, Hop previous) {
+      this.name = name;
+      this.time = time;
+      this.previous = previous;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getTime() {
+      return time;
+    }
+  }
+}
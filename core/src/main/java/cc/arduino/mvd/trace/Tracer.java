@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import cc.arduino.mvd.models.CodePinValue;
+
+/**
+ * Collects the end to end latency of values, per route. A route is the service a value was read by
+ * and the service that finally wrote it, for example "BeanService -> MqttService". Services call
+ * complete() once their upstream has accepted a value, like when a publish is acked.
+ */
+public class Tracer {
+
+  private static final Tracer INSTANCE = new Tracer();
+
+  private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+
+  public Tracer() {
+  }
+
+  public static Tracer getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Record that a service has finished with a value.
+   *
+   * @param service      The service name
+   * @param codePinValue The value, nothing is recorded when it has no trace
+   */
+  public void complete(String service, CodePinValue codePinValue) {
+    Trace trace = codePinValue.getTrace();
+    if (trace == null) {
+      return;
+    }
+
+    trace = trace.hop(service + ":done");
+    codePinValue.setTrace(trace);
+
+    getRoute(trace.getOrigin() + " -> " + service).record(trace);
+  }
+
+  /**
+   * @return The latency histogram of a route, or null if nothing was recorded for it
+   */
+  public LatencyHistogram getHistogram(String origin, String service) {
+    Route route = routes.get(origin + " -> " + service);
+    return route != null ? route.histogram : null;
+  }
+
+  /**
+   * One line per route with the count, p50, p99 and max latency and the last trace, sorted by route.
+   *
+   * @return The lines
+   */
+  public List<String> dump() {
+    List<String> names = new ArrayList<>(routes.keySet());
+    Collections.sort(names);
+
+    List<String> lines = new ArrayList<>(names.size());
+    for (String name : names) {
+      Route route = routes.get(name);
+      lines.add(name + " : " + route.histogram + ", last " + route.last);
+    }
+    return lines;
+  }
+
+  public void reset() {
+    routes.clear();
+  }
+
+  private Route getRoute(String name) {
+    Route route = routes.get(name);
+    if (route == null) {
+      Route created = new Route();
+      route = routes.putIfAbsent(name, created);
+      if (route == null) {
+        route = created;
+      }
+    }
+    return route;
+  }
+
+  private static final class Route {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private volatile Trace last;
+
+    private void record(Trace trace) {
+      histogram.record(TimeUnit.NANOSECONDS.toMicros(trace.getElapsed()));
+      last = trace;
+    }
+  }
+}
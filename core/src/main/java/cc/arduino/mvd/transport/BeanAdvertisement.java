@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.transport;
+
+import java.util.UUID;
+
+/**
+ * Tells Beans apart from the other BLE devices around by their advertisement. A Bean advertises
+ * its serial service in the list of 128 bit service UUIDs. The scan record is parsed here rather
+ * than filtered by the BLE stack, UUID filters of 128 bit services don't work on all Android 4.4
+ * devices.
+ */
+public final class BeanAdvertisement {
+
+  /**
+   * The Bean's serial service.
+   */
+  public static final UUID SERIAL_SERVICE = UUID.fromString("a495ff10-c5b1-4b44-b512-1370f02d74de");
+
+  private static final int TYPE_MORE_128_BIT_UUIDS = 0x06;
+
+  private static final int TYPE_ALL_128_BIT_UUIDS = 0x07;
+
+  private BeanAdvertisement() {
+  }
+
+  /**
+   * @param scanRecord The advertisement and scan response data of a device
+   * @return true if the device advertises the Bean's serial service
+   */
+  public static boolean isBean(byte[] scanRecord) {
+    if (scanRecord == null) {
+      return false;
+    }
+
+    int i = 0;
+    while (i < scanRecord.length) {
+      int length = scanRecord[i] & 0xff;
+
+      // Zero length ends the significant part, the rest is padding
+      if (length == 0 || i + length >= scanRecord.length) {
+        return false;
+      }
+
+      int type = scanRecord[i + 1] & 0xff;
+      if (type == TYPE_MORE_128_BIT_UUIDS || type == TYPE_ALL_128_BIT_UUIDS) {
+        for (int offset = i + 2; offset + 16 <= i + 1 + length; offset += 16) {
+          if (SERIAL_SERVICE.equals(uuid(scanRecord, offset))) {
+            return true;
+          }
+        }
+      }
+
+      i += length + 1;
+    }
+
+    return false;
+  }
+
+  /**
+   * Read a 128 bit UUID, it's little endian in the advertisement.
+   */
+  private static UUID uuid(byte[] bytes, int offset) {
+    long least = 0;
+    long most = 0;
+
+    for (int i = 7; i >= 0; i--) {
+      least = (least << 8) | (bytes[offset + i] & 0xff);
+    }
+    for (int i = 15; i >= 8; i--) {
+      most = (most << 8) | (bytes[offset + i] & 0xff);
+    }
+
+    return new UUID(most, least);
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The devices found by the background scans, by MAC, with their last RSSI and when they were last
+ * seen. A device that hasn't advertised for the time to live is forgotten, seeing it again counts
+ * as a new sighting so its Bean can be connected right away.
+ */
+public class BeanDiscoveryCache {
+
+  /**
+   * How long a device is remembered after it was last seen, in ms.
+   */
+  public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+
+  private final ConcurrentMap<String, Sighting> sightings = new ConcurrentHashMap<>();
+
+  private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+  /**
+   * @param timeToLive How long a device is remembered after it was last seen, in ms
+   */
+  public void setTimeToLive(long timeToLive) {
+    this.timeToLive = timeToLive;
+  }
+
+  /**
+   * Remember that a device advertised.
+   *
+   * @param mac  The MAC address
+   * @param name The advertised name, or null to keep the known one
+   * @param rssi The signal strength in dBm
+   * @param now  The current time in ms
+   * @return True if the device was not known, or had been forgotten
+   */
+  public boolean onDiscovered(String mac, String name, int rssi, long now) {
+    Sighting previous = sightings.get(mac);
+
+    if (name == null && previous != null) {
+      name = previous.name;
+    }
+
+    sightings.put(mac, new Sighting(mac, name, rssi, now));
+
+    return previous == null || now - previous.lastSeen > timeToLive;
+  }
+
+  /**
+   * @param mac The MAC address
+   * @return The last sighting, or null if the device was never seen
+   */
+  public Sighting get(String mac) {
+    return sightings.get(mac);
+  }
+
+  /**
+   * @param mac The MAC address
+   * @param now The current time in ms
+   * @return True if the device was seen within the time to live
+   */
+  public boolean isPresent(String mac, long now) {
+    Sighting sighting = sightings.get(mac);
+    return sighting != null && now - sighting.lastSeen <= timeToLive;
+  }
+
+  /**
+   * Forget the devices that haven't been seen within the time to live.
+   *
+   * @param now The current time in ms
+   * @return The number of devices forgotten
+   */
+  public int expire(long now) {
+    int expired = 0;
+
+    Iterator<Sighting> iterator = sightings.values().iterator();
+    while (iterator.hasNext()) {
+      if (now - iterator.next().lastSeen > timeToLive) {
+        iterator.remove();
+        expired++;
+      }
+    }
+
+    return expired;
+  }
+
+  /**
+   * @return All known devices, the strongest signal first
+   */
+  public List<Sighting> snapshot() {
+    List<Sighting> snapshot = new ArrayList<>(sightings.values());
+
+    Collections.sort(snapshot, new Comparator<Sighting>() {
+      @Override
+      public int compare(Sighting a, Sighting b) {
+        return a.rssi > b.rssi ? -1 : (a.rssi == b.rssi ? a.mac.compareTo(b.mac) : 1);
+      }
+    });
+
+    return Collections.unmodifiableList(snapshot);
+  }
+
+  public int size() {
+    return sightings.size();
+  }
+
+  public void clear() {
+    sightings.clear();
+  }
+
+  /**
+   * One device as it was last seen.
+   */
+  public static final class Sighting {
+
+    private final String mac;
+
+    private final String name;
+
+    private final int rssi;
+
+    private final long lastSeen;
+
+    private Sighting(String mac, String name, int rssi, long lastSeen) {
+      this.mac = mac;
+      this.name = name;
+      this.rssi = rssi;
+      this.lastSeen = lastSeen;
+    }
+
+    public String getMac() {
+      return mac;
+    }
+
+    /**
+     * @return The advertised name, or null
+     */
+    public String getName() {
+      return name;
+    }
+
+    public int getRssi() {
+      return rssi;
+    }
+
+    public long getLastSeen() {
+      return lastSeen;
+    }
+
+    @Override
+    public String toString() {
+      return mac + " - " + name + " (" + rssi + " dBm)";
+    }
+  }
+}
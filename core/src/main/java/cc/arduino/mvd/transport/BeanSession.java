@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.transport;
+
+import cc.arduino.mvd.dispatch.BeanConnection;
+import cc.arduino.mvd.dispatch.BeanWriteQueue;
+import cc.arduino.mvd.metrics.ServiceMetrics;
+import cc.arduino.mvd.models.BeanMessageParser;
+import cc.arduino.mvd.models.CodePinValue;
+import cc.arduino.mvd.routing.LastValueTable;
+
+/**
+ * Everything the BeanService keeps for one Bean: the link, the parser for what it sends, the
+ * queue for what we write to it, the connection that keeps it up, and the last values read from
+ * it. Nothing is shared between Beans, so two Beans with the same code and pin don't suppress
+ * each other's values and one Bean's traffic never waits on another's state.
+ */
+public class BeanSession implements BeanTransport.Listener {
+
+  /**
+   * What the session hands back to its owner. Called on the transport's threads.
+   */
+  public interface Handler {
+    /**
+     * A value was read from the Bean.
+     */
+    void onValue(BeanSession session, CodePinValue codePinValue);
+
+    /**
+     * The sketch wrote to a scratch bank.
+     */
+    void onScratch(BeanSession session, int bank, byte[] bytes);
+
+    /**
+     * A value queued by write() was written, or dropped.
+     */
+    void onWritten(BeanSession session, CodePinValue codePinValue, boolean written);
+  }
+
+  private final String name;
+
+  private final String mac;
+
+  private final ServiceMetrics metrics;
+
+  private final Handler handler;
+
+  private final BeanMessageParser parser;
+
+  private final BeanWriteQueue<CodePinValue> queue;
+
+  private final LastValueTable lastValues = new LastValueTable();
+
+  private volatile BeanTransport.Link link;
+
+  private volatile BeanConnection connection;
+
+  /**
+   * @param name     Used for metrics and logging, like "BeanService/" + mac
+   * @param mac      The MAC address of the Bean
+   * @param protocol BeanPoll.VERSION_1 or VERSION_2
+   * @param metrics  Gets the Bean's writes, errors and reconnects
+   * @param handler  Gets the values read from the Bean
+   */
+  public BeanSession(String name, String mac, int protocol, ServiceMetrics metrics, Handler handler) {
+    this.name = name;
+    this.mac = mac;
+    this.metrics = metrics;
+    this.handler = handler;
+
+    this.parser = new BeanMessageParser(protocol, new BeanMessageParser.Listener() {
+      @Override
+      public void onValue(CodePinValue codePinValue) {
+        BeanSession.this.handler.onValue(BeanSession.this, codePinValue);
+      }
+
+      @Override
+      public void onInvalid() {
+        BeanSession.this.metrics.countError();
+      }
+    });
+
+    this.queue = new BeanWriteQueue<>(name, metrics, new BeanWriteQueue.Writer<CodePinValue>() {
+      @Override
+      public boolean write(String message) {
+        return send(message);
+      }
+
+      @Override
+      public void onWritten(CodePinValue codePinValue, boolean written) {
+        BeanSession.this.handler.onWritten(BeanSession.this, codePinValue, written);
+      }
+    });
+  }
+
+  /**
+   * Open the link to the Bean and start connecting, reconnecting in the background when it drops.
+   *
+   * @param transport The transport the Bean is reached through
+   * @return false if the transport doesn't know the Bean
+   */
+  public boolean open(BeanTransport transport) {
+    BeanTransport.Link opened = transport.open(mac, this);
+    if (opened == null) {
+      return false;
+    }
+
+    link = opened;
+    connection = new BeanConnection(name, opened, queue, metrics);
+    connection.start();
+
+    return true;
+  }
+
+  /**
+   * Start reconnecting again if the connection had given up on the Bean.
+   */
+  public void retry() {
+    BeanConnection current = connection;
+    if (current != null) {
+      current.retry();
+    }
+  }
+
+  /**
+   * The Bean showed up in a scan, connect now if it isn't.
+   */
+  public void onSeen() {
+    BeanConnection current = connection;
+    if (current != null) {
+      current.onSeen();
+    }
+  }
+
+  /**
+   * Stop reconnecting and disconnect the Bean. The session can't be opened again.
+   */
+  public void close() {
+    BeanConnection closing = connection;
+    if (closing != null) {
+      // Closed first, so the disconnect doesn't look like a dropped link
+      closing.close();
+    }
+
+    BeanTransport.Link closingLink = link;
+    if (closingLink != null && closingLink.isConnected()) {
+      closingLink.disconnect();
+    }
+
+    queue.clear();
+    lastValues.clear();
+  }
+
+  /**
+   * Queue a value for the Bean, it goes ahead of any polls.
+   *
+   * @param message      The serial message
+   * @param codePinValue Handed back to the Handler once written
+   */
+  public void write(String message, CodePinValue codePinValue) {
+    queue.write(message, codePinValue);
+  }
+
+  /**
+   * Queue a poll frame, merged with any poll that is already waiting.
+   */
+  public void poll(String frame) {
+    queue.poll(frame);
+  }
+
+  public String getMac() {
+    return mac;
+  }
+
+  /**
+   * @return The link, or null before open()
+   */
+  public BeanTransport.Link getLink() {
+    return link;
+  }
+
+  /**
+   * @return The connection, or null before open()
+   */
+  public BeanConnection getConnection() {
+    return connection;
+  }
+
+  public BeanWriteQueue<CodePinValue> getQueue() {
+    return queue;
+  }
+
+  /**
+   * The last values read from, and written to, this Bean only.
+   */
+  public LastValueTable getLastValues() {
+    return lastValues;
+  }
+
+  /**
+   * @return True if the Bean is connected and can take writes
+   */
+  public boolean isWritable() {
+    BeanConnection current = connection;
+    return current != null && current.isWritable();
+  }
+
+  private boolean send(String message) {
+    BeanTransport.Link current = link;
+    BeanConnection currentConnection = connection;
+
+    if (current == null || currentConnection == null) {
+      return false;
+    }
+
+    // The write is queued by the Bean library, there's no ack, so this is the time to queue it
+    try {
+      current.send(message);
+
+      currentConnection.onWriteSucceeded();
+      return true;
+    } catch (RuntimeException e) {
+      // Enough of these and the connection reconnects in the background
+      currentConnection.onWriteFailed();
+      return false;
+    }
+  }
+
+  @Override
+  public void onConnected() {
+    BeanConnection current = connection;
+    if (current != null) {
+      current.onConnected();
+    }
+  }
+
+  @Override
+  public void onConnectionFailed() {
+    // Counted as an error by the connection, which tries again later
+    BeanConnection current = connection;
+    if (current != null) {
+      current.onConnectionFailed();
+    }
+  }
+
+  @Override
+  public void onDisconnected() {
+    // A half received message will never be completed
+    parser.reset();
+
+    BeanConnection current = connection;
+    if (current != null) {
+      current.onDisconnected();
+    }
+  }
+
+  @Override
+  public void onSerialMessageReceived(byte[] bytes) {
+    parser.feed(bytes);
+  }
+
+  @Override
+  public void onScratchValueChanged(int bank, byte[] bytes) {
+    handler.onScratch(this, bank, bytes);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.transport;
+
+import cc.arduino.mvd.dispatch.BeanConnection;
+
+/**
+ * How the BeanService reaches its Beans. The app talks BLE through the Bean library, tests and
+ * benchmarks use the SimulatedBeanTransport.
+ */
+public interface BeanTransport {
+
+  /**
+   * What a Bean tells us. Called on the transport's threads.
+   */
+  interface Listener {
+    void onConnected();
+
+    void onConnectionFailed();
+
+    void onDisconnected();
+
+    void onSerialMessageReceived(byte[] bytes);
+
+    void onScratchValueChanged(int bank, byte[] bytes);
+  }
+
+  /**
+   * What a scan finds. Called on the transport's threads, every time a device advertises.
+   */
+  interface DiscoveryListener {
+    /**
+     * @param mac  The MAC address of the device
+     * @param name The advertised name, or null
+     * @param rssi The signal strength in dBm
+     */
+    void onDiscovered(String mac, String name, int rssi);
+  }
+
+  /**
+   * The link to one Bean. connect() and disconnect() return right away, the outcome is reported
+   * to the Listener.
+   */
+  interface Link extends BeanConnection.Link {
+    String getMac();
+
+    String getName();
+
+    boolean isConnected();
+
+    /**
+     * Write a serial message to the Bean.
+     *
+     * @param message The message
+     * @throws RuntimeException if the message could not be handed to the Bean
+     */
+    void send(String message);
+  }
+
+  /**
+   * Get the link to a Bean, nothing is connected yet.
+   *
+   * @param mac      The MAC address of the Bean
+   * @param listener Gets everything the Bean sends
+   * @return The link, or null if the transport doesn't know the Bean
+   */
+  Link open(String mac, Listener listener);
+
+  /**
+   * Start scanning, until cancelDiscovery(). A device found by a scan can be opened.
+   *
+   * @param listener Gets every device that advertises
+   */
+  void startDiscovery(DiscoveryListener listener);
+
+  void cancelDiscovery();
+}
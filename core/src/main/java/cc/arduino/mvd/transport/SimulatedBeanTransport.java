@@ -0,0 +1,524 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.transport;
+
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cc.arduino.mvd.models.BeanPoll;
+
+/**
+ * Virtual Beans for tests and load runs on a plain JVM. A virtual Bean answers "code/pin" polls
+ * with "code/pin/value", batched when it speaks BeanPoll.VERSION_2, and stores the values written
+ * to it with "code/pin/value".
+ * <p/>
+ * Everything a Bean sends arrives after the latency plus up to the jitter, cut into notifications
+ * of at most the fragment size, and in order, like over a real link. Every write may drop the
+ * link, and every connect may fail, with the configured rates. While scanning, every Bean in range
+ * advertises with its RSSI, a Bean out of range can't be connected. All callbacks run on one
+ * simulator thread.
+ */
+public class SimulatedBeanTransport implements BeanTransport {
+
+  /**
+   * The payload of one BLE notification.
+   */
+  public static final int DEFAULT_FRAGMENT_SIZE = 20;
+
+  /**
+   * The time between two advertisements of a Bean in ms.
+   */
+  public static final long ADVERTISING_INTERVAL = 100;
+
+  /**
+   * The RSSI of a new Bean in dBm.
+   */
+  public static final int DEFAULT_RSSI = -60;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final Random random;
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mvd-simulator");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final Map<String, VirtualBean> beans = new ConcurrentHashMap<>();
+
+  private volatile long latency = 0;
+
+  private volatile long jitter = 0;
+
+  private volatile int fragmentSize = DEFAULT_FRAGMENT_SIZE;
+
+  private volatile double disconnectRate = 0;
+
+  private volatile double connectFailureRate = 0;
+
+  private ScheduledFuture<?> discovery;
+
+  public SimulatedBeanTransport() {
+    this(System.nanoTime());
+  }
+
+  /**
+   * @param seed Seed for the jitter, disconnects and connect failures, to repeat a run
+   */
+  public SimulatedBeanTransport(long seed) {
+    random = new Random(seed);
+  }
+
+  /**
+   * @param latency The time in ms before anything the Bean sends arrives
+   * @param jitter  The most, in ms, that is randomly added to the latency
+   */
+  public void setLatency(long latency, long jitter) {
+    this.latency = Math.max(0, latency);
+    this.jitter = Math.max(0, jitter);
+  }
+
+  /**
+   * @param fragmentSize The largest notification in bytes
+   */
+  public void setFragmentSize(int fragmentSize) {
+    this.fragmentSize = Math.max(1, fragmentSize);
+  }
+
+  /**
+   * @param rate The chance, 0 to 1, that a write drops the link
+   */
+  public void setDisconnectRate(double rate) {
+    this.disconnectRate = rate;
+  }
+
+  /**
+   * @param rate The chance, 0 to 1, that a connect fails
+   */
+  public void setConnectFailureRate(double rate) {
+    this.connectFailureRate = rate;
+  }
+
+  /**
+   * Add a virtual Bean.
+   *
+   * @param mac      Its MAC address
+   * @param protocol The poll protocol version its sketch speaks, see BeanPoll
+   * @return The Bean
+   */
+  public VirtualBean addBean(String mac, int protocol) {
+    VirtualBean bean = new VirtualBean(mac, protocol);
+    beans.put(mac, bean);
+    return bean;
+  }
+
+  public VirtualBean getBean(String mac) {
+    return beans.get(mac);
+  }
+
+  @Override
+  public Link open(String mac, Listener listener) {
+    VirtualBean bean = beans.get(mac);
+    if (bean == null) {
+      return null;
+    }
+
+    bean.setListener(listener);
+    return bean;
+  }
+
+  @Override
+  public synchronized void startDiscovery(final DiscoveryListener listener) {
+    cancelDiscovery();
+
+    discovery = executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        for (VirtualBean bean : beans.values()) {
+          if (bean.isInRange()) {
+            listener.onDiscovered(bean.getMac(), bean.getName(), bean.getRssi());
+          }
+        }
+      }
+    }, delay(), ADVERTISING_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public synchronized void cancelDiscovery() {
+    if (discovery != null) {
+      discovery.cancel(false);
+      discovery = null;
+    }
+  }
+
+  /**
+   * Stop the simulator thread, nothing is delivered after this.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private boolean chance(double rate) {
+    if (rate <= 0) {
+      return false;
+    }
+    synchronized (random) {
+      return random.nextDouble() < rate;
+    }
+  }
+
+  private long delay() {
+    long extra = 0;
+    if (jitter > 0) {
+      synchronized (random) {
+        extra = (long) (random.nextDouble() * jitter);
+      }
+    }
+    return latency + extra;
+  }
+
+  /**
+   * One simulated Bean and its link.
+   */
+  public final class VirtualBean implements Link {
+
+    private final String mac;
+
+    private final int protocol;
+
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+
+    private final StringBuilder input = new StringBuilder();
+
+    private volatile Listener listener;
+
+    private boolean connected = false;
+
+    // Bumped when the link goes down, so nothing queued for the old link is delivered
+    private int epoch = 0;
+
+    // Notifications on their way, in the order they were sent
+    private final ArrayDeque<Notification> outbox = new ArrayDeque<>();
+
+    // Nothing may be delivered before this, so notifications keep their order despite jitter
+    private long nextDelivery = 0;
+
+    private final AtomicLong polls = new AtomicLong();
+
+    private final AtomicLong writes = new AtomicLong();
+
+    private volatile int rssi = DEFAULT_RSSI;
+
+    private volatile boolean inRange = true;
+
+    private VirtualBean(String mac, int protocol) {
+      this.mac = mac;
+      this.protocol = protocol;
+    }
+
+    private void setListener(Listener listener) {
+      this.listener = listener;
+    }
+
+    /**
+     * Set what the sketch reads on a pin.
+     */
+    public void setValue(String code, String pin, String value) {
+      values.put(code + "/" + pin, value);
+    }
+
+    /**
+     * @return The value on a pin, "0" if it was never set
+     */
+    public String getValue(String code, String pin) {
+      String value = values.get(code + "/" + pin);
+      return value != null ? value : "0";
+    }
+
+    /**
+     * Have the sketch write a value to a scratch bank, which is pushed to the listener.
+     */
+    public void setScratch(final int bank, String value) {
+      final byte[] bytes = value.getBytes(UTF_8);
+      deliver(new Runnable() {
+        @Override
+        public void run() {
+          listener.onScratchValueChanged(bank, bytes);
+        }
+      });
+    }
+
+    /**
+     * @return The number of pins polled
+     */
+    public long getPolls() {
+      return polls.get();
+    }
+
+    /**
+     * @return The number of values written to the Bean
+     */
+    public long getWrites() {
+      return writes.get();
+    }
+
+    public int getRssi() {
+      return rssi;
+    }
+
+    /**
+     * @param rssi The signal strength it advertises with, in dBm
+     */
+    public void setRssi(int rssi) {
+      this.rssi = rssi;
+    }
+
+    public boolean isInRange() {
+      return inRange;
+    }
+
+    /**
+     * Move the Bean out of range, which drops the link, or back into range.
+     */
+    public void setInRange(boolean inRange) {
+      this.inRange = inRange;
+
+      if (!inRange) {
+        drop();
+      }
+    }
+
+    /**
+     * Drop the link, as if the Bean went out of range.
+     */
+    public void drop() {
+      synchronized (this) {
+        if (!connected) {
+          return;
+        }
+        connected = false;
+        epoch++;
+      }
+
+      notifyLater(new Runnable() {
+        @Override
+        public void run() {
+          listener.onDisconnected();
+        }
+      });
+    }
+
+    @Override
+    public String getMac() {
+      return mac;
+    }
+
+    @Override
+    public String getName() {
+      return "Virtual " + mac;
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+      return connected;
+    }
+
+    @Override
+    public void connect() {
+      final boolean fail = !inRange || chance(connectFailureRate);
+
+      notifyLater(new Runnable() {
+        @Override
+        public void run() {
+          if (fail) {
+            listener.onConnectionFailed();
+            return;
+          }
+
+          synchronized (VirtualBean.this) {
+            connected = true;
+            input.setLength(0);
+          }
+          listener.onConnected();
+        }
+      });
+    }
+
+    @Override
+    public void disconnect() {
+      drop();
+    }
+
+    @Override
+    public void send(String message) {
+      String reply;
+
+      synchronized (this) {
+        if (!connected) {
+          throw new IllegalStateException("Not connected to " + mac);
+        }
+
+        input.append(message);
+        reply = handleInput();
+      }
+
+      if (reply.length() > 0) {
+        final byte[] bytes = reply.getBytes(UTF_8);
+        for (int offset = 0; offset < bytes.length; offset += fragmentSize) {
+          final byte[] fragment = Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + fragmentSize));
+          deliver(new Runnable() {
+            @Override
+            public void run() {
+              listener.onSerialMessageReceived(fragment);
+            }
+          });
+        }
+      }
+
+      if (chance(disconnectRate)) {
+        drop();
+      }
+    }
+
+    /**
+     * Handle every complete line in the input, must hold the lock.
+     *
+     * @return What the sketch answers
+     */
+    private String handleInput() {
+      StringBuilder reply = new StringBuilder();
+
+      int end;
+      while ((end = input.indexOf("\n")) >= 0) {
+        String line = input.substring(0, end);
+        input.delete(0, end + 1);
+
+        String[] requests = protocol >= BeanPoll.VERSION_2 ? line.split(";") : new String[]{line};
+
+        StringBuilder answers = new StringBuilder();
+        for (String request : requests) {
+          String[] parts = request.split("/");
+
+          if (parts.length == 2) {
+            polls.incrementAndGet();
+
+            if (answers.length() > 0) {
+              answers.append(';');
+            }
+            answers.append(parts[0]).append('/').append(parts[1]).append('/').append(getValue(parts[0], parts[1]));
+          } else if (parts.length == 3) {
+            writes.incrementAndGet();
+            setValue(parts[0], parts[1], parts[2]);
+          }
+        }
+
+        if (answers.length() > 0) {
+          reply.append(answers).append('\n');
+        }
+      }
+
+      return reply.toString();
+    }
+
+    /**
+     * Deliver something the Bean sent, unless the link goes down first.
+     */
+    private void deliver(final Runnable notification) {
+      final int current;
+      synchronized (this) {
+        current = epoch;
+      }
+
+      notifyLater(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (VirtualBean.this) {
+            if (!connected || epoch != current) {
+              return;
+            }
+          }
+          notification.run();
+        }
+      });
+    }
+
+    private void notifyLater(Runnable notification) {
+      final long at;
+      long delay;
+      synchronized (this) {
+        long now = System.nanoTime();
+        at = Math.max(now + TimeUnit.MILLISECONDS.toNanos(delay()), nextDelivery);
+        nextDelivery = at;
+        delay = at - now;
+
+        outbox.add(new Notification(at, notification));
+      }
+
+      // Delivers everything up to this notification, the timer alone wouldn't keep ties in order
+      executor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          while (true) {
+            Notification next;
+            synchronized (VirtualBean.this) {
+              next = outbox.peek();
+              if (next == null || next.at > at) {
+                return;
+              }
+              outbox.poll();
+            }
+
+            if (listener != null) {
+              next.task.run();
+            }
+          }
+        }
+      }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+      return getName() + " : " + polls.get() + " polls, " + writes.get() + " writes";
+    }
+  }
+
+  private static final class Notification {
+
+    private final long at;
+
+    private final Runnable task;
+
+    private Notification(long at, Runnable task) {
+      this.at = at;
+      this.task = task;
+    }
+  }
+}
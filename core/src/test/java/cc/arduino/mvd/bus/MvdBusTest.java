@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.bus;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cc.arduino.mvd.dispatch.OutboundQueue;
+import cc.arduino.mvd.models.CodePinValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MvdBusTest {
+
+  @Test
+  public void onlySubscribersOfTheTargetGetTheEvent() throws Exception {
+    final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+
+    MvdBus bus = MvdBus.getInstance();
+    bus.subscribe("Targeted", new MvdBus.Subscriber() {
+      @Override
+      public void onEvent(MvdEvent event) {
+        delivered.add(event.getCodePinValue().getValue());
+      }
+    });
+
+    assertTrue(bus.publish(down("Targeted", null, "1")));
+    assertFalse(bus.publish(down("Nobody", null, "2")));
+
+    waitFor(delivered, 1);
+    assertEquals("1", delivered.get(0));
+  }
+
+  @Test
+  public void latestDeliversTheNewestValue() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+
+    MvdBus bus = MvdBus.getInstance();
+    bus.configureQueue("Latest", OutboundQueue.Policy.LATEST, 8);
+    bus.subscribe("Latest", new MvdBus.Subscriber() {
+      @Override
+      public void onEvent(MvdEvent event) {
+        delivered.add(event.getCodePinValue().getValue());
+        blocked.countDown();
+        await(release);
+      }
+    });
+
+    bus.publish(down("Latest", null, "0"));
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    for (int i = 1; i <= 10; i++) {
+      bus.publish(down("Latest", null, String.valueOf(i)));
+    }
+
+    release.countDown();
+    waitFor(delivered, 2);
+    assertEquals("10", delivered.get(1));
+    assertEquals(9, bus.getQueue("Latest").getDropped());
+  }
+
+  @Test
+  public void dropOldestDeliversTheNewestInOrder() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+
+    MvdBus bus = MvdBus.getInstance();
+    bus.configureQueue("Oldest", OutboundQueue.Policy.DROP_OLDEST, 3);
+    bus.subscribe("Oldest", new MvdBus.Subscriber() {
+      @Override
+      public void onEvent(MvdEvent event) {
+        delivered.add(event.getCodePinValue().getValue());
+        blocked.countDown();
+        await(release);
+      }
+    });
+
+    bus.publish(down("Oldest", null, "0"));
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    for (int i = 1; i <= 10; i++) {
+      bus.publish(down("Oldest", null, String.valueOf(i)));
+    }
+
+    release.countDown();
+    waitFor(delivered, 4);
+    assertEquals("8", delivered.get(1));
+    assertEquals("9", delivered.get(2));
+    assertEquals("10", delivered.get(3));
+    assertEquals(7, bus.getQueue("Oldest").getDropped());
+  }
+
+  @Test
+  public void beansOnTheSamePinDontReplaceEachOther() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+
+    MvdBus bus = MvdBus.getInstance();
+    bus.configureQueue("TwoBeans", OutboundQueue.Policy.LATEST, 8);
+    bus.subscribe("TwoBeans", new MvdBus.Subscriber() {
+      @Override
+      public void onEvent(MvdEvent event) {
+        delivered.add(event.getMac() + "=" + event.getCodePinValue().getValue());
+        blocked.countDown();
+        await(release);
+      }
+    });
+
+    // Hold the first Bean's lane, the second Bean must not wait for it or replace its value
+    bus.publish(down("TwoBeans", "AA", "0"));
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    bus.publish(down("TwoBeans", "AA", "1"));
+    bus.publish(down("TwoBeans", "BB", "2"));
+
+    waitFor(delivered, 2);
+    assertEquals("BB=2", delivered.get(1));
+
+    release.countDown();
+    waitFor(delivered, 3);
+    assertEquals("AA=1", delivered.get(2));
+    assertEquals(0, bus.getQueue("TwoBeans").getDropped());
+  }
+
+  private static MvdEvent down(String target, String mac, String value) {
+    return new MvdEvent(MvdEvent.ACTION_DOWN, "Test", target, mac, new CodePinValue("L", "7", value));
+  }
+
+  private static void waitFor(List<?> list, int size) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (list.size() < size && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(size, list.size());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BeanConnectionTest {
+
+  private final String name = "connection-test-" + System.nanoTime();
+
+  private final ServiceMetrics metrics = new Metrics().get("BeanService");
+
+  private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+  private final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+
+  // Set by the test to make the next writes fail
+  private volatile boolean broken = false;
+
+  private final AtomicInteger connects = new AtomicInteger();
+
+  private final AtomicInteger disconnects = new AtomicInteger();
+
+  private BeanConnection connection;
+
+  private final BeanWriteQueue<String> queue = new BeanWriteQueue<>(name, metrics, new BeanWriteQueue.Writer<String>() {
+    @Override
+    public boolean write(String message) {
+      if (broken) {
+        connection.onWriteFailed();
+        return false;
+      }
+      written.add(message);
+      connection.onWriteSucceeded();
+      return true;
+    }
+
+    @Override
+    public void onWritten(String tag, boolean success) {
+      if (!success) {
+        failed.add(tag);
+      }
+    }
+  });
+
+  {
+    queue.setPacing(0);
+
+    connection = new BeanConnection(name, new BeanConnection.Link() {
+      @Override
+      public void connect() {
+        connects.incrementAndGet();
+      }
+
+      @Override
+      public void disconnect() {
+        disconnects.incrementAndGet();
+      }
+    }, queue, metrics);
+    connection.setBackoff(10, 40);
+  }
+
+  @Test
+  public void buffersUntilConnected() throws Exception {
+    connection.start();
+    queue.write("L/1/1\n", "a");
+
+    assertTrue(await(connects, 1));
+    assertEquals(BeanConnection.State.CONNECTING, connection.getState());
+    assertFalse(connection.isWritable());
+    assertTrue(written.isEmpty());
+
+    connection.onConnected();
+    awaitIdle();
+
+    assertEquals(BeanConnection.State.CONNECTED, connection.getState());
+    assertEquals(1, written.size());
+  }
+
+  @Test
+  public void retriesFailedConnects() throws Exception {
+    connection.start();
+    assertTrue(await(connects, 1));
+
+    connection.onConnectionFailed();
+    assertTrue(await(connects, 2));
+    connection.onConnectionFailed();
+    assertTrue(await(connects, 3));
+
+    connection.onConnected();
+    assertEquals(BeanConnection.State.CONNECTED, connection.getState());
+    assertEquals(0, connection.getAttempts());
+  }
+
+  @Test
+  public void disconnectReconnectsAndReplays() throws Exception {
+    connect();
+
+    connection.onDisconnected();
+    assertEquals(BeanConnection.State.RECONNECTING, connection.getState());
+    assertEquals(1, metrics.getReconnects());
+
+    queue.write("L/1/1\n", "a");
+    queue.write("L/1/2\n", "b");
+    assertTrue(await(connects, 2));
+    assertTrue(written.isEmpty());
+
+    connection.onConnected();
+    awaitIdle();
+
+    assertEquals(2, written.size());
+    assertTrue(failed.isEmpty());
+  }
+
+  @Test
+  public void failedWritesDegradeThenReconnect() throws Exception {
+    connect();
+    broken = true;
+
+    for (int i = 0; i < BeanConnection.DEGRADED_LIMIT - 1; i++) {
+      queue.poll("T/" + i + "\n");
+      awaitIdle();
+    }
+    assertEquals(BeanConnection.State.DEGRADED, connection.getState());
+    assertTrue(connection.isWritable());
+
+    // This one is kept for after the reconnect
+    queue.write("L/1/1\n", "a");
+    long deadline = System.currentTimeMillis() + 5000;
+    while (connection.getState() != BeanConnection.State.RECONNECTING && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(BeanConnection.State.RECONNECTING, connection.getState());
+    assertEquals(1, disconnects.get());
+
+    broken = false;
+    assertTrue(await(connects, 2));
+    connection.onConnected();
+    awaitIdle();
+
+    assertEquals(1, written.size());
+    assertEquals("L/1/1\n", written.get(0));
+    assertTrue(failed.isEmpty());
+  }
+
+  @Test
+  public void successClearsDegraded() throws Exception {
+    connect();
+
+    connection.onWriteFailed();
+    assertEquals(BeanConnection.State.DEGRADED, connection.getState());
+
+    connection.onWriteSucceeded();
+    assertEquals(BeanConnection.State.CONNECTED, connection.getState());
+  }
+
+  @Test
+  public void givesUpAfterMaxAttempts() throws Exception {
+    connection.start();
+    queue.write("L/1/1\n", "a");
+
+    for (int i = 1; i <= BeanConnection.MAX_ATTEMPTS; i++) {
+      assertTrue(await(connects, i));
+      connection.onConnectionFailed();
+    }
+
+    // The pending writes are failed right after the state changes
+    long deadline = System.currentTimeMillis() + 5000;
+    while ((connection.getState() != BeanConnection.State.LOST || failed.isEmpty()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(BeanConnection.State.LOST, connection.getState());
+    assertEquals(BeanConnection.MAX_ATTEMPTS, connects.get());
+    assertEquals(Collections.singletonList("a"), failed);
+
+    connection.retry();
+    assertTrue(await(connects, BeanConnection.MAX_ATTEMPTS + 1));
+    assertEquals(BeanConnection.State.RECONNECTING, connection.getState());
+  }
+
+  @Test
+  public void seenSkipsTheBackoff() throws Exception {
+    connection.setBackoff(60000, 60000);
+    connection.start();
+    assertTrue(await(connects, 1));
+
+    connection.onConnectionFailed();
+    connection.onSeen();
+    assertTrue(await(connects, 2));
+
+    // Already trying, seeing it again doesn't start another attempt
+    connection.onSeen();
+    connection.onConnected();
+    connection.onSeen();
+    Thread.sleep(50);
+    assertEquals(2, connects.get());
+    assertEquals(BeanConnection.State.CONNECTED, connection.getState());
+  }
+
+  @Test
+  public void closedConnectionsStayLost() throws Exception {
+    connect();
+    connection.close();
+
+    connection.onDisconnected();
+    connection.onConnected();
+
+    assertEquals(BeanConnection.State.LOST, connection.getState());
+  }
+
+  @Test
+  public void backoffGrowsWithJitter() {
+    connection.setBackoff(1000, 8000);
+
+    for (int i = 0; i < 100; i++) {
+      long first = connection.backoff(0);
+      assertTrue(first >= 800 && first <= 1200);
+
+      long third = connection.backoff(2);
+      assertTrue(third >= 3200 && third <= 4800);
+
+      long capped = connection.backoff(30);
+      assertTrue(capped >= 6400 && capped <= 9600);
+    }
+  }
+
+  private void connect() throws InterruptedException {
+    connection.start();
+    assertTrue(await(connects, 1));
+    connection.onConnected();
+  }
+
+  private void awaitIdle() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!queue.isIdle() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(queue.isIdle());
+  }
+
+  private static boolean await(AtomicInteger counter, int value) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (counter.get() < value && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    return counter.get() >= value;
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BeanWriteQueueTest {
+
+  private final ServiceMetrics metrics = new Metrics().get("BeanService");
+
+  private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+  private final List<String> acked = Collections.synchronizedList(new ArrayList<String>());
+
+  // Holds the writer on its first message, so the test can pile up the rest behind it
+  private final CountDownLatch blocked = new CountDownLatch(1);
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private final BeanWriteQueue<String> queue = new BeanWriteQueue<>("bean-test-" + System.nanoTime(), metrics,
+      new BeanWriteQueue.Writer<String>() {
+        @Override
+        public boolean write(String message) {
+          messages.add(message);
+          blocked.countDown();
+          await(release);
+          return !message.startsWith("fail");
+        }
+
+        @Override
+        public void onWritten(String tag, boolean written) {
+          acked.add(tag + (written ? "" : "!"));
+        }
+      });
+
+  @Test
+  public void actuatorsGoBeforePolls() throws Exception {
+    queue.setPacing(0);
+
+    queue.poll("first\n");
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    queue.poll("T/1\n");
+    queue.poll("T/2\n");
+    queue.write("L/3/1\n", "a");
+    queue.write("L/3/0\n", "b");
+
+    release.countDown();
+    awaitEmpty();
+
+    assertEquals(Arrays.asList("first\n", "L/3/1\n", "L/3/0\n", "T/1\n", "T/2\n"), messages);
+    assertEquals(Arrays.asList("a", "b"), acked);
+  }
+
+  @Test
+  public void waitingPollsAreMerged() throws Exception {
+    queue.setPacing(0);
+
+    queue.poll("first\n");
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    for (int i = 0; i < 10; i++) {
+      queue.poll("T/1\n");
+    }
+
+    release.countDown();
+    awaitEmpty();
+
+    assertEquals(Arrays.asList("first\n", "T/1\n"), messages);
+    assertEquals(9, queue.getMerged());
+  }
+
+  @Test
+  public void writesArePaced() throws Exception {
+    release.countDown();
+    queue.setPacing(50);
+
+    long started = System.currentTimeMillis();
+    for (int i = 0; i < 5; i++) {
+      queue.poll("T/" + i + "\n");
+    }
+    awaitEmpty();
+
+    assertEquals(5, messages.size());
+    assertTrue(System.currentTimeMillis() - started >= 4 * 50);
+  }
+
+  @Test
+  public void reportsFailedWrites() throws Exception {
+    release.countDown();
+    queue.setPacing(0);
+
+    queue.write("fail\n", "a");
+    awaitEmpty();
+
+    assertEquals(Arrays.asList("a!"), acked);
+    assertEquals(0, queue.getWritten());
+    assertEquals(1, metrics.getErrors());
+  }
+
+  @Test
+  public void dropsOldestActuatorWhenFull() throws Exception {
+    queue.setPacing(0);
+
+    queue.poll("first\n");
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    for (int i = 0; i <= BeanWriteQueue.CAPACITY; i++) {
+      queue.write("L/1/" + i + "\n", Integer.toString(i));
+    }
+
+    assertEquals(1, queue.getDropped());
+    assertEquals("0!", acked.get(0));
+
+    release.countDown();
+    awaitEmpty();
+
+    assertEquals(BeanWriteQueue.CAPACITY + 1, acked.size());
+  }
+
+  @Test
+  public void clearForgetsWaitingMessages() throws Exception {
+    queue.setPacing(0);
+
+    queue.poll("first\n");
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    queue.poll("T/1\n");
+    queue.write("L/1/1\n", "a");
+    queue.clear();
+
+    release.countDown();
+    awaitEmpty();
+
+    assertEquals(Arrays.asList("first\n"), messages);
+    assertEquals(Arrays.asList("a!"), acked);
+  }
+
+  private void awaitEmpty() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!queue.isIdle() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(queue.isIdle());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
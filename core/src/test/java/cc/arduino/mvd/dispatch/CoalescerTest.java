@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CoalescerTest {
+
+  private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+
+  private final Coalescer<String> coalescer = new Coalescer<>("CoalescerTest@" + System.identityHashCode(this),
+      new Coalescer.Sender<String>() {
+        @Override
+        public void send(String value) {
+          sent.add(value);
+        }
+      });
+
+  @Test
+  public void oneWriteInFlight() throws Exception {
+    coalescer.submit("L/7", "1");
+    waitForSent(1);
+
+    coalescer.submit("L/8", "2");
+    Thread.sleep(50);
+    assertEquals(1, sent.size());
+    assertEquals(1, coalescer.getPending());
+
+    coalescer.done();
+    waitForSent(2);
+    assertEquals("2", sent.get(1));
+  }
+
+  @Test
+  public void latestValueWins() throws Exception {
+    coalescer.submit("L/7", "1");
+    waitForSent(1);
+
+    coalescer.submit("L/7", "2");
+    coalescer.submit("L/7", "3");
+    coalescer.submit("L/7", "4");
+    assertEquals(1, coalescer.getPending());
+    assertEquals(2, coalescer.getCoalesced());
+
+    coalescer.done();
+    waitForSent(2);
+    assertEquals("4", sent.get(1));
+
+    coalescer.done();
+    Thread.sleep(50);
+    assertEquals(2, sent.size());
+  }
+
+  @Test
+  public void intervalSendsAllPending() throws Exception {
+    coalescer.setInterval(50);
+
+    coalescer.submit("L/7", "1");
+    coalescer.submit("L/8", "2");
+    coalescer.submit("L/7", "3");
+
+    // Nothing is held up by writes in flight, done() is never called
+    waitForSent(2);
+    assertEquals("3", sent.get(0));
+    assertEquals("2", sent.get(1));
+
+    coalescer.close();
+  }
+
+  @Test
+  public void writesInFlightTimeOut() throws Exception {
+    coalescer.setInFlightTimeout(50);
+
+    coalescer.submit("L/7", "1");
+    waitForSent(1);
+
+    // The first write never completes
+    coalescer.submit("L/8", "2");
+    Thread.sleep(20);
+    assertEquals(1, sent.size());
+
+    Thread.sleep(50);
+    coalescer.submit("L/9", "3");
+    waitForSent(2);
+    assertEquals("2", sent.get(1));
+  }
+
+  @Test
+  public void stalledWriteReleasesThePendingValue() throws Exception {
+    coalescer.setInFlightTimeout(50);
+
+    coalescer.submit("L/7", "1");
+    waitForSent(1);
+
+    // done() is never called and nothing else is submitted, the newest value still goes out
+    coalescer.submit("L/8", "2");
+    coalescer.submit("L/8", "3");
+    waitForSent(2);
+    assertEquals("3", sent.get(1));
+    assertEquals(0, coalescer.getPending());
+  }
+
+  private void waitForSent(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (sent.size() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(count, sent.size());
+  }
+}
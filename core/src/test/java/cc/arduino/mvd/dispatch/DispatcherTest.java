@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cc.arduino.mvd.metrics.Metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DispatcherTest {
+
+  @Test
+  public void keepsOrderPerKey() throws Exception {
+    Dispatcher dispatcher = Dispatcher.getInstance();
+    final List<List<Integer>> runs = new ArrayList<>();
+    final CountDownLatch done = new CountDownLatch(4 * 500);
+
+    for (int k = 0; k < 4; k++) {
+      runs.add(Collections.synchronizedList(new ArrayList<Integer>()));
+    }
+
+    // Interleave the keys, each key must still see its own tasks in order
+    for (int i = 0; i < 500; i++) {
+      for (int k = 0; k < 4; k++) {
+        final List<Integer> run = runs.get(k);
+        final int value = i;
+        dispatcher.execute(Dispatcher.key("ordered", "T", String.valueOf(k)), new Runnable() {
+          @Override
+          public void run() {
+            run.add(value);
+            done.countDown();
+          }
+        });
+      }
+    }
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    for (List<Integer> run : runs) {
+      for (int i = 0; i < 500; i++) {
+        assertEquals(i, (int) run.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void keysRunInParallel() throws Exception {
+    Dispatcher dispatcher = Dispatcher.getInstance();
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch other = new CountDownLatch(1);
+
+    dispatcher.execute("parallel/slow", new Runnable() {
+      @Override
+      public void run() {
+        try {
+          blocked.countDown();
+          other.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    // Only finishes if it doesn't wait for the slow key
+    dispatcher.execute("parallel/fast", new Runnable() {
+      @Override
+      public void run() {
+        other.countDown();
+      }
+    });
+
+    assertTrue(other.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void removesLanesThatRanDry() throws Exception {
+    Dispatcher dispatcher = Dispatcher.getInstance();
+    final CountDownLatch done = new CountDownLatch(100);
+
+    for (int i = 0; i < 100; i++) {
+      dispatcher.execute("dry/" + i, new Runnable() {
+        @Override
+        public void run() {
+          done.countDown();
+        }
+      });
+    }
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 100; i++) {
+      waitForNoLane(dispatcher, "dry/" + i);
+    }
+  }
+
+  @Test
+  public void neverRunsOnTheCallerWhenSaturated() throws Exception {
+    Dispatcher dispatcher = Dispatcher.getInstance();
+    long rejected = Metrics.getInstance().get("Dispatcher").getRejected();
+
+    // Hold every worker and fill the pool queue past its capacity
+    final CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < 8; i++) {
+      dispatcher.execute("saturated/hold/" + i, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            release.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+
+    final Thread caller = Thread.currentThread();
+    final AtomicInteger inline = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(600);
+    for (int i = 0; i < 600; i++) {
+      dispatcher.execute("saturated/" + i, new Runnable() {
+        @Override
+        public void run() {
+          if (Thread.currentThread() == caller) {
+            inline.incrementAndGet();
+          }
+          done.countDown();
+        }
+      });
+    }
+
+    assertTrue(Metrics.getInstance().get("Dispatcher").getRejected() > rejected);
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, inline.get());
+  }
+
+  private static void waitForNoLane(Dispatcher dispatcher, String key) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (dispatcher.hasLane(key) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertFalse(dispatcher.hasLane(key));
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundQueueTest {
+
+  @Test
+  public void keepsOrderPerKey() throws Exception {
+    final List<Integer> delivered = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(1000);
+
+    OutboundQueue<Integer> queue = new OutboundQueue<>("order", new OutboundQueue.Sink<Integer>() {
+      @Override
+      public void deliver(Integer item) {
+        delivered.add(item);
+        done.countDown();
+      }
+    });
+    queue.configure(OutboundQueue.Policy.BLOCK, 16);
+
+    for (int i = 0; i < 1000; i++) {
+      queue.offer("order/T/1", i);
+    }
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, (int) delivered.get(i));
+    }
+    assertEquals(0, queue.getDropped());
+  }
+
+  @Test
+  public void latestKeepsNewestPerKey() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Integer> delivered = Collections.synchronizedList(new ArrayList<Integer>());
+
+    OutboundQueue<Integer> queue = new OutboundQueue<>("latest", new OutboundQueue.Sink<Integer>() {
+      @Override
+      public void deliver(Integer item) {
+        delivered.add(item);
+        blocked.countDown();
+        await(release);
+      }
+    });
+    queue.configure(OutboundQueue.Policy.LATEST, 8);
+
+    // The first item holds the key's lane while the rest pile up
+    queue.offer("latest/T/1", 0);
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    for (int i = 1; i <= 100; i++) {
+      queue.offer("latest/T/1", i);
+    }
+
+    assertEquals(1, queue.getDepth());
+    assertEquals(99, queue.getDropped());
+
+    release.countDown();
+    waitForDelivered(queue, 2);
+
+    assertEquals(Integer.valueOf(100), delivered.get(1));
+  }
+
+  @Test
+  public void dropOldestKeepsCapacity() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    OutboundQueue<Integer> queue = new OutboundQueue<>("oldest", new OutboundQueue.Sink<Integer>() {
+      @Override
+      public void deliver(Integer item) {
+        blocked.countDown();
+        await(release);
+      }
+    });
+    queue.configure(OutboundQueue.Policy.DROP_OLDEST, 4);
+
+    queue.offer("oldest/T/1", 0);
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    for (int i = 1; i <= 10; i++) {
+      queue.offer("oldest/T/1", i);
+    }
+
+    assertEquals(4, queue.getDepth());
+    assertEquals(6, queue.getDropped());
+
+    release.countDown();
+    waitForDelivered(queue, 5);
+  }
+
+  private static void waitForDelivered(OutboundQueue<?> queue, long count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (queue.getDelivered() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(count, queue.getDelivered());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
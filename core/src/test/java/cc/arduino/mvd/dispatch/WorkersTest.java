@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.dispatch;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorkersTest {
+
+  private final Metrics metrics = new Metrics();
+
+  private final Workers workers = new Workers(metrics);
+
+  @Test
+  public void countsTasksPerService() throws Exception {
+    final CountDownLatch done = new CountDownLatch(3);
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    };
+
+    assertTrue(workers.execute(Workers.IO, "HttpService", task));
+    assertTrue(workers.execute(Workers.IO, "HttpService", task));
+    assertTrue(workers.execute(Workers.IO, "BeanService", task));
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    awaitTasks(metrics.get("HttpService"), 2);
+    awaitTasks(metrics.get("BeanService"), 1);
+    assertEquals(0, metrics.get("HttpService").getRunning());
+  }
+
+  @Test
+  public void thrownTasksAreCountedAsErrors() throws Exception {
+    workers.execute(Workers.IO, "HttpService", new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("Expected");
+      }
+    });
+
+    awaitTasks(metrics.get("HttpService"), 1);
+    assertEquals(1, metrics.get("HttpService").getErrors());
+  }
+
+  @Test
+  public void fullPoolsReject() throws Exception {
+    workers.addPool("tiny", 1, 1);
+
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blocked = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+
+    assertTrue(workers.execute("tiny", "BinocularService", blocked));
+    assertTrue(workers.execute("tiny", "BinocularService", blocked));
+    assertFalse(workers.execute("tiny", "BinocularService", blocked));
+    assertEquals(1, metrics.get("BinocularService").getRejected());
+
+    release.countDown();
+    awaitTasks(metrics.get("BinocularService"), 2);
+  }
+
+  @Test
+  public void connectionsRunEveryTaskTheyTake() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable reader = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+
+    // A reader that is taken must start, the one that doesn't fit is turned away
+    int taken = 0;
+    while (workers.execute(Workers.CONNECTIONS, "ElisService", reader)) {
+      taken++;
+      awaitActive(Workers.CONNECTIONS, taken);
+    }
+
+    assertTrue(taken > 0);
+    assertEquals(0, workers.getQueued(Workers.CONNECTIONS));
+    assertEquals(1, metrics.get("ElisService").getRejected());
+
+    release.countDown();
+    awaitTasks(metrics.get("ElisService"), taken);
+  }
+
+  @Test
+  public void slowRunsAreNotPiledUp() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger most = new AtomicInteger();
+    final AtomicInteger runs = new AtomicInteger();
+
+    ScheduledFuture<?> future = workers.scheduleAtFixedRate(Workers.IO, "HttpService", new Runnable() {
+      @Override
+      public void run() {
+        most.set(Math.max(most.get(), running.incrementAndGet()));
+        try {
+          Thread.sleep(30);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+        runs.incrementAndGet();
+      }
+    }, 0, 5, TimeUnit.MILLISECONDS);
+
+    Thread.sleep(300);
+    future.cancel(false);
+
+    assertEquals(1, most.get());
+    assertTrue(runs.get() > 2);
+    assertTrue(runs.get() < 20);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownPoolsThrow() {
+    workers.execute("nope", "HttpService", new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+  }
+
+  private void awaitActive(String pool, int active) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (workers.getActiveCount(pool) < active && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(active, workers.getActiveCount(pool));
+  }
+
+  private static void awaitTasks(ServiceMetrics metrics, long tasks) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (metrics.getTasks() < tasks && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(tasks, metrics.getTasks());
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.metrics;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import cc.arduino.mvd.bus.EventSink;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.models.CodePinValue;
+import cc.arduino.mvd.routing.BindingEntry;
+import cc.arduino.mvd.routing.LastValueTable;
+import cc.arduino.mvd.routing.RouteEntry;
+import cc.arduino.mvd.routing.Router;
+import cc.arduino.mvd.routing.RoutingSource;
+import cc.arduino.mvd.routing.RoutingTable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+  private final Metrics metrics = new Metrics();
+
+  @Test
+  public void servicesAreCreatedOnce() {
+    assertTrue(metrics.get("A") == metrics.get("A"));
+  }
+
+  @Test
+  public void requestsAreTrackedInFlight() {
+    ServiceMetrics service = metrics.get("HttpService");
+
+    long first = service.requestStarted();
+    long second = service.requestStarted();
+    assertEquals(2, service.getInFlight());
+
+    service.requestFinished(ServiceMetrics.RTT_HTTP, first);
+    service.requestFinished(ServiceMetrics.RTT_HTTP, second);
+
+    assertEquals(0, service.getInFlight());
+    assertEquals(2, service.getRtt(ServiceMetrics.RTT_HTTP).getCount());
+  }
+
+  @Test
+  public void routerCountsReadsAndWrites() {
+    RoutingTable table = new RoutingTable();
+    table.setSource(new RoutingSource() {
+      @Override
+      public List<RouteEntry> loadRoutes() {
+        return Arrays.asList(new RouteEntry("A", "B"));
+      }
+
+      @Override
+      public List<BindingEntry> loadBindings() {
+        return Collections.emptyList();
+      }
+    });
+
+    Router router = new Router(table, new LastValueTable(), new EventSink() {
+      @Override
+      public boolean publish(MvdEvent event) {
+        return true;
+      }
+    }, metrics);
+
+    router.onRead("A", null, new CodePinValue("T", "1", "1"));
+    router.onRead("A", null, new CodePinValue("T", "1", "1"));
+    router.onRead("A", null, new CodePinValue("T", "1", "2"));
+    router.onWritten("B", new CodePinValue("T", "1", "2"));
+
+    assertEquals(3, metrics.get("A").getIn());
+    assertEquals(1, metrics.get("A").getDedup());
+    assertEquals(1, metrics.get("B").getOut());
+  }
+
+  @Test
+  public void exportWritesAllServices() throws Exception {
+    metrics.get("A").countIn();
+    metrics.get("B").countError();
+    metrics.get("B").requestFinished(ServiceMetrics.RTT_BLE_WRITE, metrics.get("B").requestStarted());
+
+    File file = File.createTempFile("metrics", ".txt");
+    file.deleteOnExit();
+    new MetricsExporter(metrics, file).export();
+
+    List<String> lines = new ArrayList<>();
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        lines.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+
+    assertEquals(4, lines.size());
+    assertTrue(lines.get(0).startsWith("#"));
+    assertTrue(lines.get(1).startsWith("A : in=1"));
+    assertTrue(lines.get(2).contains("errors=1"));
+    assertTrue(lines.get(3).startsWith("B rtt.ble.write : n=1"));
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class BeanMessageParserTest {
+
+  private final List<CodePinValue> values = new ArrayList<CodePinValue>();
+
+  private int invalid;
+
+  private final BeanMessageParser parser = new BeanMessageParser(new BeanMessageParser.Listener() {
+    @Override
+    public void onValue(CodePinValue codePinValue) {
+      values.add(codePinValue);
+    }
+
+    @Override
+    public void onInvalid() {
+      invalid++;
+    }
+  });
+
+  @Test
+  public void parsesOneMessage() {
+    feed("T/12/23.5\n");
+
+    assertEquals(1, values.size());
+    assertValue("T", "12", "23.5", values.get(0));
+    assertEquals(0, parser.getPending());
+  }
+
+  @Test
+  public void reassemblesFragments() {
+    feed("T/1");
+    feed("2/2");
+    assertEquals(0, values.size());
+    assertEquals(6, parser.getPending());
+
+    feed("3.5\n");
+    assertValue("T", "12", "23.5", values.get(0));
+  }
+
+  @Test
+  public void splitsSeveralMessages() {
+    feed("T/1/a\nT/2/b\nT/3");
+    feed("/c\n");
+
+    assertEquals(3, values.size());
+    assertValue("T", "2", "b", values.get(1));
+    assertValue("T", "3", "c", values.get(2));
+  }
+
+  @Test
+  public void ignoresCarriageReturnAndEmptyLines() {
+    feed("T/1/a\r\n\r\n\n");
+
+    assertEquals(1, values.size());
+    assertEquals("a", values.get(0).getValue());
+    assertEquals(0, invalid);
+  }
+
+  @Test
+  public void rejectsInvalidLines() {
+    feed("T/12\nT/12/3/4\n/1/2\nT//2\nT/1/\nT/1/ok\n");
+
+    assertEquals(5, invalid);
+    assertEquals(1, values.size());
+    assertEquals(5, parser.getInvalid());
+  }
+
+  @Test
+  public void dropsLongLines() {
+    StringBuilder builder = new StringBuilder("T/1/");
+    for (int i = 0; i < BeanMessageParser.MAX_LINE; i++) {
+      builder.append('x');
+    }
+    feed(builder.toString());
+    feed("more\nT/1/a\n");
+
+    assertEquals(1, invalid);
+    assertEquals(1, values.size());
+    assertEquals("a", values.get(0).getValue());
+  }
+
+  @Test
+  public void resetDropsPartialLine() {
+    feed("T/1/");
+    parser.reset();
+    feed("a\nT/2/b\n");
+
+    assertEquals(1, invalid);
+    assertValue("T", "2", "b", values.get(0));
+  }
+
+  @Test
+  public void reusesStrings() {
+    feed("T/12/23.5\nT/12/23.5\n");
+
+    assertSame(values.get(0).getCode(), values.get(1).getCode());
+    assertSame(values.get(0).getPin(), values.get(1).getPin());
+    assertSame(values.get(0).getValue(), values.get(1).getValue());
+  }
+
+  @Test
+  public void readsOffsetAndCount() {
+    byte[] bytes = "xxT/1/a\nyy".getBytes();
+    parser.feed(bytes, 2, 6);
+
+    assertValue("T", "1", "a", values.get(0));
+    assertEquals(0, parser.getPending());
+  }
+
+  @Test
+  public void splitsBatchedReplies() {
+    List<CodePinValue> batch = new ArrayList<CodePinValue>();
+    BeanMessageParser batched = new BeanMessageParser(BeanPoll.VERSION_2, collect(batch));
+
+    batched.feed("T/1/a;L/2/b;".getBytes());
+    batched.feed("T/3/c\n".getBytes());
+
+    assertEquals(3, batch.size());
+    assertValue("L", "2", "b", batch.get(1));
+    assertValue("T", "3", "c", batch.get(2));
+  }
+
+  @Test
+  public void versionOneKeepsSemicolonsInValues() {
+    feed("T/1/a;b\n");
+
+    assertValue("T", "1", "a;b", values.get(0));
+  }
+
+  private static BeanMessageParser.Listener collect(final List<CodePinValue> into) {
+    return new BeanMessageParser.Listener() {
+      @Override
+      public void onValue(CodePinValue codePinValue) {
+        into.add(codePinValue);
+      }
+
+      @Override
+      public void onInvalid() {
+      }
+    };
+  }
+
+  private static void assertValue(String code, String pin, String value, CodePinValue actual) {
+    assertEquals(code, actual.getCode());
+    assertEquals(pin, actual.getPin());
+    assertEquals(value, actual.getValue());
+  }
+
+  private void feed(String text) {
+    parser.feed(text.getBytes());
+  }
+}
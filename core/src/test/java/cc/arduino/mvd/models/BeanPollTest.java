@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BeanPollTest {
+
+  @Test
+  public void versionOneHasOnePinPerFrame() {
+    List<String> frames = new BeanPoll(BeanPoll.VERSION_1).add("T", "1").add("L", "2").build();
+
+    assertEquals(Arrays.asList("T/1\n", "L/2\n"), frames);
+  }
+
+  @Test
+  public void versionTwoBatchesPins() {
+    List<String> frames = new BeanPoll(BeanPoll.VERSION_2).add("T", "1").add("L", "2").add("T", "3").build();
+
+    assertEquals(Arrays.asList("T/1;L/2;T/3\n"), frames);
+  }
+
+  @Test
+  public void pinsArePolledOnce() {
+    List<String> frames = new BeanPoll(BeanPoll.VERSION_2).add("T", "1").add("T", "1").build();
+
+    assertEquals(Arrays.asList("T/1\n"), frames);
+  }
+
+  @Test
+  public void framesStayWithinTheSerialBuffer() {
+    BeanPoll poll = new BeanPoll(BeanPoll.VERSION_2);
+    for (int i = 0; i < 40; i++) {
+      poll.add("T", Integer.toString(i));
+    }
+    List<String> frames = poll.build();
+
+    assertTrue(frames.size() > 1);
+
+    int pins = 0;
+    for (String frame : frames) {
+      assertTrue(frame, frame.length() <= BeanPoll.MAX_FRAME);
+      assertTrue(frame.endsWith("\n"));
+      pins += frame.split(";").length;
+    }
+    assertEquals(40, pins);
+  }
+
+  @Test
+  public void emptyPollHasNoFrames() {
+    assertEquals(0, new BeanPoll(BeanPoll.VERSION_2).build().size());
+  }
+}
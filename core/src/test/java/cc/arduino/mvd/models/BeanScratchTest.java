@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BeanScratchTest {
+
+  @Test
+  public void decodesText() {
+    assertEquals("23.5", BeanScratch.decode("23.5".getBytes()));
+  }
+
+  @Test
+  public void stopsAtTerminators() {
+    assertEquals("1", BeanScratch.decode(new byte[]{'1', 0, 'x'}));
+    assertEquals("42", BeanScratch.decode("42\r\n".getBytes()));
+  }
+
+  @Test
+  public void emptyIsNull() {
+    assertNull(BeanScratch.decode(new byte[]{0, 0}));
+    assertNull(BeanScratch.decode(new byte[0]));
+    assertNull(BeanScratch.decode(null));
+  }
+
+  @Test
+  public void knowsTheBanks() {
+    assertTrue(BeanScratch.isBank(1));
+    assertTrue(BeanScratch.isBank(5));
+    assertFalse(BeanScratch.isBank(0));
+    assertFalse(BeanScratch.isBank(6));
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CodePinValueCodecTest {
+
+  @Test
+  public void roundTripsAscii() {
+    assertRoundTrip(new CodePinValue("T", "12", "23.5"));
+  }
+
+  @Test
+  public void roundTripsUnicode() {
+    assertRoundTrip(new CodePinValue("L", "3", "blå ☺ 😀"));
+  }
+
+  @Test
+  public void roundTripsNulls() {
+    CodePinValue decoded = CodePinValueCodec.decode(CodePinValueCodec.encode(new CodePinValue("T", null, null)));
+
+    assertEquals("T", decoded.getCode());
+    assertNull(decoded.getPin());
+    assertNull(decoded.getValue());
+  }
+
+  @Test
+  public void encodedLengthIsExact() {
+    CodePinValue value = new CodePinValue("L", "3", "blå ☺ 😀");
+
+    assertEquals(CodePinValueCodec.encodedLength(value), CodePinValueCodec.encode(value).length);
+  }
+
+  @Test
+  public void decodesFromBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    CodePinValueCodec.encode(new CodePinValue("T", "1", "a"), buffer);
+    CodePinValueCodec.encode(new CodePinValue("T", "2", "b"), buffer);
+    buffer.flip();
+
+    assertEquals("1", CodePinValueCodec.decode(buffer).getPin());
+    assertEquals("2", CodePinValueCodec.decode(buffer).getPin());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownVersion() {
+    byte[] bytes = CodePinValueCodec.encode(new CodePinValue("T", "12", "23.5"));
+    bytes[0] = 99;
+
+    CodePinValueCodec.decode(bytes);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTruncatedInput() {
+    byte[] bytes = CodePinValueCodec.encode(new CodePinValue("T", "12", "23.5"));
+    byte[] truncated = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+    CodePinValueCodec.decode(truncated);
+  }
+
+  private static void assertRoundTrip(CodePinValue value) {
+    CodePinValue decoded = CodePinValue.fromBytes(value.toBytes());
+
+    assertEquals(value.getCode(), decoded.getCode());
+    assertEquals(value.getPin(), decoded.getPin());
+    assertEquals(value.getValue(), decoded.getValue());
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.models;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpPollTest {
+
+  @Test
+  public void pollsAllPinsInOneQuery() {
+    List<HttpPoll.Batch> batches = new HttpPoll().add("T", "1").add("L", "3").add("T", "1").build();
+
+    assertEquals(1, batches.size());
+    assertEquals("pins=T/1,L/3", batches.get(0).getQuery());
+    assertEquals(2, batches.get(0).getPins().size());
+    assertEquals("L", batches.get(0).getPins().get(1).getCode());
+    assertEquals("3", batches.get(0).getPins().get(1).getPin());
+  }
+
+  @Test
+  public void encodesCodesAndPins() {
+    List<HttpPoll.Batch> batches = new HttpPoll().add("a b", "1/2").add("x,y", "å").build();
+
+    assertEquals("pins=a+b/1%2F2,x%2Cy/%C3%A5", batches.get(0).getQuery());
+    assertEquals("1/2", batches.get(0).getPins().get(0).getPin());
+  }
+
+  @Test
+  public void splitsLongPolls() {
+    HttpPoll poll = new HttpPoll();
+    for (int i = 0; i < 500; i++) {
+      poll.add("T", Integer.toString(i));
+    }
+
+    List<HttpPoll.Batch> batches = poll.build();
+    assertTrue(batches.size() > 1);
+
+    int pins = 0;
+    for (HttpPoll.Batch batch : batches) {
+      assertTrue(batch.getQuery().length() <= HttpPoll.MAX_QUERY);
+      assertTrue(batch.getQuery().startsWith("pins=T/"));
+      pins += batch.getPins().size();
+    }
+    assertEquals(500, pins);
+  }
+
+  @Test
+  public void nothingToPoll() {
+    assertTrue(new HttpPoll().build().isEmpty());
+  }
+
+  @Test
+  public void parsesTheArray() throws Exception {
+    List<CodePinValue> values = HttpPoll.parse("[{\"code\":\"T\",\"pin\":\"1\",\"value\":\"23.5\"},"
+        + "{\"code\":\"L\",\"pin\":\"3\",\"value\":1},{\"code\":\"L\",\"pin\":\"4\",\"value\":null}]");
+
+    assertEquals(3, values.size());
+    assertEquals("T", values.get(0).getCode());
+    assertEquals("23.5", values.get(0).getValue());
+    assertEquals("1", values.get(1).getValue());
+    assertNull(values.get(2).getValue());
+  }
+
+  @Test
+  public void skipsIncompleteEntries() throws Exception {
+    List<CodePinValue> values = HttpPoll.parse("[{\"code\":\"T\",\"value\":\"1\"},\"T/1\",{\"code\":\"T\",\"pin\":\"2\",\"value\":\"0\"}]");
+
+    assertEquals(1, values.size());
+    assertEquals("2", values.get(0).getPin());
+  }
+
+  @Test(expected = JSONException.class)
+  public void singleObjectsAreNotBatches() throws Exception {
+    HttpPoll.parse("{\"code\":\"T\",\"pin\":\"1\",\"value\":\"23.5\"}");
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import cc.arduino.mvd.models.BeanPoll;
+import cc.arduino.mvd.models.CodePinValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BeanPollPlanTest {
+
+  private static final String MAC1 = "00:11:22:AA:BB:01";
+
+  private static final String MAC2 = "00:11:22:AA:BB:02";
+
+  private final List<BindingEntry> bindings = new ArrayList<>();
+
+  private final RoutingTable table = RoutingTableTest.table(Collections.<RouteEntry>emptyList(), bindings);
+
+  private final BeanPollPlan plan = new BeanPollPlan(table);
+
+  @Test
+  public void groupsBindingsByBean() {
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1"));
+    bindings.add(new BindingEntry(MAC2, "b", "HttpService", "T", "2"));
+    bindings.add(new BindingEntry(MAC1, "c", "MqttService", "L", "3"));
+
+    Map<String, List<String>> frames = plan.getFrames();
+
+    assertEquals(Arrays.asList("T/1\n", "L/3\n"), frames.get(MAC1));
+    assertEquals(Arrays.asList("T/2\n"), frames.get(MAC2));
+  }
+
+  @Test
+  public void keepsFramesUntilReload() {
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1"));
+    Map<String, List<String>> first = plan.getFrames();
+
+    assertSame(first, plan.getFrames());
+
+    bindings.add(new BindingEntry(MAC1, "b", "HttpService", "T", "2"));
+    assertSame(first, plan.getFrames());
+
+    table.reload();
+    assertEquals(Arrays.asList("T/1\n", "T/2\n"), plan.getFrames().get(MAC1));
+  }
+
+  @Test
+  public void rebuildsWhenProtocolChanges() {
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1"));
+    bindings.add(new BindingEntry(MAC1, "b", "HttpService", "T", "2"));
+    plan.getFrames();
+
+    plan.setProtocol(MAC1, BeanPoll.VERSION_2);
+
+    assertEquals(Arrays.asList("T/1;T/2\n"), plan.getFrames().get(MAC1));
+  }
+
+  @Test
+  public void pollsEverythingAtFirst() {
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1"));
+    bindings.add(new BindingEntry(MAC1, "b", "HttpService", "T", "2"));
+
+    assertEquals(Arrays.asList("T/1\n", "T/2\n"), plan.poll(MAC1, 0));
+    assertTrue(plan.poll(MAC1, 100).isEmpty());
+    assertEquals(2, plan.poll(MAC1, 1000).size());
+  }
+
+  @Test
+  public void stablePinsBackOff() {
+    plan.setIntervals(1000, 4000);
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1"));
+    bindings.add(new BindingEntry(MAC1, "b", "HttpService", "T", "2"));
+
+    plan.poll(MAC1, 0);
+    plan.onRead(MAC1, "T", "1", false);
+    plan.onRead(MAC1, "T", "2", true);
+
+    assertEquals(2000, plan.getInterval(MAC1, "T", "1"));
+    assertEquals(1000, plan.getInterval(MAC1, "T", "2"));
+    assertEquals(Arrays.asList("T/2\n"), plan.poll(MAC1, 1000));
+    assertEquals(2, plan.poll(MAC1, 2000).size());
+
+    for (int i = 0; i < 5; i++) {
+      plan.onRead(MAC1, "T", "1", false);
+    }
+    assertEquals(4000, plan.getInterval(MAC1, "T", "1"));
+  }
+
+  @Test
+  public void changesSpeedUpAgain() {
+    plan.setIntervals(1000, 8000);
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1"));
+
+    plan.poll(MAC1, 0);
+    plan.onRead(MAC1, "T", "1", false);
+    plan.onRead(MAC1, "T", "1", false);
+    plan.onRead(MAC1, "T", "1", false);
+    plan.poll(MAC1, 8000);
+
+    plan.onRead(MAC1, "T", "1", true);
+
+    assertEquals(1000, plan.getInterval(MAC1, "T", "1"));
+    assertEquals(1, plan.poll(MAC1, 9000).size());
+  }
+
+  @Test
+  public void ticksAreNotExact() {
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1"));
+
+    plan.poll(MAC1, 0);
+
+    assertEquals(1, plan.poll(MAC1, 995).size());
+  }
+
+  @Test
+  public void fixedIntervalsDontAdapt() {
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1", 5000));
+
+    plan.poll(MAC1, 0);
+    plan.onRead(MAC1, "T", "1", true);
+
+    assertEquals(5000, plan.getInterval(MAC1, "T", "1"));
+    assertTrue(plan.poll(MAC1, 4000).isEmpty());
+    assertEquals(1, plan.poll(MAC1, 5000).size());
+  }
+
+  @Test
+  public void sharedPinTakesFastestFixedInterval() {
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1", 5000));
+    bindings.add(new BindingEntry(MAC1, "b", "MqttService", "T", "1", 2000));
+
+    assertEquals(2000, plan.getInterval(MAC1, "T", "1"));
+    assertEquals(-1, plan.getInterval(MAC2, "T", "1"));
+  }
+
+  @Test
+  public void fixedBindingCapsAnAdaptiveOne() {
+    plan.setIntervals(100, 16000);
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1"));
+    bindings.add(new BindingEntry(MAC1, "b", "MqttService", "T", "1", 200));
+
+    assertEquals(100, plan.getInterval(MAC1, "T", "1"));
+
+    // Backs off, but never slower than the fixed binding asked for
+    for (int i = 0; i < 10; i++) {
+      plan.onRead(MAC1, "T", "1", false);
+    }
+    assertEquals(200, plan.getInterval(MAC1, "T", "1"));
+
+    plan.onRead(MAC1, "T", "1", true);
+    assertEquals(100, plan.getInterval(MAC1, "T", "1"));
+  }
+
+  @Test
+  public void mapsScratchBanksToPins() {
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1", 0, 2));
+
+    CodePinValue value = plan.onScratch(MAC1, 2, "23.5".getBytes());
+
+    assertEquals("T", value.getCode());
+    assertEquals("1", value.getPin());
+    assertEquals("23.5", value.getValue());
+    assertNull(plan.onScratch(MAC1, 3, "1".getBytes()));
+    assertNull(plan.onScratch(MAC2, 2, "1".getBytes()));
+  }
+
+  @Test
+  public void pushedPinsAreNotPolled() {
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1", 0, 1));
+    bindings.add(new BindingEntry(MAC1, "b", "MqttService", "T", "1"));
+    bindings.add(new BindingEntry(MAC1, "c", "HttpService", "T", "2"));
+
+    assertEquals(Arrays.asList("T/2\n"), plan.poll(MAC1, 0));
+  }
+
+  @Test
+  public void beansWithOnlyPushedPinsAreNotPolled() {
+    bindings.add(new BindingEntry(MAC1, "a", "HttpService", "T", "1", 0, 1));
+
+    assertTrue(plan.getMacs().isEmpty());
+    assertTrue(plan.poll(MAC1, 0).isEmpty());
+  }
+
+  @Test
+  public void skipsIncompleteBindings() {
+    bindings.add(new BindingEntry(null, "a", "HttpService", "T", "1"));
+    bindings.add(new BindingEntry(MAC1, "b", "HttpService", "T", null));
+
+    assertTrue(plan.getFrames().isEmpty());
+  }
+}
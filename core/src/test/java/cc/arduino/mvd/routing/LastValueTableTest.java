@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import cc.arduino.mvd.models.CodePinValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LastValueTableTest {
+
+  private final LastValueTable table = new LastValueTable();
+
+  @Test
+  public void firstReadIsNotAChange() {
+    assertEquals(LastValueTable.FIRST, table.update("S", "T", "1", "10"));
+    assertEquals(LastValueTable.UNCHANGED, table.update("S", "T", "1", "10"));
+    assertEquals(LastValueTable.CHANGED, table.update("S", "T", "1", "11"));
+  }
+
+  @Test
+  public void pinsAreTrackedSeparately() {
+    table.update("S", "T", "1", "10");
+    table.update("S", "T", "2", "20");
+
+    // Alternating pins used to look like a change every time
+    assertEquals(LastValueTable.UNCHANGED, table.update("S", "T", "1", "10"));
+    assertEquals(LastValueTable.UNCHANGED, table.update("S", "T", "2", "20"));
+  }
+
+  @Test
+  public void servicesAreTrackedSeparately() {
+    table.update("A", "T", "1", "10");
+
+    assertEquals(LastValueTable.FIRST, table.update("B", "T", "1", "10"));
+  }
+
+  @Test
+  public void writtenValueIsNotEchoed() {
+    table.update("S", "L", "3", "0");
+    table.put("S", new CodePinValue("L", "3", "255"));
+
+    assertEquals(LastValueTable.UNCHANGED, table.update("S", "L", "3", "255"));
+  }
+
+  @Test
+  public void numbersCompareByValue() {
+    table.update("S", "T", "1", "1");
+
+    assertEquals(LastValueTable.UNCHANGED, table.update("S", "T", "1", "1.0"));
+    assertEquals(1.0, table.get("S", "T", "1").getNumber(), 0);
+  }
+
+  @Test
+  public void textIsNotNumeric() {
+    table.update("S", "T", "1", "audio.wav");
+
+    LastValueTable.Value value = table.get("S", "T", "1");
+    assertEquals("audio.wav", value.getValue());
+    assertTrue(!value.isNumeric());
+  }
+
+  @Test
+  public void snapshotIsPerService() {
+    table.update("A", "T", "1", "1");
+    table.update("A", "T", "2", "2");
+    table.update("B", "T", "1", "3");
+
+    List<LastValueTable.Value> values = table.snapshot("A");
+    assertEquals(2, values.size());
+    assertEquals(3, table.snapshot().size());
+  }
+
+  @Test
+  public void clearForgetsService() {
+    table.update("A", "T", "1", "1");
+    table.update("B", "T", "1", "1");
+
+    table.clear("A");
+
+    assertNull(table.get("A", "T", "1"));
+    assertEquals(LastValueTable.FIRST, table.update("A", "T", "1", "1"));
+    assertEquals(LastValueTable.UNCHANGED, table.update("B", "T", "1", "1"));
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cc.arduino.mvd.bus.EventSink;
+import cc.arduino.mvd.bus.MvdBus;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.models.CodePinValue;
+
+/**
+ * Measures how many values per second make it through the Router, first with a sink that only
+ * counts, then through the MvdBus and the Dispatcher to subscribers. Run with ./gradlew :core:benchmark
+ */
+public class RouterBenchmark {
+
+  private static final int SERVICES = 6;
+
+  private static final int PINS = 16;
+
+  private static final int BOUND_BEANS = 2;
+
+  private static final int WARMUP = 200000;
+
+  private static final int ITERATIONS = 2000000;
+
+  private static final String[] SERVICE_NAMES = new String[SERVICES];
+
+  private static final String[] PIN_NAMES = new String[PINS];
+
+  static {
+    for (int s = 0; s < SERVICES; s++) {
+      SERVICE_NAMES[s] = "Service" + s;
+    }
+    for (int p = 0; p < PINS; p++) {
+      PIN_NAMES[p] = String.valueOf(p);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    RoutingTable table = buildTable();
+
+    runRouter(table, WARMUP);
+    long nanos = runRouter(table, ITERATIONS);
+    report("Router, counting sink", ITERATIONS, nanos);
+
+    runBus(table, WARMUP / 10);
+    nanos = runBus(table, ITERATIONS / 10);
+    report("Router, MvdBus and Dispatcher", ITERATIONS / 10, nanos);
+  }
+
+  /**
+   * Every service is routed to the next one, and every pin is bound to a few beans.
+   */
+  private static RoutingTable buildTable() {
+    final List<RouteEntry> routes = new ArrayList<>();
+    final List<BindingEntry> bindings = new ArrayList<>();
+
+    for (int s = 0; s < SERVICES; s++) {
+      routes.add(new RouteEntry(service(s), service((s + 1) % SERVICES)));
+
+      for (int p = 0; p < PINS; p++) {
+        for (int b = 0; b < BOUND_BEANS; b++) {
+          bindings.add(new BindingEntry("00:00:00:00:0" + s + ":" + b, "bench", service(s), "T", String.valueOf(p)));
+        }
+      }
+    }
+
+    RoutingTable table = new RoutingTable();
+    table.setSource(new RoutingSource() {
+      @Override
+      public List<RouteEntry> loadRoutes() {
+        return routes;
+      }
+
+      @Override
+      public List<BindingEntry> loadBindings() {
+        return bindings;
+      }
+    });
+    return table;
+  }
+
+  private static long runRouter(RoutingTable table, int iterations) {
+    final AtomicLong published = new AtomicLong();
+
+    Router router = new Router(table, new LastValueTable(), new EventSink() {
+      @Override
+      public boolean publish(MvdEvent event) {
+        published.incrementAndGet();
+        return true;
+      }
+    });
+
+    long start = System.nanoTime();
+    feed(router, iterations);
+    long nanos = System.nanoTime() - start;
+
+    if (published.get() == 0) {
+      throw new IllegalStateException("Nothing was published");
+    }
+
+    return nanos;
+  }
+
+  private static long runBus(RoutingTable table, int iterations) throws InterruptedException {
+    MvdBus bus = MvdBus.getInstance();
+    final AtomicLong received = new AtomicLong();
+
+    MvdBus.Subscriber subscriber = new MvdBus.Subscriber() {
+      @Override
+      public void onEvent(MvdEvent event) {
+        received.incrementAndGet();
+      }
+    };
+
+    for (int s = 0; s < SERVICES; s++) {
+      bus.subscribe(service(s), subscriber);
+    }
+    bus.subscribe(Router.BEAN_SERVICE, subscriber);
+
+    Router router = new Router(table, new LastValueTable(), bus);
+
+    long start = System.nanoTime();
+    feed(router, iterations);
+
+    // Wait for the queues to drain, dropped events count as handled
+    long last = -1;
+    while (received.get() != last) {
+      last = received.get();
+      Thread.sleep(50);
+    }
+    long nanos = System.nanoTime() - start;
+
+    for (int s = 0; s < SERVICES; s++) {
+      bus.unsubscribe(service(s), subscriber);
+    }
+    bus.unsubscribe(Router.BEAN_SERVICE, subscriber);
+
+    return nanos;
+  }
+
+  /**
+   * Every value differs from the last one of its pin, so each read after the first round is fanned out.
+   */
+  private static void feed(Router router, int iterations) {
+    for (int i = 0; i < iterations; i++) {
+      int s = i % SERVICES;
+      int p = (i / SERVICES) % PINS;
+      int round = i / (SERVICES * PINS);
+      router.onRead(service(s), null, new CodePinValue("T", PIN_NAMES[p], (round & 1) == 0 ? "0" : "1"));
+    }
+  }
+
+  private static String service(int s) {
+    return SERVICE_NAMES[s];
+  }
+
+  private static void report(String name, int iterations, long nanos) {
+    double seconds = nanos / 1e9;
+    System.out.println(String.format("%-32s %,12.0f values/s %8.1f ns/value", name, iterations / seconds, (double) nanos / iterations));
+  }
+}
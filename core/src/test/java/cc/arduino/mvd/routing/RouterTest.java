@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cc.arduino.mvd.bus.EventSink;
+import cc.arduino.mvd.bus.MvdEvent;
+import cc.arduino.mvd.models.CodePinValue;
+import cc.arduino.mvd.trace.Trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RouterTest {
+
+  private final List<MvdEvent> events = new ArrayList<>();
+
+  private final Router router = new Router(
+      RoutingTableTest.table(
+          Arrays.asList(new RouteEntry("FirebaseService", "MqttService")),
+          Arrays.asList(
+              new BindingEntry("00:01", "lamp", "FirebaseService", "L", "3"),
+              new BindingEntry("00:02", "lamp", "FirebaseService", "L", "3")
+          )),
+      new LastValueTable(),
+      new EventSink() {
+        @Override
+        public boolean publish(MvdEvent event) {
+          events.add(event);
+          return true;
+        }
+      });
+
+  @Test
+  public void firstReadIsFannedOut() {
+    assertEquals(LastValueTable.FIRST, router.onRead("FirebaseService", null, new CodePinValue("L", "3", "0")));
+
+    // A pin that never changes still reaches its routes and bindings once
+    assertEquals(3, events.size());
+    assertEquals("0", events.get(0).getCodePinValue().getValue());
+    assertEquals(LastValueTable.UNCHANGED, router.onRead("FirebaseService", null, new CodePinValue("L", "3", "0")));
+    assertEquals(3, events.size());
+  }
+
+  @Test
+  public void changeGoesToRoutesAndBindings() {
+    router.onRead("FirebaseService", null, new CodePinValue("L", "3", "0"));
+    events.clear();
+    router.onRead("FirebaseService", null, new CodePinValue("L", "3", "255"));
+
+    assertEquals(3, events.size());
+
+    MvdEvent route = events.get(0);
+    assertEquals(MvdEvent.ACTION_DOWN, route.getAction());
+    assertEquals("FirebaseService", route.getSender());
+    assertEquals("MqttService", route.getTarget());
+    assertNull(route.getMac());
+
+    assertEquals(Router.BEAN_SERVICE, events.get(1).getTarget());
+    assertEquals("00:01", events.get(1).getMac());
+    assertEquals("00:02", events.get(2).getMac());
+  }
+
+  @Test
+  public void tablesOfTheirOwnDontMix() {
+    LastValueTable first = new LastValueTable();
+    LastValueTable second = new LastValueTable();
+
+    router.onRead("BeanService", "00:01", new CodePinValue("L", "3", "1"), first);
+    router.onWritten("BeanService", new CodePinValue("L", "3", "0"), second);
+
+    // The other Bean's value isn't a reason to suppress this one
+    assertEquals(LastValueTable.FIRST, router.onRead("BeanService", "00:02", new CodePinValue("L", "3", "1"), new LastValueTable()));
+    assertEquals(LastValueTable.UNCHANGED, router.onRead("BeanService", "00:01", new CodePinValue("L", "3", "1"), first));
+    assertEquals(LastValueTable.UNCHANGED, router.onRead("BeanService", "00:02", new CodePinValue("L", "3", "0"), second));
+    assertNull(LastValueTable.getInstance().get("BeanService", "L", "3"));
+  }
+
+  @Test
+  public void everyTargetGetsItsOwnTrace() {
+    router.onRead("FirebaseService", null, new CodePinValue("L", "3", "0"));
+
+    Trace route = events.get(0).getCodePinValue().getTrace();
+    Trace bean = events.get(1).getCodePinValue().getTrace();
+
+    assertEquals("FirebaseService", route.getOrigin());
+    assertEquals(route.getId(), bean.getId());
+    assertEquals("MqttService:queued", route.getHops().get(1).getName());
+    assertEquals("BeanService:queued", bean.getHops().get(1).getName());
+  }
+
+  @Test
+  public void unchangedValueIsDropped() {
+    router.onRead("FirebaseService", null, new CodePinValue("L", "3", "0"));
+    router.onRead("FirebaseService", null, new CodePinValue("L", "4", "1"));
+    events.clear();
+    router.onRead("FirebaseService", null, new CodePinValue("L", "3", "0"));
+
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  public void writtenValueIsNotEchoed() {
+    router.onRead("MqttService", null, new CodePinValue("L", "3", "0"));
+    events.clear();
+    router.onWritten("MqttService", new CodePinValue("L", "3", "255"));
+
+    assertEquals(LastValueTable.UNCHANGED, router.onRead("MqttService", null, new CodePinValue("L", "3", "255")));
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  public void beanMacIsPassedOnToRoutes() {
+    Router router = new Router(
+        RoutingTableTest.table(Arrays.asList(new RouteEntry("BeanService", "HttpService")), new ArrayList<BindingEntry>()),
+        new LastValueTable(),
+        new EventSink() {
+          @Override
+          public boolean publish(MvdEvent event) {
+            events.add(event);
+            return true;
+          }
+        });
+
+    assertEquals(1, router.fanOut("BeanService", "00:01", new CodePinValue("T", "1", "20")));
+    assertEquals("HttpService", events.get(0).getTarget());
+    assertEquals("00:01", events.get(0).getMac());
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.routing;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RoutingTableTest {
+
+  @Test
+  public void emptyWithoutSource() {
+    RoutingTable table = new RoutingTable();
+
+    assertTrue(table.getRouteTargets("A").isEmpty());
+    assertTrue(table.getAllBindings().isEmpty());
+  }
+
+  @Test
+  public void routesWorkBothWays() {
+    RoutingTable table = table(Arrays.asList(new RouteEntry("A", "B")), Collections.<BindingEntry>emptyList());
+
+    assertEquals(Arrays.asList("B"), table.getRouteTargets("A"));
+    assertEquals(Arrays.asList("A"), table.getRouteTargets("B"));
+  }
+
+  @Test
+  public void boundMacsAreDistinctPerPin() {
+    RoutingTable table = table(Collections.<RouteEntry>emptyList(), Arrays.asList(
+        new BindingEntry("00:01", "t1", "A", "T", "1"),
+        new BindingEntry("00:01", "t1 again", "A", "T", "1"),
+        new BindingEntry("00:02", "t1", "A", "T", "1"),
+        new BindingEntry("00:03", "t2", "A", "T", "2"),
+        new BindingEntry("00:04", "t1", "B", "T", "1")
+    ));
+
+    assertEquals(Arrays.asList("00:01", "00:02"), table.getBoundMacs("A", "T", "1"));
+    assertEquals(Arrays.asList("00:03"), table.getBoundMacs("A", "T", "2"));
+    assertTrue(table.getBoundMacs("A", "T", "3").isEmpty());
+    assertEquals(4, table.getBindings("A").size());
+  }
+
+  @Test
+  public void reloadPicksUpChanges() {
+    final RouteEntry[] routes = {new RouteEntry("A", "B")};
+    RoutingTable table = new RoutingTable();
+    table.setSource(new RoutingSource() {
+      @Override
+      public List<RouteEntry> loadRoutes() {
+        return Arrays.asList(routes);
+      }
+
+      @Override
+      public List<BindingEntry> loadBindings() {
+        return Collections.emptyList();
+      }
+    });
+
+    assertEquals(Arrays.asList("B"), table.getRouteTargets("A"));
+
+    routes[0] = new RouteEntry("A", "C");
+    table.reload();
+
+    assertEquals(Arrays.asList("C"), table.getRouteTargets("A"));
+  }
+
+  static RoutingTable table(final List<RouteEntry> routes, final List<BindingEntry> bindings) {
+    RoutingTable table = new RoutingTable();
+    table.setSource(new RoutingSource() {
+      @Override
+      public List<RouteEntry> loadRoutes() {
+        return routes;
+      }
+
+      @Override
+      public List<BindingEntry> loadBindings() {
+        return bindings;
+      }
+    });
+    return table;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.trace;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test
+  public void emptyIsZero() {
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(50));
+    assertEquals(0, histogram.getMax());
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    for (long i = 1; i <= 10; i++) {
+      histogram.record(i);
+    }
+
+    assertEquals(5, histogram.getPercentile(50));
+    assertEquals(10, histogram.getPercentile(99));
+    assertEquals(10, histogram.getMax());
+    assertEquals(5, histogram.getMean());
+  }
+
+  @Test
+  public void percentilesAreWithinBucketError() {
+    for (long i = 1; i <= 100000; i++) {
+      histogram.record(i);
+    }
+
+    assertWithin(50000, histogram.getPercentile(50));
+    assertWithin(99000, histogram.getPercentile(99));
+    assertEquals(100000, histogram.getMax());
+  }
+
+  @Test
+  public void bucketsCoverEveryValue() {
+    long[] values = {0, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE};
+    for (long value : values) {
+      int bucket = LatencyHistogram.bucket(value);
+      assertTrue(value <= LatencyHistogram.upperBound(bucket));
+      assertTrue(bucket == 0 || value > LatencyHistogram.upperBound(bucket - 1));
+    }
+  }
+
+  @Test
+  public void resetClears() {
+    histogram.record(100);
+    histogram.reset();
+
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(actual + " not near " + expected, actual >= expected && actual <= expected * 1.125);
+  }
+}
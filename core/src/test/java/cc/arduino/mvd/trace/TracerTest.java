@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.trace;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import cc.arduino.mvd.models.CodePinValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TracerTest {
+
+  private final Tracer tracer = new Tracer();
+
+  @Test
+  public void hopsBranchWithoutSharingState() {
+    Trace origin = Trace.start("BeanService");
+    Trace mqtt = origin.hop("MqttService:queued");
+    Trace http = origin.hop("HttpService:queued");
+
+    assertEquals(1, origin.getHops().size());
+    assertEquals("MqttService:queued", mqtt.getHops().get(1).getName());
+    assertEquals("HttpService:queued", http.getHops().get(1).getName());
+    assertEquals(origin.getId(), mqtt.getId());
+    assertEquals("BeanService", http.getOrigin());
+  }
+
+  @Test
+  public void idsAreMonotonic() {
+    assertTrue(Trace.start("A").getId() < Trace.start("A").getId());
+  }
+
+  @Test
+  public void completeRecordsPerRoute() {
+    CodePinValue value = new CodePinValue("T", "1", "20");
+    value.setTrace(Trace.start("BeanService").hop("MqttService:queued"));
+
+    tracer.complete("MqttService", value);
+
+    assertEquals(1, tracer.getHistogram("BeanService", "MqttService").getCount());
+    assertNull(tracer.getHistogram("BeanService", "HttpService"));
+    assertEquals("MqttService:done", value.getTrace().getHops().get(2).getName());
+
+    List<String> lines = tracer.dump();
+    assertEquals(1, lines.size());
+    assertTrue(lines.get(0).startsWith("BeanService -> MqttService : n=1"));
+  }
+
+  @Test
+  public void untracedValuesAreIgnored() {
+    tracer.complete("MqttService", new CodePinValue("T", "1", "20"));
+
+    assertTrue(tracer.dump().isEmpty());
+  }
+}
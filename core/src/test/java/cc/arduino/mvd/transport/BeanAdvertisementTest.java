@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.transport;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BeanAdvertisementTest {
+
+  private static final UUID OTHER = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+
+  @Test
+  public void findsTheSerialService() {
+    assertTrue(BeanAdvertisement.isBean(record(flags(), uuids(0x07, BeanAdvertisement.SERIAL_SERVICE), new byte[31])));
+  }
+
+  @Test
+  public void readsTheUuidLittleEndian() {
+    byte[] record = {
+        2, 0x01, 0x06,
+        17, 0x07, (byte) 0xde, 0x74, 0x2d, (byte) 0xf0, 0x70, 0x13, 0x12, (byte) 0xb5,
+        0x44, 0x4b, (byte) 0xb1, (byte) 0xc5, 0x10, (byte) 0xff, (byte) 0x95, (byte) 0xa4
+    };
+
+    assertTrue(BeanAdvertisement.isBean(record));
+  }
+
+  @Test
+  public void findsItAmongOtherServices() {
+    assertTrue(BeanAdvertisement.isBean(record(flags(), uuids(0x06, OTHER, BeanAdvertisement.SERIAL_SERVICE))));
+  }
+
+  @Test
+  public void otherDevicesAreNotBeans() {
+    assertFalse(BeanAdvertisement.isBean(record(flags(), uuids(0x07, OTHER))));
+    assertFalse(BeanAdvertisement.isBean(record(flags())));
+    assertFalse(BeanAdvertisement.isBean(new byte[0]));
+    assertFalse(BeanAdvertisement.isBean(null));
+  }
+
+  @Test
+  public void truncatedRecordsAreNotBeans() {
+    byte[] full = record(uuids(0x07, BeanAdvertisement.SERIAL_SERVICE));
+    byte[] truncated = new byte[full.length - 1];
+    System.arraycopy(full, 0, truncated, 0, truncated.length);
+
+    assertFalse(BeanAdvertisement.isBean(truncated));
+  }
+
+  private static byte[] flags() {
+    return new byte[]{2, 0x01, 0x06};
+  }
+
+  private static byte[] uuids(int type, UUID... uuids) {
+    byte[] structure = new byte[2 + 16 * uuids.length];
+    structure[0] = (byte) (1 + 16 * uuids.length);
+    structure[1] = (byte) type;
+
+    for (int u = 0; u < uuids.length; u++) {
+      for (int i = 0; i < 8; i++) {
+        structure[2 + u * 16 + i] = (byte) (uuids[u].getLeastSignificantBits() >>> (8 * i));
+        structure[2 + u * 16 + 8 + i] = (byte) (uuids[u].getMostSignificantBits() >>> (8 * i));
+      }
+    }
+
+    return structure;
+  }
+
+  private static byte[] record(byte[]... structures) {
+    int length = 0;
+    for (byte[] structure : structures) {
+      length += structure.length;
+    }
+
+    byte[] record = new byte[length];
+    int offset = 0;
+    for (byte[] structure : structures) {
+      System.arraycopy(structure, 0, record, offset, structure.length);
+      offset += structure.length;
+    }
+    return record;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.transport;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BeanDiscoveryCacheTest {
+
+  private final BeanDiscoveryCache cache = new BeanDiscoveryCache();
+
+  @Test
+  public void firstSightingIsNew() {
+    assertTrue(cache.onDiscovered("00:01", "Bean", -60, 1000));
+    assertFalse(cache.onDiscovered("00:01", "Bean", -70, 2000));
+
+    BeanDiscoveryCache.Sighting sighting = cache.get("00:01");
+    assertEquals(-70, sighting.getRssi());
+    assertEquals(2000, sighting.getLastSeen());
+    assertNull(cache.get("00:02"));
+  }
+
+  @Test
+  public void keepsTheKnownName() {
+    cache.onDiscovered("00:01", "Bean", -60, 1000);
+    cache.onDiscovered("00:01", null, -60, 2000);
+
+    assertEquals("Bean", cache.get("00:01").getName());
+  }
+
+  @Test
+  public void forgottenDevicesAreNewAgain() {
+    cache.setTimeToLive(1000);
+    cache.onDiscovered("00:01", "Bean", -60, 0);
+
+    assertTrue(cache.isPresent("00:01", 1000));
+    assertFalse(cache.isPresent("00:01", 1001));
+    assertTrue(cache.onDiscovered("00:01", "Bean", -60, 5000));
+  }
+
+  @Test
+  public void expireForgetsOldDevices() {
+    cache.setTimeToLive(1000);
+    cache.onDiscovered("00:01", "Bean", -60, 0);
+    cache.onDiscovered("00:02", "Bean", -60, 900);
+
+    assertEquals(1, cache.expire(1500));
+    assertEquals(1, cache.size());
+    assertNull(cache.get("00:01"));
+  }
+
+  @Test
+  public void snapshotIsStrongestFirst() {
+    cache.onDiscovered("00:01", "far", -90, 0);
+    cache.onDiscovered("00:02", "near", -40, 0);
+    cache.onDiscovered("00:03", "middle", -65, 0);
+
+    List<BeanDiscoveryCache.Sighting> snapshot = cache.snapshot();
+    assertEquals("00:02", snapshot.get(0).getMac());
+    assertEquals("00:03", snapshot.get(1).getMac());
+    assertEquals("00:01", snapshot.get(2).getMac());
+  }
+}
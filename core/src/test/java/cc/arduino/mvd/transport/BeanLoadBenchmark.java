@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.metrics.ServiceMetrics;
+import cc.arduino.mvd.models.BeanPoll;
+import cc.arduino.mvd.models.CodePinValue;
+import cc.arduino.mvd.routing.BeanPollPlan;
+import cc.arduino.mvd.routing.BindingEntry;
+import cc.arduino.mvd.routing.LastValueTable;
+import cc.arduino.mvd.routing.RouteEntry;
+import cc.arduino.mvd.routing.RoutingSource;
+import cc.arduino.mvd.routing.RoutingTable;
+import cc.arduino.mvd.trace.LatencyHistogram;
+
+/**
+ * Polls a few hundred virtual Beans over the SimulatedBeanTransport, the way the BeanService polls
+ * real ones, and reports the reads, the time from poll to value, writes and reconnects. Run with
+ * ./gradlew :core:beanLoad, or -Pbeans=500 -Pseconds=60 to change the load.
+ */
+public class BeanLoadBenchmark {
+
+  private static final int PINS = 8;
+
+  private static final long TICK = 200;
+
+  private static final long MAX_INTERVAL = 3200;
+
+  private final SimulatedBeanTransport transport = new SimulatedBeanTransport(1);
+
+  private final ServiceMetrics metrics = new Metrics().get("BeanService");
+
+  private final BeanPollPlan plan;
+
+  private final Map<String, BeanSession> sessions = new ConcurrentHashMap<>();
+
+  // When a poll was last queued for each Bean, in ns
+  private final Map<String, Long> polled = new ConcurrentHashMap<>();
+
+  private final LatencyHistogram readLatency = new LatencyHistogram();
+
+  private final AtomicLong reads = new AtomicLong();
+
+  private final List<String> macs = new ArrayList<>();
+
+  public static void main(String[] args) throws Exception {
+    int beans = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    new BeanLoadBenchmark(beans).run(seconds);
+  }
+
+  private BeanLoadBenchmark(int beans) {
+    transport.setLatency(20, 30);
+    transport.setDisconnectRate(0.0005);
+    transport.setConnectFailureRate(0.1);
+
+    final List<BindingEntry> bindings = new ArrayList<>();
+    for (int b = 0; b < beans; b++) {
+      String mac = String.format("00:00:00:00:%02X:%02X", b / 256, b % 256);
+      macs.add(mac);
+
+      transport.addBean(mac, b % 2 == 0 ? BeanPoll.VERSION_2 : BeanPoll.VERSION_1);
+      for (int p = 0; p < PINS; p++) {
+        bindings.add(new BindingEntry(mac, "pin" + p, "HttpService", "T", Integer.toString(p)));
+      }
+    }
+
+    RoutingTable table = new RoutingTable();
+    table.setSource(new RoutingSource() {
+      @Override
+      public List<RouteEntry> loadRoutes() {
+        return Collections.emptyList();
+      }
+
+      @Override
+      public List<BindingEntry> loadBindings() {
+        return bindings;
+      }
+    });
+
+    plan = new BeanPollPlan(table);
+    plan.setIntervals(TICK, MAX_INTERVAL);
+    for (int b = 0; b < beans; b++) {
+      plan.setProtocol(macs.get(b), b % 2 == 0 ? BeanPoll.VERSION_2 : BeanPoll.VERSION_1);
+    }
+  }
+
+  private void run(int seconds) throws Exception {
+    for (String mac : macs) {
+      open(mac);
+    }
+
+    Random random = new Random(2);
+    long started = System.currentTimeMillis();
+    long end = started + seconds * 1000L;
+    long nextReport = started + 5000;
+
+    while (System.currentTimeMillis() < end) {
+      long now = System.currentTimeMillis();
+
+      // A few pins change every tick, the rest should back off
+      for (int i = 0; i < macs.size() / 10 + 1; i++) {
+        String mac = macs.get(random.nextInt(macs.size()));
+        transport.getBean(mac).setValue("T", Integer.toString(random.nextInt(PINS)), Integer.toString(random.nextInt(100)));
+      }
+
+      for (String mac : macs) {
+        BeanSession session = sessions.get(mac);
+        if (!session.isWritable()) {
+          continue;
+        }
+
+        for (String frame : plan.poll(mac, now)) {
+          polled.put(mac, System.nanoTime());
+          session.poll(frame);
+        }
+      }
+
+      if (now >= nextReport) {
+        report(now - started);
+        nextReport += 5000;
+      }
+
+      Thread.sleep(TICK);
+    }
+
+    report(System.currentTimeMillis() - started);
+    transport.shutdown();
+  }
+
+  private void open(String mac) {
+    BeanSession session = new BeanSession("load/" + mac, mac, plan.getProtocol(mac), metrics, new BeanSession.Handler() {
+      @Override
+      public void onValue(BeanSession session, CodePinValue codePinValue) {
+        onRead(session, codePinValue);
+      }
+
+      @Override
+      public void onScratch(BeanSession session, int bank, byte[] bytes) {
+      }
+
+      @Override
+      public void onWritten(BeanSession session, CodePinValue codePinValue, boolean written) {
+      }
+    });
+
+    sessions.put(mac, session);
+    session.open(transport);
+    session.getConnection().setBackoff(100, 2000);
+  }
+
+  private void onRead(BeanSession session, CodePinValue codePinValue) {
+    reads.incrementAndGet();
+
+    Long sent = polled.get(session.getMac());
+    if (sent != null) {
+      readLatency.record((System.nanoTime() - sent) / 1000);
+    }
+
+    int change = session.getLastValues().update("BeanService", codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue());
+    plan.onRead(session.getMac(), codePinValue.getCode(), codePinValue.getPin(), change != LastValueTable.UNCHANGED);
+  }
+
+  private void report(long elapsed) {
+    int connected = 0;
+    for (BeanSession session : sessions.values()) {
+      if (session.isWritable()) {
+        connected++;
+      }
+    }
+
+    long polls = 0;
+    for (String mac : macs) {
+      polls += transport.getBean(mac).getPolls();
+    }
+
+    System.out.println(String.format("%5.1f s  %d/%d connected, %d pins polled, %d reads (%.0f/s), %d writes, %d reconnects, %d errors",
+        elapsed / 1000.0, connected, macs.size(), polls, reads.get(), reads.get() * 1000.0 / elapsed,
+        metrics.getRtt(ServiceMetrics.RTT_BLE_WRITE).getCount(), metrics.getReconnects(), metrics.getErrors()));
+    System.out.println("        poll to value: " + readLatency);
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.transport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cc.arduino.mvd.metrics.Metrics;
+import cc.arduino.mvd.models.BeanPoll;
+import cc.arduino.mvd.models.CodePinValue;
+import cc.arduino.mvd.routing.LastValueTable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class BeanSessionTest {
+
+  private static final String FIRST = "00:11:22:AA:BB:01";
+
+  private static final String SECOND = "00:11:22:AA:BB:02";
+
+  private final SimulatedBeanTransport transport = new SimulatedBeanTransport(7);
+
+  private final Recorder recorder = new Recorder();
+
+  @Test
+  public void unknownBeansCantBeOpened() {
+    assertFalse(session(FIRST).open(transport));
+  }
+
+  @Test
+  public void readsAndWritesItsOwnBean() throws Exception {
+    SimulatedBeanTransport.VirtualBean bean = transport.addBean(FIRST, BeanPoll.VERSION_1);
+    bean.setValue("T", "1", "21");
+
+    BeanSession session = open(FIRST);
+    session.write("L/3/1\n", new CodePinValue("L", "3", "1"));
+    session.poll("T/1\n");
+
+    recorder.await(1);
+    assertEquals("21", recorder.values.get(0).getValue());
+    assertEquals("1", bean.getValue("L", "3"));
+    assertTrue(recorder.written.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void beansDontShareLastValues() throws Exception {
+    transport.addBean(FIRST, BeanPoll.VERSION_1).setValue("T", "1", "21");
+    transport.addBean(SECOND, BeanPoll.VERSION_1).setValue("T", "1", "21");
+
+    BeanSession first = open(FIRST);
+    BeanSession second = open(SECOND);
+    assertNotSame(first.getLastValues(), second.getLastValues());
+
+    first.poll("T/1\n");
+    second.poll("T/1\n");
+    recorder.await(2);
+
+    // Both Beans read the same value, each is the first of its own
+    assertEquals(LastValueTable.FIRST, (int) recorder.changes.get(0));
+    assertEquals(LastValueTable.FIRST, (int) recorder.changes.get(1));
+  }
+
+  @Test
+  public void closeDisconnects() throws Exception {
+    transport.addBean(FIRST, BeanPoll.VERSION_1);
+
+    BeanSession session = open(FIRST);
+    session.write("L/3/1\n", new CodePinValue("L", "3", "1"));
+    session.close();
+
+    assertFalse(session.isWritable());
+    assertFalse(session.getLink().isConnected());
+    assertEquals(0, session.getQueue().getPending());
+  }
+
+  private BeanSession session(String mac) {
+    return new BeanSession("test/" + mac, mac, BeanPoll.VERSION_1, new Metrics().get("BeanService"), recorder);
+  }
+
+  private BeanSession open(String mac) throws InterruptedException {
+    BeanSession session = session(mac);
+    assertTrue(session.open(transport));
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!session.isWritable() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(session.isWritable());
+
+    return session;
+  }
+
+  private static final class Recorder implements BeanSession.Handler {
+
+    private final List<CodePinValue> values = Collections.synchronizedList(new ArrayList<CodePinValue>());
+
+    private final List<Integer> changes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    private final CountDownLatch written = new CountDownLatch(1);
+
+    @Override
+    public void onValue(BeanSession session, CodePinValue codePinValue) {
+      // Deduplicated per Bean, like the BeanService does
+      changes.add(session.getLastValues().update("BeanService", codePinValue.getCode(), codePinValue.getPin(), codePinValue.getValue()));
+      values.add(codePinValue);
+    }
+
+    @Override
+    public void onScratch(BeanSession session, int bank, byte[] bytes) {
+    }
+
+    @Override
+    public void onWritten(BeanSession session, CodePinValue codePinValue, boolean written) {
+      if (written) {
+        this.written.countDown();
+      }
+    }
+
+    private void await(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (values.size() < count && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(count, values.size());
+    }
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015 Arduino Verkstad AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.arduino.mvd.transport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cc.arduino.mvd.models.BeanMessageParser;
+import cc.arduino.mvd.models.BeanPoll;
+import cc.arduino.mvd.models.CodePinValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimulatedBeanTransportTest {
+
+  private static final String MAC = "00:11:22:AA:BB:01";
+
+  private final SimulatedBeanTransport transport = new SimulatedBeanTransport(42);
+
+  private final Recorder recorder = new Recorder();
+
+  @Test
+  public void unknownBeansCantBeOpened() {
+    assertNull(transport.open(MAC, recorder));
+  }
+
+  @Test
+  public void answersPollsInFragments() throws Exception {
+    transport.setFragmentSize(4);
+    SimulatedBeanTransport.VirtualBean bean = transport.addBean(MAC, BeanPoll.VERSION_1);
+    bean.setValue("T", "12", "23.5");
+
+    BeanTransport.Link link = connect();
+    link.send("T/12\n");
+
+    recorder.await(1);
+    assertEquals("T", recorder.values.get(0).getCode());
+    assertEquals("23.5", recorder.values.get(0).getValue());
+    assertTrue(recorder.notifications > 1);
+    assertEquals(1, bean.getPolls());
+  }
+
+  @Test
+  public void answersBatchedPolls() throws Exception {
+    transport.addBean(MAC, BeanPoll.VERSION_2).setValue("L", "2", "1");
+
+    BeanTransport.Link link = connect();
+    link.send("T/1;L/2\n");
+
+    recorder.await(2);
+    assertEquals("0", recorder.values.get(0).getValue());
+    assertEquals("1", recorder.values.get(1).getValue());
+  }
+
+  @Test
+  public void storesWrittenValues() throws Exception {
+    SimulatedBeanTransport.VirtualBean bean = transport.addBean(MAC, BeanPoll.VERSION_1);
+
+    BeanTransport.Link link = connect();
+    link.send("L/3/");
+    link.send("1\nL/3\n");
+
+    recorder.await(1);
+    assertEquals("1", bean.getValue("L", "3"));
+    assertEquals("1", recorder.values.get(0).getValue());
+    assertEquals(1, bean.getWrites());
+  }
+
+  @Test
+  public void keepsOrderDespiteJitter() throws Exception {
+    transport.setLatency(1, 20);
+    transport.setFragmentSize(3);
+    transport.addBean(MAC, BeanPoll.VERSION_1);
+
+    BeanTransport.Link link = connect();
+    for (int i = 0; i < 50; i++) {
+      link.send("T/" + i + "\n");
+    }
+
+    recorder.await(50);
+    for (int i = 0; i < 50; i++) {
+      assertEquals(Integer.toString(i), recorder.values.get(i).getPin());
+    }
+    assertEquals(0, recorder.parser.getInvalid());
+  }
+
+  @Test
+  public void writesMayDropTheLink() throws Exception {
+    transport.setDisconnectRate(1);
+    transport.addBean(MAC, BeanPoll.VERSION_1);
+
+    BeanTransport.Link link = connect();
+    link.send("T/1\n");
+
+    assertTrue(recorder.disconnected.await(5, TimeUnit.SECONDS));
+    assertFalse(link.isConnected());
+
+    try {
+      link.send("T/1\n");
+      fail("Sent on a dropped link");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void connectsMayFail() throws Exception {
+    transport.setConnectFailureRate(1);
+    transport.addBean(MAC, BeanPoll.VERSION_1);
+
+    BeanTransport.Link link = transport.open(MAC, recorder);
+    link.connect();
+
+    assertTrue(recorder.failed.await(5, TimeUnit.SECONDS));
+    assertFalse(link.isConnected());
+  }
+
+  @Test
+  public void pushesScratchValues() throws Exception {
+    SimulatedBeanTransport.VirtualBean bean = transport.addBean(MAC, BeanPoll.VERSION_1);
+    connect();
+
+    bean.setScratch(2, "42");
+
+    assertTrue(recorder.scratch.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void scansFindBeansInRange() throws Exception {
+    transport.addBean(MAC, BeanPoll.VERSION_1).setRssi(-42);
+    transport.addBean("00:11:22:AA:BB:02", BeanPoll.VERSION_1).setInRange(false);
+
+    final List<String> found = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch discovered = new CountDownLatch(1);
+    transport.startDiscovery(new BeanTransport.DiscoveryListener() {
+      @Override
+      public void onDiscovered(String mac, String name, int rssi) {
+        found.add(mac + " " + rssi);
+        discovered.countDown();
+      }
+    });
+
+    assertTrue(discovered.await(5, TimeUnit.SECONDS));
+    transport.cancelDiscovery();
+
+    assertTrue(found.contains(MAC + " -42"));
+    assertFalse(found.contains("00:11:22:AA:BB:02 " + SimulatedBeanTransport.DEFAULT_RSSI));
+  }
+
+  @Test
+  public void beansOutOfRangeCantConnect() throws Exception {
+    transport.addBean(MAC, BeanPoll.VERSION_1).setInRange(false);
+
+    BeanTransport.Link link = transport.open(MAC, recorder);
+    link.connect();
+
+    assertTrue(recorder.failed.await(5, TimeUnit.SECONDS));
+  }
+
+  private BeanTransport.Link connect() throws InterruptedException {
+    BeanTransport.Link link = transport.open(MAC, recorder);
+    link.connect();
+    assertTrue(recorder.connected.await(5, TimeUnit.SECONDS));
+    assertTrue(link.isConnected());
+    return link;
+  }
+
+  private static final class Recorder implements BeanTransport.Listener {
+
+    private final List<CodePinValue> values = Collections.synchronizedList(new ArrayList<CodePinValue>());
+
+    private final CountDownLatch connected = new CountDownLatch(1);
+
+    private final CountDownLatch failed = new CountDownLatch(1);
+
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+
+    private final CountDownLatch scratch = new CountDownLatch(1);
+
+    private volatile int notifications;
+
+    private final BeanMessageParser parser = new BeanMessageParser(BeanPoll.VERSION_2, new BeanMessageParser.Listener() {
+      @Override
+      public void onValue(CodePinValue codePinValue) {
+        values.add(codePinValue);
+      }
+
+      @Override
+      public void onInvalid() {
+      }
+    });
+
+    @Override
+    public void onConnected() {
+      connected.countDown();
+    }
+
+    @Override
+    public void onConnectionFailed() {
+      failed.countDown();
+    }
+
+    @Override
+    public void onDisconnected() {
+      disconnected.countDown();
+    }
+
+    @Override
+    public void onSerialMessageReceived(byte[] bytes) {
+      notifications++;
+      parser.feed(bytes);
+    }
+
+    @Override
+    public void onScratchValueChanged(int bank, byte[] bytes) {
+      scratch.countDown();
+    }
+
+    private void await(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (values.size() < count && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      assertEquals(count, values.size());
+    }
+  }
+}